@@ -23,89 +23,422 @@
  */
 package virtualgarden;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
- * Singleton class that handles registering objects that can collide with each
- * other. Only objects of a similar type may collide with each other. This would
- * not work for a video game, but it exactly what I'd like for this application.
+ * Class that handles registering objects that can collide with each
+ * other. Each Garden has one. Only objects of a similar type may collide
+ * with each other. This would not work for a video game, but it exactly
+ * what I'd like for this application.
+ * 
+ * Colliders are kept in a grid by the area they can reach, so checking one
+ * only looks at its neighbours instead of everything in the garden.
+ * 
+ * Everything is kept by collider id, in CopyOnWrite arrays, so a Collision
+ * can be forked for a forked garden without copying it. A copy of a
+ * collider can take its place under the same id; see replace.
  * 
  * @author Michael Hawthorne
  */
 public class Collision {
-    private static Collision instance;              // Dam son, a singleton.
-    private HashMap<Class, ArrayList<Collider>> colliders; // List of colliders.
+    private static final int MIN_CELL_SIZE = 32;    // Pixels
+    private static final int MAX_CELLS = 1 << 22;   // Per type. Big gardens get bigger cells
+    
+    private final int cellSize, cols, rows;
+    private HashMap<Class, Grid> colliders;         // Colliders of each type.
+    private long tests;                             // Pairs compared, ever
+    
+    /**
+     * Collision ctor.
+     * 
+     * @param width Width of the area colliders live in. Anything outside
+     *              still works, it just shares the edge cells.
+     * @param height Height of the area.
+     */
+    public Collision(int width, int height) {
+        long area = (long)Math.max(1, width) * Math.max(1, height);
+        cellSize = Math.max(MIN_CELL_SIZE, (int)Math.ceil(Math.sqrt((double)area / MAX_CELLS)));
+        cols = Math.max(1, (width + cellSize - 1) / cellSize);
+        rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        colliders = new HashMap<Class, Grid>();
+    }
     
     /**
-     * Get our Collision instance.
-     * @return Collision instance.
+     * Copy ctor, sharing every grid with the original.
+     * 
+     * @param from What to copy.
      */
-    public static Collision getInstance() {
-        if (instance == null) {
-            instance = new Collision();
+    private Collision(Collision from) {
+        cellSize = from.cellSize;
+        cols = from.cols;
+        rows = from.rows;
+        colliders = new HashMap<Class, Grid>();
+        for (Map.Entry<Class, Grid> e : from.colliders.entrySet()) {
+            colliders.put(e.getKey(), new Grid(e.getValue()));
         }
-        return instance;
+        tests = from.tests;
     }
     
     /**
-     * Collision ctor.
+     * Fork the registry, for a forked garden. Neither changes the other's
+     * registry afterwards. The fork holds the same colliders until they're
+     * replaced.
+     * 
+     * @return The fork.
      */
-    private Collision() {
-        colliders = new HashMap<Class, ArrayList<Collider>>();
+    public Collision fork() {
+        return new Collision(this);
     }
     
     /**
      * Register a new object with the Collision object.
      * 
-     * @param c Collider to register.
+     * @param c Collider to register. Its id must not be registered already.
      */
     public void register(Collider c) {
-        ArrayList<Collider> colliderList;
-        if (!colliders.containsKey(c.getClass())) {
-            colliderList = new ArrayList<Collider>();
-        } else {
-            colliderList = colliders.get(c.getClass());
+        grid(c).add(c);
+    }
+    
+    /**
+     * Register a lot of objects at once, like a garden's first seeds. Same
+     * as registering them one by one, minus growing the lookup tables as we
+     * go.
+     * 
+     * @param all Colliders to register.
+     */
+    public void registerAll(Collection<? extends Collider> all) {
+        for (Collider c : all) {
+            grid(c).reserve(c.getId() + 1);
+        }
+        for (Collider c : all) {
+            grid(c).add(c);
         }
-        colliderList.add(c);
-        colliders.put(c.getClass(), colliderList);
     }
     
     /**
-     * Remove an object from the Collision object.
+     * Remove an object from the Collision object. Whatever is registered
+     * under its id is removed, even if it's a copy.
      * 
      * @param c The Collider to remove.
      */
     public void remove(Collider c) {
-        ArrayList<Collider> cList = colliders.get(c.getClass());
-        cList.remove(c);
-        colliders.put(c.getClass(), cList);
+        Grid grid = colliders.get(c.getClass());
+        if (grid != null) {
+            grid.remove(c.getId());
+        }
+    }
+    
+    /**
+     * Put a copy of a registered collider in its place, in the same cells,
+     * so it's what gets compared against from now on. Does nothing if
+     * nothing is registered under its id.
+     * 
+     * @param c The copy. Must be where the collider was, and just as big.
+     */
+    public void replace(Collider c) {
+        Grid grid = colliders.get(c.getClass());
+        if (grid != null && grid.get(c.getId()) != null) {
+            grid.byId.set(c.getId(), c);
+        }
     }
     
     /**
      * Generic method. We can implement object-specific interactions by enforcing
      * only certain types of objects to be passed in
      * 
+     * Colliders only get moved to new cells here, so anything that grows
+     * should check itself after growing, before anybody else checks
+     * against it.
+     * 
      * @param <T> The type that we're checking collision against.
      * @param c The Collider to check against.
      * @return Are we colliding?
      * @throws virtualgarden.Collision.ColliderNotPopulatedException 
      */
     public <T extends Collider> boolean isColliding(T c) throws ColliderNotPopulatedException {
-        ArrayList<T> cList = (ArrayList<T>)colliders.get(c.getClass());
+        Grid grid = colliders.get(c.getClass());
         
-        if (cList == null) {
+        if (grid == null) {
             throw new ColliderNotPopulatedException();
         }
         
-        for (T otherC : cList) {
-            if (c != otherC && c.isColliding((T)otherC)) {
-                return true;
+        int id = c.getId();
+        if (grid.get(id) == c) {
+            grid.update(c);
+        }
+        
+        int col0 = col(c.getCenterX() - c.getReach() - 1);
+        int col1 = col(c.getCenterX() + c.getReach() + 1);
+        int row0 = row(c.getCenterY() - c.getReach() - 1);
+        int row1 = row(c.getCenterY() + c.getReach() + 1);
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                int[] cell = grid.cells.get(row * cols + col);
+                if (cell == null) {
+                    continue;
+                }
+                for (int other : cell) {
+                    if (other != id && grid.isFirstCell(other, col, row, col0, row0)) {
+                        tests++;
+                        if (c.isColliding((T)grid.get(other))) {
+                            return true;
+                        }
+                    }
+                }
             }
         }
         return false;
     }
     
+    /**
+     * How far a collider is from touching any other. Looks at the same
+     * colliders as isColliding, plus any within some distance past its
+     * reach, so a caller can tell how much room there is to grow.
+     * 
+     * @param <T> The type that we're checking collision against.
+     * @param c The Collider to check.
+     * @param within How far past c's reach to look.
+     * @return Smallest gap between c and another collider. Negative if 
+     *         they're colliding, or within if nothing is that close.
+     * @throws virtualgarden.Collision.ColliderNotPopulatedException 
+     */
+    public <T extends Collider> float clearance(T c, float within) throws ColliderNotPopulatedException {
+        Grid grid = colliders.get(c.getClass());
+        
+        if (grid == null) {
+            throw new ColliderNotPopulatedException();
+        }
+        
+        int id = c.getId();
+        if (grid.get(id) == c) {
+            grid.update(c);
+        }
+        
+        float reach = c.getReach() + within + 1;
+        int col0 = col(c.getCenterX() - reach);
+        int col1 = col(c.getCenterX() + reach);
+        int row0 = row(c.getCenterY() - reach);
+        int row1 = row(c.getCenterY() + reach);
+        float closest = within;
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                int[] cell = grid.cells.get(row * cols + col);
+                if (cell == null) {
+                    continue;
+                }
+                for (int other : cell) {
+                    if (other != id && grid.isFirstCell(other, col, row, col0, row0)) {
+                        tests++;
+                        float gap = c.getGap((T)grid.get(other));
+                        if (gap < 0) {
+                            return gap;
+                        }
+                        closest = Math.min(closest, gap);
+                    }
+                }
+            }
+        }
+        return closest;
+    }
+    
+    /**
+     * @return Number of pairs of colliders compared so far.
+     */
+    public long getTests() {
+        return tests;
+    }
+    
+    /**
+     * @param c A collider.
+     * @return The grid for its type, made if there isn't one yet.
+     */
+    private Grid grid(Collider c) {
+        Grid grid = colliders.get(c.getClass());
+        if (grid == null) {
+            grid = new Grid();
+            colliders.put(c.getClass(), grid);
+        }
+        return grid;
+    }
+    
+    /**
+     * @param x X position.
+     * @return Grid column, clamped to the grid.
+     */
+    private int col(float x) {
+        return Math.max(0, Math.min(cols - 1, (int)Math.floor(x / cellSize)));
+    }
+    
+    /**
+     * @param y Y position.
+     * @return Grid row, clamped to the grid.
+     */
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int)Math.floor(y / cellSize)));
+    }
+    
+    /**
+     * Every collider of one type, by the cells they can reach. A collider
+     * that reaches more than one cell is in each of them, and a search
+     * only counts it in the first one it looks at, so it never needs to
+     * remember who it's seen.
+     */
+    private class Grid {
+        final CopyOnWriteRefs<Collider> byId;   // Registered colliders
+        final CopyOnWriteInts spans;            // First column and row of each id's
+                                                // cells, and one past the last. All 0
+                                                // while it's in none
+        final CopyOnWriteRefs<int[]> cells;     // Ids in each cell. Never changed, only
+                                                // replaced, since forks share them
+        
+        /**
+         * Grid ctor. Starts out empty.
+         */
+        Grid() {
+            byId = new CopyOnWriteRefs<Collider>(0);
+            spans = new CopyOnWriteInts(0);
+            cells = new CopyOnWriteRefs<int[]>(cols * rows);
+        }
+        
+        /**
+         * Copy ctor, sharing everything.
+         * 
+         * @param from What to copy.
+         */
+        Grid(Grid from) {
+            byId = from.byId.fork();
+            spans = from.spans.fork();
+            cells = from.cells.fork();
+        }
+        
+        /**
+         * @param id An id.
+         * @return Whatever is registered under it, or null.
+         */
+        Collider get(int id) {
+            return id < byId.length() ? byId.get(id) : null;
+        }
+        
+        /**
+         * Make room for ids up to some number.
+         * 
+         * @param ids How many ids.
+         */
+        void reserve(int ids) {
+            byId.grow(ids);
+            spans.grow(ids * 4);
+        }
+        
+        /**
+         * @param c Collider to add.
+         */
+        void add(Collider c) {
+            reserve(c.getId() + 1);
+            byId.set(c.getId(), c);
+            update(c);
+        }
+        
+        /**
+         * @param id Id of the collider to take out.
+         */
+        void remove(int id) {
+            if (get(id) != null) {
+                erase(id);
+                spans.fill(id * 4, id * 4 + 4, 0);
+                byId.set(id, null);
+            }
+        }
+        
+        /**
+         * Move a collider to the cells it reaches now, if that changed. A
+         * pixel of slack keeps float rounding in isColliding from slipping
+         * between cells.
+         * 
+         * @param c The collider.
+         */
+        void update(Collider c) {
+            int at = c.getId() * 4;
+            int col0 = col(c.getCenterX() - c.getReach() - 1);
+            int col1 = col(c.getCenterX() + c.getReach() + 1) + 1;
+            int row0 = row(c.getCenterY() - c.getReach() - 1);
+            int row1 = row(c.getCenterY() + c.getReach() + 1) + 1;
+            if (col0 != spans.get(at) || row0 != spans.get(at + 1) 
+                    || col1 != spans.get(at + 2) || row1 != spans.get(at + 3)) {
+                erase(c.getId());
+                spans.set(at, col0);
+                spans.set(at + 1, row0);
+                spans.set(at + 2, col1);
+                spans.set(at + 3, row1);
+                insert(c.getId());
+            }
+        }
+        
+        /**
+         * Whether a search is looking at the first of a collider's cells
+         * that it looks at at all. Searches go row by row.
+         * 
+         * @param id The collider's id.
+         * @param col Column being looked at.
+         * @param row Row being looked at.
+         * @param col0 First column the search looks at.
+         * @param row0 First row the search looks at.
+         * @return Whether this is where to count it.
+         */
+        boolean isFirstCell(int id, int col, int row, int col0, int row0) {
+            return col == Math.max(col0, spans.get(id * 4)) 
+                   && row == Math.max(row0, spans.get(id * 4 + 1));
+        }
+        
+        /**
+         * @param id Id to put in the cells its span says it's in.
+         */
+        private void insert(int id) {
+            int at = id * 4;
+            for (int row = spans.get(at + 1); row < spans.get(at + 3); row++) {
+                for (int col = spans.get(at); col < spans.get(at + 2); col++) {
+                    int i = row * cols + col;
+                    int[] cell = cells.get(i);
+                    if (cell == null) {
+                        cells.set(i, new int[] {id});
+                    } else {
+                        cell = Arrays.copyOf(cell, cell.length + 1);
+                        cell[cell.length - 1] = id;
+                        cells.set(i, cell);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * @param id Id to take out of the cells its span says it's in.
+         */
+        private void erase(int id) {
+            int at = id * 4;
+            for (int row = spans.get(at + 1); row < spans.get(at + 3); row++) {
+                for (int col = spans.get(at); col < spans.get(at + 2); col++) {
+                    int i = row * cols + col;
+                    int[] cell = cells.get(i);
+                    if (cell.length == 1) {
+                        cells.set(i, null);
+                        continue;
+                    }
+                    // The last id takes its place
+                    int[] smaller = Arrays.copyOf(cell, cell.length - 1);
+                    for (int j = 0; j < smaller.length; j++) {
+                        if (smaller[j] == id) {
+                            smaller[j] = cell[cell.length - 1];
+                            break;
+                        }
+                    }
+                    cells.set(i, smaller);
+                }
+            }
+        }
+    }
+    
     /**
      * Specialized Exception for when we try to check if something is colliding
      * with an uninitialized list.
@@ -120,11 +453,43 @@ public class Collision {
      */
     public interface Collider<T> {
         
+        /**
+         * @return Our id. Colliders of the same type that are registered
+         *         at the same time need different ones.
+         */
+        public abstract int getId();
+        
         /**
          * Is this object colliding?
          * @param other The object to check against.
          * @return Are we colliding?
          */
         public abstract boolean isColliding(T other);
+        
+        /**
+         * How far apart we are. Should be negative exactly when
+         * isColliding.
+         * @param other The object to check against.
+         * @return Distance between our edges.
+         */
+        public abstract float getGap(T other);
+        
+        /**
+         * @return X position of our middle.
+         */
+        public abstract float getCenterX();
+        
+        /**
+         * @return Y position of our middle.
+         */
+        public abstract float getCenterY();
+        
+        /**
+         * How far from the middle we can touch anything. Collision assumes
+         * nothing further away than this can collide with us.
+         * 
+         * @return Our reach.
+         */
+        public abstract float getReach();
     }
 }
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.util.Arrays;
+
+/**
+ * An array of ints that can be forked cheaply. The array is kept in chunks,
+ * and a fork only copies the list of chunks, so the two share every chunk
+ * until one of them writes to it. Whoever writes first gets a copy of just
+ * that chunk, so forks only cost memory where they differ.
+ * 
+ * Shared chunks are only ever read, and each fork copies before writing,
+ * so forks can be used on different threads without locking. Any one fork
+ * still belongs to one thread.
+ * 
+ * The array can grow. Only the last chunk is ever short, and it doubles
+ * until it's full, so adding ints one at a time stays cheap.
+ * 
+ * @author Michael Hawthorne
+ */
+class CopyOnWriteInts {
+    private static final int CHUNK_SHIFT = 12;      // 4096 ints, 16KB
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    
+    private int length;
+    private int[][] chunks;
+    private boolean[] owned;                        // Chunks nobody else has
+    
+    /**
+     * CopyOnWriteInts ctor. Starts out all zeros.
+     * 
+     * @param length Number of ints. Can be 0.
+     */
+    CopyOnWriteInts(int length) {
+        this.length = length;
+        int count = ((length - 1) >> CHUNK_SHIFT) + 1;
+        chunks = new int[count][];
+        owned = new boolean[count];
+        for (int c = 0; c < count; c++) {
+            chunks[c] = new int[Math.min(CHUNK_MASK + 1, length - (c << CHUNK_SHIFT))];
+            owned[c] = true;
+        }
+    }
+    
+    /**
+     * Copy ctor, sharing every chunk.
+     * 
+     * @param from What to copy.
+     */
+    private CopyOnWriteInts(CopyOnWriteInts from) {
+        length = from.length;
+        chunks = from.chunks.clone();
+        owned = new boolean[chunks.length];
+    }
+    
+    /**
+     * Fork the array. Afterwards neither this nor the fork owns any chunk,
+     * so both copy on their next write.
+     * 
+     * @return The fork.
+     */
+    CopyOnWriteInts fork() {
+        Arrays.fill(owned, false);
+        return new CopyOnWriteInts(this);
+    }
+    
+    /**
+     * @param i Index.
+     * @return The int there.
+     */
+    int get(int i) {
+        return chunks[i >>> CHUNK_SHIFT][i & CHUNK_MASK];
+    }
+    
+    /**
+     * @param i Index.
+     * @param value New value.
+     */
+    void set(int i, int value) {
+        chunk(i)[i & CHUNK_MASK] = value;
+    }
+    
+    /**
+     * @param i Index.
+     * @param delta What to add to the int there.
+     */
+    void add(int i, int delta) {
+        chunk(i)[i & CHUNK_MASK] += delta;
+    }
+    
+    /**
+     * @param from First index.
+     * @param to One past the last index.
+     * @param value What to set every int in between to.
+     */
+    void fill(int from, int to, int value) {
+        for (int i = from; i < to; i++) {
+            chunk(i)[i & CHUNK_MASK] = value;
+        }
+    }
+    
+    /**
+     * @return Number of ints.
+     */
+    int length() {
+        return length;
+    }
+    
+    /**
+     * Make the array longer, if it's shorter than some length. The new ints
+     * are zeros.
+     * 
+     * @param length Number of ints to have.
+     */
+    void grow(int length) {
+        if (length <= this.length) {
+            return;
+        }
+        int had = chunks.length;
+        int count = ((length - 1) >> CHUNK_SHIFT) + 1;
+        if (count > had) {
+            chunks = Arrays.copyOf(chunks, count);
+            owned = Arrays.copyOf(owned, count);
+        }
+        for (int c = Math.max(0, had - 1); c < count; c++) {
+            int needed = Math.min(CHUNK_MASK + 1, length - (c << CHUNK_SHIFT));
+            if (chunks[c] == null) {
+                chunks[c] = new int[capacity(needed, 0)];
+                owned[c] = true;
+            } else if (chunks[c].length < needed) {
+                // Copying a shared chunk makes it ours, like writing would
+                chunks[c] = Arrays.copyOf(chunks[c], capacity(needed, chunks[c].length));
+                owned[c] = true;
+            }
+        }
+        this.length = length;
+    }
+    
+    /**
+     * @return Number of chunks that are still shared with a fork.
+     */
+    int getSharedChunks() {
+        int shared = 0;
+        for (boolean o : owned) {
+            if (!o) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+    
+    /**
+     * How big to make the last chunk.
+     * 
+     * @param needed Ints it has to hold.
+     * @param had How big it was.
+     * @return Its new size.
+     */
+    private static int capacity(int needed, int had) {
+        return Math.min(CHUNK_MASK + 1, Math.max(needed, Math.max(16, had * 2)));
+    }
+    
+    /**
+     * Get a chunk to write to, copying it first if it's shared.
+     * 
+     * @param i Index of an int in the chunk.
+     * @return The chunk.
+     */
+    private int[] chunk(int i) {
+        int c = i >>> CHUNK_SHIFT;
+        if (!owned[c]) {
+            chunks[c] = chunks[c].clone();
+            owned[c] = true;
+        }
+        return chunks[c];
+    }
+}
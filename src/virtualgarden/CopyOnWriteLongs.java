@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.util.Arrays;
+
+/**
+ * An array of longs that can be forked cheaply. Works just like
+ * CopyOnWriteInts: a fork shares every chunk until one side writes to it,
+ * and the array can grow.
+ * 
+ * @author Michael Hawthorne
+ */
+class CopyOnWriteLongs {
+    private static final int CHUNK_SHIFT = 12;      // 4096 longs, 32KB
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    
+    private int length;
+    private long[][] chunks;
+    private boolean[] owned;                        // Chunks nobody else has
+    
+    /**
+     * CopyOnWriteLongs ctor. Starts out all zeros.
+     * 
+     * @param length Number of longs. Can be 0.
+     */
+    CopyOnWriteLongs(int length) {
+        this.length = length;
+        int count = ((length - 1) >> CHUNK_SHIFT) + 1;
+        chunks = new long[count][];
+        owned = new boolean[count];
+        for (int c = 0; c < count; c++) {
+            chunks[c] = new long[Math.min(CHUNK_MASK + 1, length - (c << CHUNK_SHIFT))];
+            owned[c] = true;
+        }
+    }
+    
+    /**
+     * Copy ctor, sharing every chunk.
+     * 
+     * @param from What to copy.
+     */
+    private CopyOnWriteLongs(CopyOnWriteLongs from) {
+        length = from.length;
+        chunks = from.chunks.clone();
+        owned = new boolean[chunks.length];
+    }
+    
+    /**
+     * Fork the array. Afterwards neither this nor the fork owns any chunk,
+     * so both copy on their next write.
+     * 
+     * @return The fork.
+     */
+    CopyOnWriteLongs fork() {
+        Arrays.fill(owned, false);
+        return new CopyOnWriteLongs(this);
+    }
+    
+    /**
+     * @param i Index.
+     * @return The long there.
+     */
+    long get(int i) {
+        return chunks[i >>> CHUNK_SHIFT][i & CHUNK_MASK];
+    }
+    
+    /**
+     * @param i Index.
+     * @param value New value.
+     */
+    void set(int i, long value) {
+        chunk(i)[i & CHUNK_MASK] = value;
+    }
+    
+    /**
+     * @return Number of longs.
+     */
+    int length() {
+        return length;
+    }
+    
+    /**
+     * Make the array longer, if it's shorter than some length. The new longs
+     * are zeros.
+     * 
+     * @param length Number of longs to have.
+     */
+    void grow(int length) {
+        if (length <= this.length) {
+            return;
+        }
+        int had = chunks.length;
+        int count = ((length - 1) >> CHUNK_SHIFT) + 1;
+        if (count > had) {
+            chunks = Arrays.copyOf(chunks, count);
+            owned = Arrays.copyOf(owned, count);
+        }
+        for (int c = Math.max(0, had - 1); c < count; c++) {
+            int needed = Math.min(CHUNK_MASK + 1, length - (c << CHUNK_SHIFT));
+            if (chunks[c] == null) {
+                chunks[c] = new long[capacity(needed, 0)];
+                owned[c] = true;
+            } else if (chunks[c].length < needed) {
+                // Copying a shared chunk makes it ours, like writing would
+                chunks[c] = Arrays.copyOf(chunks[c], capacity(needed, chunks[c].length));
+                owned[c] = true;
+            }
+        }
+        this.length = length;
+    }
+    
+    /**
+     * @return Number of chunks that are still shared with a fork.
+     */
+    int getSharedChunks() {
+        int shared = 0;
+        for (boolean o : owned) {
+            if (!o) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+    
+    /**
+     * How big to make the last chunk.
+     * 
+     * @param needed Longs it has to hold.
+     * @param had How big it was.
+     * @return Its new size.
+     */
+    private static int capacity(int needed, int had) {
+        return Math.min(CHUNK_MASK + 1, Math.max(needed, Math.max(16, had * 2)));
+    }
+    
+    /**
+     * Get a chunk to write to, copying it first if it's shared.
+     * 
+     * @param i Index of a long in the chunk.
+     * @return The chunk.
+     */
+    private long[] chunk(int i) {
+        int c = i >>> CHUNK_SHIFT;
+        if (!owned[c]) {
+            chunks[c] = chunks[c].clone();
+            owned[c] = true;
+        }
+        return chunks[c];
+    }
+}
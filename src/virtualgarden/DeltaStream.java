@@ -0,0 +1,260 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * What happened in the garden, as a stream of small fixed-size records. The
+ * garden writes them into a ring buffer from its own thread and never waits
+ * for anybody. Any number of Readers can follow along from other threads at
+ * their own pace, without locks.
+ *
+ * Every record gets a sequence number. A Reader that falls a whole ring
+ * behind has lost records; it's told how many through onOverrun and skipped
+ * ahead to the newer half of the ring.
+ *
+ * @author Michael Hawthorne
+ */
+public class DeltaStream {
+    // Record types
+    public static final int BORN = 1;       // a: roots chromosome, b: flower chromosome
+    public static final int DIED = 2;
+    public static final int COLLIDED = 3;   // a: float bits of the root radius
+    public static final int BLOOMED = 4;    // a: number of seeds spread
+    public static final int TICK = 5;       // a: population, b: tick number
+    public static final int CHANGED = 6;    // a: float bits of the root radius, b: petal size
+
+    private static final int FIELDS = 5;    // longs per record
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray data;     // Record fields, FIELDS per slot
+    private final AtomicLongArray stamps;   // Sequence in each slot, -1 while writing
+    private final AtomicLong cursor;        // Everything below this is published
+    private long next;                      // Only touched by the garden's thread
+
+    /**
+     * DeltaStream ctor.
+     *
+     * @param capacity Records the ring holds. Rounded up to a power of two.
+     */
+    public DeltaStream(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.capacity = size;
+        mask = size - 1;
+        data = new AtomicLongArray(size * FIELDS);
+        stamps = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            stamps.set(i, -1);
+        }
+        cursor = new AtomicLong();
+    }
+
+    /**
+     * Write a record. Only call from the thread growing the garden.
+     *
+     * @param type Record type.
+     * @param id Plant id, or 0.
+     * @param x Plant X position.
+     * @param y Plant Y position.
+     * @param time Garden clock.
+     * @param a Depends on the type.
+     * @param b Depends on the type.
+     */
+    public void publish(int type, int id, int x, int y, double time, long a, long b) {
+        long seq = next++;
+        int slot = (int)(seq & mask);
+        int base = slot * FIELDS;
+
+        // Readers that see any of the new fields will also see this, and
+        // know the slot changed under them.
+        stamps.set(slot, -1);
+        data.lazySet(base, ((long)type << 32) | (id & 0xFFFFFFFFL));
+        data.lazySet(base + 1, ((long)x << 32) | (y & 0xFFFFFFFFL));
+        data.lazySet(base + 2, Double.doubleToRawLongBits(time));
+        data.lazySet(base + 3, a);
+        data.lazySet(base + 4, b);
+        stamps.lazySet(slot, seq);
+        cursor.lazySet(seq + 1);
+    }
+
+    /**
+     * @return Sequence number the next record will get.
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * @return Number of records the ring holds.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Start reading. The Reader only sees records published from now on.
+     *
+     * @return A new Reader.
+     */
+    public Reader reader() {
+        return new Reader(cursor.get());
+    }
+
+    /**
+     * Start reading at a given sequence number.
+     *
+     * @param sequence First record to read.
+     * @return A new Reader.
+     */
+    public Reader reader(long sequence) {
+        return new Reader(sequence);
+    }
+
+    /**
+     * One record, filled in by a Reader. Reused for every record, so copy
+     * out anything you want to keep.
+     */
+    public static class Record {
+        public long sequence;
+        public int type;
+        public int id;
+        public int x, y;
+        public double time;
+        public long a, b;
+    }
+
+    /**
+     * Gets records from a Reader.
+     */
+    public interface Handler {
+        /**
+         * A record, in sequence order.
+         *
+         * @param r The record. Only valid during this call.
+         */
+        public abstract void onRecord(Record r);
+
+        /**
+         * We fell too far behind and records were overwritten before we
+         * read them.
+         *
+         * @param lost How many records we missed.
+         */
+        public abstract void onOverrun(long lost);
+    }
+
+    /**
+     * Follows the stream from one thread. Each consumer needs its own.
+     */
+    public class Reader {
+        private long sequence;
+        private final Record record;
+
+        /**
+         * Reader ctor.
+         *
+         * @param sequence First record to read.
+         */
+        private Reader(long sequence) {
+            this.sequence = sequence;
+            record = new Record();
+        }
+
+        /**
+         * @return Sequence number of the next record we'll read.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Read whatever has been published since last time, up to a limit.
+         *
+         * @param h Gets the records.
+         * @param max Most records to read.
+         * @return Number of records handed to h.
+         */
+        public int poll(Handler h, int max) {
+            int count = 0;
+            long available = cursor.get();
+            while (count < max) {
+                if (available - sequence > capacity) {
+                    skipAhead(h, available);
+                }
+                if (sequence >= available) {
+                    break;
+                }
+
+                int slot = (int)(sequence & mask);
+                int base = slot * FIELDS;
+                if (stamps.get(slot) != sequence) {
+                    available = cursor.get();
+                    skipAhead(h, available);
+                    continue;
+                }
+                long typeId = data.get(base);
+                long xy = data.get(base + 1);
+                long time = data.get(base + 2);
+                long a = data.get(base + 3);
+                long b = data.get(base + 4);
+                if (stamps.get(slot) != sequence) {
+                    // Overwritten while we were reading it
+                    available = cursor.get();
+                    skipAhead(h, available);
+                    continue;
+                }
+
+                record.sequence = sequence;
+                record.type = (int)(typeId >>> 32);
+                record.id = (int)typeId;
+                record.x = (int)(xy >> 32);
+                record.y = (int)xy;
+                record.time = Double.longBitsToDouble(time);
+                record.a = a;
+                record.b = b;
+                sequence++;
+                count++;
+                h.onRecord(record);
+            }
+            return count;
+        }
+
+        /**
+         * We've been lapped. Jump to the newer half of the ring, which the
+         * garden won't overwrite for a while, and say what we lost.
+         *
+         * @param h Gets told about the overrun.
+         * @param available The published cursor.
+         */
+        private void skipAhead(Handler h, long available) {
+            long resume = Math.max(sequence + 1, available - capacity / 2);
+            long lost = resume - sequence;
+            sequence = resume;
+            h.onOverrun(lost);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+
+/**
+ * A set of rectangles that need repainting. Rectangles that touch get merged
+ * as they're added, so we hand Swing a handful of repaint calls instead of one
+ * per plant.
+ *
+ * @author Michael Hawthorne
+ */
+public class DirtyRegion {
+    private static final int MAX_RECTS = 16;    // Past this we just merge all
+    private static final int SLOP = 4;          // Merge rects this close
+
+    private ArrayList<Rectangle> rects;
+    private final Rectangle reach = new Rectangle();    // Scratch, for what's close
+
+    /**
+     * DirtyRegion ctor.
+     */
+    public DirtyRegion() {
+        rects = new ArrayList<Rectangle>();
+    }
+
+    /**
+     * Mark a rectangle as needing a repaint. Most of the time it touches one
+     * we already have, which just grows to cover it, so nothing new is made.
+     *
+     * @param r The rectangle. It isn't kept, so callers can reuse it.
+     */
+    public void add(Rectangle r) {
+        if (r.isEmpty()) {
+            return;
+        }
+        int i = closeTo(r, null);
+        if (i < 0) {
+            rects.add(new Rectangle(r));
+        } else {
+            Rectangle merged = rects.get(i);
+            merged.add(r);
+
+            // Keep merging until it doesn't touch anything else
+            while ((i = closeTo(merged, merged)) >= 0) {
+                merged.add(rects.remove(i));
+            }
+        }
+
+        if (rects.size() > MAX_RECTS) {
+            Rectangle all = rects.get(0);
+            for (Rectangle other : rects) {
+                all.add(other);
+            }
+            rects.clear();
+            rects.add(all);
+        }
+    }
+
+    /**
+     * Find a rectangle we have that's within SLOP of another one.
+     *
+     * @param r The other one.
+     * @param skip One of ours not to count.
+     * @return Index of the first one close enough, or -1 if none are.
+     */
+    private int closeTo(Rectangle r, Rectangle skip) {
+        reach.setBounds(r.x - SLOP, r.y - SLOP, r.width + 2 * SLOP, r.height + 2 * SLOP);
+        for (int i = 0; i < rects.size(); i++) {
+            Rectangle other = rects.get(i);
+            if (other != skip && reach.intersects(other)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Is there anything to repaint?
+     *
+     * @return Whether there are no dirty rectangles.
+     */
+    public boolean isEmpty() {
+        return rects.isEmpty();
+    }
+
+    /**
+     * Returns the dirty rectangles and clears the region.
+     *
+     * @return The coalesced rectangles.
+     */
+    public ArrayList<Rectangle> take() {
+        ArrayList<Rectangle> taken = rects;
+        rects = new ArrayList<Rectangle>();
+        return taken;
+    }
+}
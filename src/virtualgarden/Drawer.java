@@ -24,8 +24,9 @@
 package virtualgarden;
 
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.TreeMap;
 
 /**
  * We need a priority based drawing system. This is a class to solve that. It
@@ -35,7 +36,7 @@ import java.util.HashMap;
  */
 public class Drawer {
     private static Drawer instance;           // We got a singleton on our hands
-    HashMap<Integer, ArrayList<Drawable>> parts;
+    TreeMap<Integer, ArrayList<Drawable>> parts;
     
     /**
      * Get the Drawer instance.
@@ -50,10 +51,11 @@ public class Drawer {
     }
     
     /**
-     * Initialize a new Drawer.
+     * Initialize a new Drawer. Use getInstance on the EDT; this is for
+     * drawing from other threads.
      */
-    private Drawer() {
-        parts = new HashMap<Integer, ArrayList<Drawable>>();
+    Drawer() {
+        parts = new TreeMap<Integer, ArrayList<Drawable>>();
     }
     
     /**
@@ -74,22 +76,45 @@ public class Drawer {
     }
     
     /**
-     * Draw our Drawables in  priority order.
+     * Draw our Drawables in  priority order. Drawables outside the clip
+     * are skipped.
      * @param g 
      */
     public void draw(Graphics g) {
-        int adding = 0;
-        for (int i = 0; i < parts.size(); i++) {
-            while (!parts.containsKey(i+adding)) {
-                adding++;
-            }
-            ArrayList<Drawable> partsList = parts.get(i+adding);
-            for (Drawable part : partsList) {
+        GardenEvents.Draw event = new GardenEvents.Draw();
+        event.begin();
+        Rectangle clip = g.getClipBounds();
+        ArrayList<Drawable> drawList = takeDrawList();
+        int drawn = 0;
+        for (Drawable part : drawList) {
+            if (clip == null || clip.intersects(part.getBounds())) {
                 part.draw(g);
+                drawn++;
             }
         }
-        parts = new HashMap<Integer, ArrayList<Drawable>>();
-        System.gc();
+        if (event.shouldCommit()) {
+            event.renderer = getClass().getSimpleName();
+            event.threads = 1;
+            event.drawables = drawList.size();
+            event.drawn = drawn;
+            event.width = clip == null ? 0 : clip.width;
+            event.height = clip == null ? 0 : clip.height;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Take everything added so far, in priority order, and start over.
+     * 
+     * @return Drawables in the order they should be drawn.
+     */
+    protected ArrayList<Drawable> takeDrawList() {
+        ArrayList<Drawable> drawList = new ArrayList<Drawable>();
+        for (ArrayList<Drawable> partsList : parts.values()) {
+            drawList.addAll(partsList);
+        }
+        parts = new TreeMap<Integer, ArrayList<Drawable>>();
+        return drawList;
     }
     
     /**
@@ -101,5 +126,11 @@ public class Drawer {
          * @param g 
          */
         public abstract void draw(Graphics g);
+        
+        /**
+         * Get the area the object draws in.
+         * @return Bounding box of what draw touches.
+         */
+        public abstract Rectangle getBounds();
     }
 }
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * Renders the garden offscreen every few ticks and writes the frames out as a
+ * numbered PNG sequence. Gardens bigger than a frame are shrunk to fit.
+ * Doesn't need a screen, so it works fine with java.awt.headless=true.
+ *
+ * There is a fixed number of frame buffers. A frame is only captured if one of
+ * them is free, otherwise it is skipped and counted. That way the simulation
+ * never waits on PNG compression. Frame numbers are handed out when a frame is
+ * captured, so the files come out in order even though the encoders finish
+ * whenever they like.
+ *
+ * @author Michael Hawthorne
+ */
+public class FrameExporter {
+    private final File directory;           // Where the PNGs go
+    private final int width, height;        // Size of each frame
+    private final int interval;             // Capture every this many ticks
+
+    private final ArrayBlockingQueue<BufferedImage> freeFrames;
+    private final ExecutorService encoders;
+    private final Drawer drawer;            // Our own, the EDT has the other one
+
+    private volatile boolean closed;
+    private long ticks;
+    private int nextFrame;
+    private final AtomicInteger dropped;
+    private final AtomicInteger written;
+    private final AtomicInteger failed;
+
+    /**
+     * FrameExporter ctor.
+     *
+     * @param directory Directory to write frames into. Created if missing.
+     * @param width Frame width.
+     * @param height Frame height.
+     * @param interval Capture a frame every this many ticks.
+     * @param numEncoders Number of background PNG encoders.
+     * @param numFrames Number of frames that can be waiting on an encoder.
+     * @throws IOException If the directory can't be created.
+     */
+    public FrameExporter(File directory, int width, int height, int interval,
+                         int numEncoders, int numFrames) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        this.width = width;
+        this.height = height;
+        this.interval = Math.max(1, interval);
+
+        freeFrames = new ArrayBlockingQueue<BufferedImage>(numFrames);
+        for (int i = 0; i < numFrames; i++) {
+            freeFrames.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        }
+
+        // The queue never holds more than numFrames jobs, since each job
+        // owns one of our frames.
+        encoders = new ThreadPoolExecutor(numEncoders, numEncoders,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(numFrames),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "FrameExporter encoder");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        drawer = new Drawer();
+        written = new AtomicInteger();
+        dropped = new AtomicInteger();
+        failed = new AtomicInteger();
+    }
+
+    /**
+     * Call once per garden tick, from the thread growing the garden. Every
+     * interval ticks this draws the garden and queues the frame for encoding.
+     *
+     * @param garden The garden to capture.
+     */
+    public void tick(Garden garden) {
+        if (closed || ticks++ % interval != 0) {
+            return;
+        }
+
+        final BufferedImage frame = freeFrames.poll();
+        if (frame == null) {
+            // Every encoder is busy. Skip the frame rather than stall.
+            dropped.incrementAndGet();
+            return;
+        }
+
+        Graphics2D g = frame.createGraphics();
+        g.setColor(VirtualGarden.BACKGROUND);
+        g.fillRect(0, 0, width, height);
+        garden.draw(g, drawer, Viewport.fit(garden.width, garden.height, width, height));
+        g.dispose();
+
+        final File file = new File(directory, String.format("frame_%06d.png", nextFrame));
+        try {
+            encoders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ImageIO.write(frame, "png", file);
+                        written.incrementAndGet();
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        System.err.println("Could not write " + file + "\n"
+                                           + e.toString());
+                    } finally {
+                        freeFrames.add(frame);
+                    }
+                }
+            });
+            nextFrame++;
+        } catch (RejectedExecutionException e) {
+            // We're closing down
+            freeFrames.add(frame);
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits for queued frames to finish writing and stops the encoders.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        encoders.shutdown();
+        encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Number of frames written to disk so far.
+     */
+    public int getFramesWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return Number of frames skipped because every buffer was busy.
+     */
+    public int getFramesDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return Number of frames that failed to write.
+     */
+    public int getFramesFailed() {
+        return failed.get();
+    }
+}
@@ -23,82 +23,665 @@
  */
 package virtualgarden;
 
+import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Our garden. A singleton. Holds our plants and handles 
- * collection-safe creation and destruction.
+ * Our garden. Holds our plants and handles collection-safe creation and 
+ * destruction. Each garden has its own collision registry and genetic 
+ * settings, so several can run side by side on different threads. A
+ * garden can also be forked, to grow on from the same point two ways.
  * 
  * @author Michael Hawthorne
  */
 public class Garden
 {
-    private static Garden instance;             // Our singleton instance
+    private static final int MIN_TILE_PIXELS = 12;  // Smallest density square on screen
+    private static final Color[] DENSITY_COLOURS = new Color[32];
+    public static final float MIN_STEP = 0.001f;    // Shortest cycle step takes
+    public static final float MAX_STEP = 0.05f;     // Longest, while roots grow
+    static {
+        Color from = VirtualGarden.BACKGROUND, to = new Color(53, 196, 70);
+        for (int i = 0; i < DENSITY_COLOURS.length; i++) {
+            float t = (float)i / (DENSITY_COLOURS.length - 1);
+            DENSITY_COLOURS[i] = new Color(
+                    Math.round(from.getRed() + t * (to.getRed() - from.getRed())),
+                    Math.round(from.getGreen() + t * (to.getGreen() - from.getGreen())),
+                    Math.round(from.getBlue() + t * (to.getBlue() - from.getBlue())));
+        }
+    }
+    
     int width, height;
-    ArrayList<Plant> plants;                    // Plants currently growing
-    static ArrayList<Plant> plantsToAdd;        // Plants to be added on next cycle
-    static ArrayList<Plant> plantsToDestroy;    // Plants to be destroyed on next cycle
+    private final CopyOnWriteRefs<Plant> plantsById;  // Every plant we have, by id
+    Branch branch;                              // Plants we can change in place
+    final PlantList plants;                     // Plants currently growing
+    final PlantList growing;                    // Plants whose roots still grow
+    final PlantList canopies;                   // Roots done, stem or leaves still growing
+    final PlantList plantsToAdd;                // Plants to be added on next cycle
+    ArrayList<Plant> plantsToDestroy;           // Plants to be destroyed on next cycle
+    ArrayList<Plant> plantsChanged;             // Plants that look different this cycle
+    DirtyRegion dirtyRegion;                    // What needs repainting
+    volatile RootLayer rootLayer;               // Roots that stopped growing
+    final PlantIndex index;                     // Plants by where they're drawn
+    private final ArrayList<Plant> visible;     // Scratch for drawing
+    private final Rectangle bounds;             // Scratch for flushing
+    
+    final GenomeStore genomes;                  // Null if plants keep their own
+    final Collision collision;                  // Our roots bump into each other
+    final LightField light;                     // Our leaves shade each other
+    final SoilField soil;                       // Our roots drain the soil
+    final Random random;
+    float crossoverRate;                        // Genetics. See Plant.Chromosomes
+    float mutationRate;
+    
+    double time;                                // The garden's clock
+    float horizon;                              // Longest cycle we might take next
+    private float contact;                      // Time until growing roots might touch
+    final Timeline timeline;                    // What happens when
+    final Reproduction reproduction;            // Seeds spread this cycle
+    final PlantPool pool;                       // Dead plants to reuse
+    final SpeciesIndex species;                 // Who's closely related
+    final DeltaStream deltas;                   // What happened, for observers
+    private final ConcurrentLinkedQueue<Runnable> tasks;  // Run between cycles
+    private int nextId;                         // Plant ids. Dead ones are reused
+    private final CopyOnWriteInts freeIds;
+    private int numFreeIds;
+    long ticks;                                 // Number of grow cycles so far
+    long births;                                // Plants ever added
+    long deaths;                                // Plants ever destroyed
+    long immigrants;                            // Migrants ever planted
+    double meanEnergy;                          // Made by each plant that grew last cycle
+    PhaseTimes phaseTimes;                      // Null unless somebody's measuring
     
     /**
-     * Returns our Garden instance. Note that Init must be called before this.
+     * Garden ctor.
      * 
-     * @return Garden instance
+     * @param width Visual width.
+     * @param height Visual height.
+     * @param seeds Number of seeds to start with.
      */
-    public static Garden getInstance() {
-        if (instance == null) {
-            throw new RuntimeException("Must instantiate garden first with Init method");
-        }
-        return instance;
+    public Garden(int width, int height, int seeds)
+    {
+        this(width, height, seeds, new Random());
     }
     
     /**
-     * Initializes our garden.
+     * Garden ctor. The same Random seed and settings grow the same garden.
      * 
      * @param width Visual width.
      * @param height Visual height.
      * @param seeds Number of seeds to start with.
+     * @param random Where all of the garden's randomness comes from.
      */
-    public static void Init(int width, int height, int seeds) {
-        instance = new Garden(width, height, seeds);
+    public Garden(int width, int height, int seeds, Random random)
+    {
+        this(width, height, seeds, random, null);
     }
     
     /**
-     * Garden ctor.
+     * Garden ctor, keeping everybody's chromosomes in a GenomeStore instead
+     * of on the heap.
      * 
      * @param width Visual width.
      * @param height Visual height.
      * @param seeds Number of seeds to start with.
+     * @param random Where all of the garden's randomness comes from.
+     * @param genomes Where to keep chromosomes. Null to keep them with each
+     *                plant. Only this garden may write to it.
      */
-    private Garden(int width, int height, int seeds)
+    public Garden(int width, int height, int seeds, Random random, GenomeStore genomes)
     {
         this.width = width;
         this.height = height;
-        plantsToAdd = new ArrayList<Plant>();
+        this.random = random;
+        this.genomes = genomes;
+        plantsById = new CopyOnWriteRefs<Plant>(0);
+        branch = new Branch();
+        collision = new Collision(width, height);
+        light = new LightField(width, height);
+        soil = new SoilField(width, height);
+        index = new PlantIndex(width, height, plantsById);
+        visible = new ArrayList<Plant>();
+        bounds = new Rectangle();
+        timeline = new Timeline(this);
+        reproduction = new Reproduction(this);
+        pool = new PlantPool(PlantPool.DEFAULT_CAPACITY);
+        species = new SpeciesIndex(SpeciesIndex.DEFAULT_RADIUS);
+        deltas = new DeltaStream(1 << 16);
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        freeIds = new CopyOnWriteInts(64);
+        plants = new PlantList(plantsById, true);
+        growing = new PlantList(plantsById, false);
+        canopies = new PlantList(plantsById, false);
+        crossoverRate = Plant.Chromosomes.DEFAULT_CROSSOVER_RATE;
+        mutationRate = Plant.Chromosomes.DEFAULT_MUTATION_RATE;
+        plantsToAdd = new PlantList(plantsById, false);
         plantsToDestroy = new ArrayList<Plant>();
+        plantsChanged = new ArrayList<Plant>();
+        dirtyRegion = new DirtyRegion();
         plantNewSeeds(seeds);
     }
     
     /**
-     * A single cycle of our garden. Instructs plants to grow, and handles
-     * creating/destroying plants afterward.
+     * Copy ctor. See fork.
+     * 
+     * @param from Garden to copy.
+     * @param random Where the copy's randomness comes from.
+     */
+    private Garden(Garden from, Random random)
+    {
+        width = from.width;
+        height = from.height;
+        this.random = random;
+        genomes = null;
+        plantsById = from.plantsById.fork();
+        branch = new Branch();
+        collision = from.collision.fork();
+        light = from.light.fork();
+        soil = from.soil.fork();
+        index = from.index.fork(plantsById);
+        visible = new ArrayList<Plant>();
+        bounds = new Rectangle();
+        timeline = from.timeline.fork(this);
+        reproduction = new Reproduction(this);
+        reproduction.addMigrants(from.reproduction);
+        pool = new PlantPool(from.pool.getCapacity());
+        species = from.species.fork();
+        deltas = new DeltaStream(1 << 16);
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        nextId = from.nextId;
+        freeIds = from.freeIds.fork();
+        numFreeIds = from.numFreeIds;
+        crossoverRate = from.crossoverRate;
+        mutationRate = from.mutationRate;
+        time = from.time;
+        ticks = from.ticks;
+        births = from.births;
+        deaths = from.deaths;
+        immigrants = from.immigrants;
+        meanEnergy = from.meanEnergy;
+        plants = from.plants.fork(plantsById);
+        growing = from.growing.fork(plantsById);
+        canopies = from.canopies.fork(plantsById);
+        plantsToAdd = from.plantsToAdd.fork(plantsById);
+        plantsToDestroy = new ArrayList<Plant>();
+        plantsChanged = new ArrayList<Plant>();
+        dirtyRegion = new DirtyRegion();
+        horizon = from.horizon;
+        contact = from.contact;
+        
+        if (from.genomes != null) {
+            // Only the original may use its GenomeStore, so its plants
+            // can't be shared. Copy them all now, chromosomes and all
+            for (int id = 0; id < plantsById.length(); id++) {
+                Plant p = plantsById.get(id);
+                if (p != null) {
+                    own(p);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Fork the garden, to see where a change would take it: another 
+     * mutation rate, or a patch of plants killed off with kill. The fork 
+     * starts out just like us, and from then on each grows on its own. They 
+     * can be changed separately and grown on different threads at the same 
+     * time.
+     * 
+     * Forking doesn't copy anything big. The plants, the collision registry,
+     * the indexes, the Timeline, the light and the soil are all kept in 
+     * CopyOnWrite arrays, which we share with the fork chunk by chunk. 
+     * Whichever of us changes a chunk first gets its own copy of it. A plant 
+     * is copied the first time either of us changes it, when it next grows 
+     * or its flower does; see own. Nothing has to be grown or checked for 
+     * collisions again.
+     * 
+     * A GenomeStore can't be shared, so if we use one, the fork copies every 
+     * plant right away, and keeps their chromosomes on the heap.
+     * 
+     * Only fork between cycles, on the garden's thread or from a task given 
+     * to post, or before the first one.
+     * 
+     * @param random Where the fork's randomness comes from. With a copy of 
+     *               ours, the fork grows exactly like we will.
+     * @return The fork.
+     */
+    public Garden fork(Random random) {
+        if (!plantsToDestroy.isEmpty() || !plantsChanged.isEmpty()) {
+            throw new IllegalStateException("Can't fork in the middle of a cycle");
+        }
+        if (genomes == null) {
+            // Our plants are the fork's too from now on. Roots that are
+            // still growing stop where they are until one of us copies them
+            branch.ended = true;
+            branch.end = time;
+            branch = new Branch();
+        }
+        return new Garden(this, random);
+    }
+    
+    /**
+     * Get a plant we can change. Plants from before our last fork are
+     * shared with the fork, so those are copied first, and the copy takes
+     * their place everywhere we keep them by id. Anything about to change a 
+     * plant has to go through here.
+     * 
+     * @param p One of our plants.
+     * @return The plant, or its copy.
+     */
+    Plant own(Plant p) {
+        if (p.branch == branch) {
+            return p;
+        }
+        Plant copy = new Plant(this, p);
+        plantsById.set(p.id, copy);
+        collision.replace(copy.roots);
+        return copy;
+    }
+    
+    /**
+     * Put a plant where we keep plants by id. Plants do this themselves
+     * when they're made or reused.
+     * 
+     * @param p The plant.
+     */
+    void store(Plant p) {
+        plantsById.grow(p.id + 1);
+        plantsById.set(p.id, p);
+    }
+    
+    /**
+     * @param id A plant's id.
+     * @return Our plant with that id, or null if there isn't one.
+     */
+    Plant plant(int id) {
+        return id < plantsById.length() ? plantsById.get(id) : null;
+    }
+    
+    /**
+     * Kill a plant. It's removed at the end of the next cycle. Use this
+     * rather than Plant.die on a garden that's been forked, since the plant
+     * might still be the fork's too. Only call it between cycles, on the
+     * garden's thread.
+     * 
+     * @param id The plant's id.
+     */
+    public void kill(int id) {
+        Plant p = plant(id);
+        if (p != null) {
+            own(p).die();
+        }
+    }
+    
+    /**
+     * A single cycle of our garden. Instructs plants with growing roots to 
+     * grow, and then plants whose roots are done but whose stem or leaves
+     * aren't yet, fires whatever is due on the Timeline, plants the seeds 
+     * flowers spread, and handles creating/destroying plants afterward.
      * 
      * @param amt Time factor for growing.
      */
     public void grow(float amt) {
-        for (Plant p : plants) {
-            p.grow(amt);
+        GardenEvents.Tick tickEvent = new GardenEvents.Tick();
+        tickEvent.begin();
+        long tests = collision.getTests();
+        int numGrowing = growing.size();
+        PhaseTimes times = phaseTimes;
+        long phaseStart = times == null ? 0 : System.nanoTime();
+        long collisionBefore = times == null ? 0 : times.nanos[PhaseTimes.COLLISION];
+        
+        ticks++;
+        // Copy whatever we still share with a fork before anything grows,
+        // so roots that are still growing follow our clock again
+        own(growing);
+        own(canopies);
+        own(plantsToAdd);
+        time += amt;
+        double energy = 0;
+        int grown = 0;
+        for (Plant p : growing) {
+            // Plants killed since the last cycle are removed with this one's
+            if (!p.dead) {
+                energy += p.grow(amt);
+                grown++;
+            }
         }
-        for (Plant p : plantsToAdd) {
-            plants.add(p);
+        for (Plant p : canopies) {
+            if (!p.dead) {
+                energy += p.grow(amt);
+                grown++;
+            }
         }
-        plantsToAdd.clear();
-        for (Plant p : plantsToDestroy) {
-            plants.remove(p);
-            p.detachColliders();
+        meanEnergy = grown > 0 ? energy / grown : 0;
+        int kept = 0;
+        for (int i = 0; i < canopies.size(); i++) {
+            Plant p = canopies.get(i);
+            if (!p.dead && !p.isCanopyGrown()) {
+                canopies.set(kept++, p);
+            }
         }
-        plantsToDestroy.clear();
+        canopies.truncate(kept);
+        
+        // Plants whose roots just stopped keep growing their stem and leaves
+        kept = 0;
+        contact = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < growing.size(); i++) {
+            Plant p = growing.get(i);
+            if (p.dead) {
+                continue;
+            }
+            if (!p.roots.collided) {
+                growing.set(kept++, p);
+                contact = Math.min(contact, p.roots.timeToContact(amt));
+            } else if (!p.isCanopyGrown()) {
+                canopies.add(p);
+            }
+        }
+        growing.truncate(kept);
+        if (times != null) {
+            // Collision was timed on its own while we grew
+            long collision = times.nanos[PhaseTimes.COLLISION] - collisionBefore;
+            times.add(PhaseTimes.GROW, System.nanoTime() - phaseStart - collision);
+            phaseStart = System.nanoTime();
+        }
+        soil.advance(amt);
+        if (times != null) {
+            times.add(PhaseTimes.SOIL, System.nanoTime() - phaseStart);
+        }
+        int dying = plantsToDestroy.size();
+        timeline.runUntil(time);
+        if (plantsToDestroy.size() > dying) {
+            // Lists only keep ids, and these ones get reused after this cycle
+            dropDead(growing);
+            dropDead(canopies);
+        }
+        phaseStart = times == null ? 0 : System.nanoTime();
+        reproduction.run();
+        if (times != null) {
+            times.add(PhaseTimes.REPRODUCTION, System.nanoTime() - phaseStart);
+        }
+        
+        GardenEvents.Flush flushEvent = new GardenEvents.Flush();
+        flushEvent.begin();
+        phaseStart = times == null ? 0 : System.nanoTime();
+        int born = plantsToAdd.size();
+        int died = plantsToDestroy.size();
+        int changed = plantsChanged.size();
+        births += born;
+        deaths += died;
+        // Drawing looks at the plants and the index, so it has to wait
+        synchronized (this) {
+            for (Plant p : plantsToAdd) {
+                plants.add(p);
+                deltas.publish(DeltaStream.BORN, p.id, p.x, p.y, time,
+                               p.getChromosome(Plant.Chromosomes.ROOTS),
+                               p.getChromosome(Plant.Chromosomes.FLOWER));
+                if (!p.dead) {
+                    growing.add(p);
+                    contact = Math.min(contact, p.roots.timeToContact(0));
+                    species.add(p);
+                    p.bloom(time);
+                }
+                p.drawnBounds = p.getFullBounds();
+                index.add(p, p.drawnBounds);
+                dirtyRegion.add(p.drawnBounds);
+            }
+            plantsToAdd.clear();
+            for (Plant p : plantsChanged) {
+                deltas.publish(DeltaStream.CHANGED, p.id, p.x, p.y, time,
+                               Float.floatToIntBits(p.roots.getRadius()), p.getPetalSize());
+                p.getFullBounds(bounds);
+                if (p.drawnBounds != null) {
+                    index.move(p, p.drawnBounds, bounds);
+                    dirtyRegion.add(p.drawnBounds);
+                    p.drawnBounds.setBounds(bounds);
+                } else {
+                    p.drawnBounds = new Rectangle(bounds);
+                }
+                dirtyRegion.add(bounds);
+                p.dirty = false;
+            }
+            plantsChanged.clear();
+            for (Plant p : plantsToDestroy) {
+                plants.remove(p);
+                plantsById.set(p.id, null);
+                p.detachColliders();
+                if (p.drawnBounds != null) {
+                    index.remove(p, p.drawnBounds);
+                    dirtyRegion.add(p.drawnBounds);
+                }
+                RootLayer layer = rootLayer;
+                boolean erasing = layer != null && p.roots.collided;
+                if (erasing) {
+                    layer.erase(p.roots);
+                }
+                deltas.publish(DeltaStream.DIED, p.id, p.x, p.y, time, 0, 0);
+                species.remove(p);
+                if (genomes != null) {
+                    genomes.clear(p.id);
+                }
+                releaseId(p.id);
+                if (erasing) {
+                    // The layer erases them whenever it next draws, so they
+                    // can't be reused. The rest of the plant can.
+                    p.roots = null;
+                }
+                pool.give(p);
+            }
+            plantsToDestroy.clear();
+        }
+        deltas.publish(DeltaStream.TICK, 0, 0, 0, time, plants.size(), ticks);
+        if (times != null) {
+            times.add(PhaseTimes.FLUSH, System.nanoTime() - phaseStart);
+        }
+        if (flushEvent.shouldCommit()) {
+            flushEvent.tick = ticks;
+            flushEvent.births = born;
+            flushEvent.deaths = died;
+            flushEvent.changed = changed;
+            flushEvent.population = plants.size();
+            flushEvent.commit();
+        }
+        if (tickEvent.shouldCommit()) {
+            tickEvent.tick = ticks;
+            tickEvent.time = time;
+            tickEvent.population = plants.size();
+            tickEvent.growing = numGrowing;
+            tickEvent.births = born;
+            tickEvent.deaths = died;
+            tickEvent.collisionTests = collision.getTests() - tests;
+            tickEvent.species = species.getSpeciesCount();
+            tickEvent.commit();
+        }
+        
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+    
+    /**
+     * Run something on the garden's thread, at the end of the next cycle. 
+     * Other threads can use this to look at the plants safely.
+     * 
+     * @param task What to run.
+     */
+    public void post(Runnable task) {
+        tasks.add(task);
+    }
+
+    /**
+     * Copy the chromosomes of some plants picked at random, to send to
+     * another garden. The same plant can be picked more than once. Only
+     * call this between cycles, on the garden's thread.
+     *
+     * @param count How many plants to pick.
+     * @return Their chromosomes, Chromosomes.COUNT words each. Empty if
+     *         there's nobody to pick.
+     */
+    public long[] sampleGenomes(int count) {
+        if (plants.isEmpty()) {
+            return new long[0];
+        }
+        long[] genomes = new long[count * Plant.Chromosomes.COUNT];
+        for (int i = 0; i < count; i++) {
+            Plant p = plants.get(random.nextInt(plants.size()));
+            p.getChromosomes(genomes, i * Plant.Chromosomes.COUNT);
+        }
+        return genomes;
+    }
+
+    /**
+     * Plant migrants from another garden at random spots, at the end of
+     * the next cycle, along with this cycle's seeds. Like seeds, the ones
+     * that land on roots are stillborn. Only call this between cycles, on
+     * the garden's thread.
+     *
+     * @param genomes Their chromosomes, Chromosomes.COUNT words each, like
+     *                sampleGenomes gives.
+     */
+    public void addMigrants(long[] genomes) {
+        reproduction.addMigrants(genomes);
+    }
+
+    /**
+     * Own every plant in a list. See own.
+     * 
+     * @param list The plants.
+     */
+    private void own(PlantList list) {
+        for (int i = 0; i < list.size(); i++) {
+            own(list.get(i));
+        }
+    }
+    
+    /**
+     * Take dead plants out of a list, keeping the rest in order.
+     * 
+     * @param list The plants.
+     */
+    private static void dropDead(PlantList list) {
+        int kept = 0;
+        for (int i = 0; i < list.size(); i++) {
+            Plant p = list.get(i);
+            if (!p.dead) {
+                list.set(kept++, p);
+            }
+        }
+        list.truncate(kept);
+    }
+    
+    /**
+     * Get an id for a new plant.
+     * 
+     * @return The lowest free id, more or less.
+     */
+    int allocateId() {
+        if (numFreeIds > 0) {
+            return freeIds.get(--numFreeIds);
+        }
+        return nextId++;
+    }
+    
+    /**
+     * Get a new plant, reusing a dead one if the pool has any. Its roots
+     * aren't registered with the collision yet.
+     * 
+     * @param x X position.
+     * @param y Y position.
+     * @param genome Chromosomes, in the order Chromosomes.toWords writes them.
+     * @param at Where the plant's start.
+     * @return The plant.
+     */
+    Plant newPlant(int x, int y, long[] genome, int at) {
+        Plant p = pool.take();
+        if (p == null) {
+            return new Plant(this, x, y, genome, at, false);
+        }
+        p.reset(x, y, genome, at);
+        return p;
+    }
+    
+    /**
+     * Give back the id of a plant that's been removed.
+     * 
+     * @param id The id.
+     */
+    private void releaseId(int id) {
+        freeIds.grow(numFreeIds + 1);
+        freeIds.set(numFreeIds++, id);
+    }
+    
+    /**
+     * Grow the garden by a cycle of at most maxStep. When no plants are 
+     * growing nothing changes until the next event on the Timeline, so we 
+     * jump straight there instead, however far away it is.
+     * 
+     * @param maxStep Longest cycle to take while plants are growing.
+     * @param until Never advance the clock past this.
+     * @return The amount of time that passed.
+     */
+    public float step(float maxStep, double until) {
+        return step(maxStep, maxStep, until);
+    }
+    
+    /**
+     * Grow the garden by a cycle as long as it can safely be, between 
+     * minStep and maxStep. Cycles are cut short so that growing roots 
+     * can't grow into each other by more than they would in a cycle of 
+     * minStep, and so nothing skips a deadline on the Timeline, like a 
+     * flower spreading its seeds. A crowded garden takes small cycles, and 
+     * a quiet one big ones. When nothing is growing we jump to the next 
+     * event, like with a fixed step.
+     * 
+     * @param minStep Shortest cycle to take. The step grow used to be 
+     *                called with every cycle gives the same garden.
+     * @param maxStep Longest cycle to take while plants are growing.
+     * @param until Never advance the clock past this.
+     * @return The amount of time that passed.
+     */
+    public float step(float minStep, float maxStep, double until) {
+        horizon = maxStep;
+        double amt = Math.min(maxStep, contact);
+        amt = Math.min(amt, timeline.nextDeadline(time) - time);
+        amt = Math.min(Math.max(minStep, amt), until - time);
+        // With nothing on the Timeline either, like once everybody's died,
+        // there's nowhere to jump to, so just keep taking maxStep
+        if (growing.isEmpty() && canopies.isEmpty() && plantsToAdd.isEmpty() 
+                && !reproduction.hasMigrants() && !Double.isInfinite(timeline.nextTime())) {
+            amt = Math.max(amt, Math.min(timeline.nextTime(), until) - time);
+        }
+        float step = (float)amt;
+        if (step > 0) {
+            grow(step);
+        }
+        return step;
+    }
+    
+    /**
+     * Grow the garden for a while, skipping over stretches where only the
+     * clock moves.
+     * 
+     * @param duration How much time to pass.
+     * @param maxStep Longest cycle to take while plants are growing.
+     */
+    public void advance(double duration, float maxStep) {
+        double end = time + duration;
+        while (time < end && step(maxStep, end) > 0) {
+        }
+    }
+    
+    /**
+     * @return The garden's clock.
+     */
+    public double getTime() {
+        return time;
     }
     
     /**
@@ -112,6 +695,88 @@ public class Garden
         plantsToDestroy.add(p);
     }
     
+    /**
+     * Notify garden that a plant is drawn differently than last cycle.
+     * 
+     * @param p The plant that changed.
+     */
+    public void notifyChanged(Plant p) {
+        plantsChanged.add(p);
+    }
+    
+    /**
+     * Notify garden that a plant's roots have stopped growing, so they can
+     * be drawn into the background once instead of every frame.
+     * 
+     * @param p The plant whose roots collided.
+     */
+    public void notifyRootsFrozen(Plant p) {
+        deltas.publish(DeltaStream.COLLIDED, p.id, p.x, p.y, time,
+                       Float.floatToIntBits(p.roots.getRadius()), 0);
+        RootLayer layer = rootLayer;
+        if (layer != null) {
+            layer.bake(p.roots);
+        }
+    }
+    
+    /**
+     * Notify garden that a plant's flower has spread its seeds.
+     * 
+     * @param p The plant.
+     * @param seeds How many seeds it spread.
+     */
+    public void notifyBloomed(Plant p, int seeds) {
+        deltas.publish(DeltaStream.BLOOMED, p.id, p.x, p.y, time, seeds, 0);
+    }
+    
+    /**
+     * @return Average energy made by the plants that grew last cycle.
+     */
+    public double getMeanEnergy() {
+        return meanEnergy;
+    }
+    
+    /**
+     * Get the dead plants kept for reuse, to see how well that's going or
+     * change how many are kept. Only use it from the garden's thread, or
+     * through post.
+     * 
+     * @return The garden's PlantPool.
+     */
+    public PlantPool getPool() {
+        return pool;
+    }
+    
+    /**
+     * Get the garden's species. Only look at it from the garden's thread,
+     * or through post.
+     * 
+     * @return The garden's SpeciesIndex.
+     */
+    public SpeciesIndex getSpecies() {
+        return species;
+    }
+    
+    /**
+     * Get the stream of births, deaths, collisions and blooms. Safe to read
+     * from other threads.
+     * 
+     * @return The garden's DeltaStream.
+     */
+    public DeltaStream getDeltas() {
+        return deltas;
+    }
+    
+    /**
+     * Get the areas that need repainting since the last call, and forget
+     * about them.
+     * 
+     * @return Coalesced dirty rectangles. Empty if nothing changed.
+     */
+    public ArrayList<Rectangle> takeDirtyRegions() {
+        return dirtyRegion.take();
+    }
+    
     /**
      * Draws our plants.
      * 
@@ -119,61 +784,232 @@ public class Garden
      */
     public void draw(Graphics g) {
         // Drawer allows us to draw our plants based on a depth value
-        Drawer d = Drawer.getInstance();
-        for (Plant p : plants) {
-            p.addToDrawer(d);
+        draw(g, Drawer.getInstance());
+    }
+    
+    /**
+     * Draws our plants with a specific Drawer. Anything drawing from a thread
+     * other than the EDT needs its own Drawer. Only the plants inside the
+     * clip are looked at, or all of them if there isn't one.
+     * 
+     * @param g Graphics object
+     * @param d Drawer to collect the plants in.
+     */
+    public synchronized void draw(Graphics g, Drawer d) {
+        Rectangle clip = g.getClipBounds();
+        drawArea(g, d, clip != null ? clip : new Rectangle(0, 0, width, height));
+    }
+    
+    /**
+     * Draws the part of the garden a Viewport can see, scaled to fit. Zoomed
+     * far enough out, draws how crowded each area is instead of the plants.
+     * Either way the work depends on what's on screen, not on how big the
+     * garden is.
+     * 
+     * @param g Graphics object, in screen coordinates.
+     * @param d Drawer to collect the plants in.
+     * @param v What to look at.
+     */
+    public synchronized void draw(Graphics g, Drawer d, Viewport v) {
+        Graphics2D vg = (Graphics2D)g.create();
+        try {
+            v.apply(vg);
+            Rectangle area = v.getVisible();
+            Rectangle clip = vg.getClipBounds();
+            if (clip != null) {
+                area = area.intersection(clip);
+            }
+            if (area.isEmpty()) {
+                return;
+            }
+            vg.clip(area);
+            if (v.isOverview()) {
+                drawDensity(vg, area, v.getScale());
+            } else {
+                drawArea(vg, d, area);
+            }
+        } finally {
+            vg.dispose();
         }
+    }
+    
+    /**
+     * Draw every plant in an area.
+     * 
+     * @param g Graphics object, in garden coordinates.
+     * @param d Drawer to collect the plants in.
+     * @param area What to draw.
+     */
+    private void drawArea(Graphics g, Drawer d, Rectangle area) {
+        // The root layer only exists once somebody draws, and only if the
+        // garden is small enough to keep an image of. Bake whatever already
+        // stopped growing when we make it. Without one the roots draw
+        // themselves like the rest of the plant.
+        if (rootLayer == null && RootLayer.fits(width, height)) {
+            rootLayer = new RootLayer(width, height);
+            for (Plant p : plants) {
+                if (p.roots.collided) {
+                    rootLayer.bake(p.roots);
+                }
+            }
+        }
+        if (rootLayer != null) {
+            rootLayer.flush();
+            d.addToDrawList(rootLayer, -1);
+        } else {
+            g.setColor(VirtualGarden.BACKGROUND);
+            g.fillRect(area.x, area.y, area.width, area.height);
+        }
+        index.query(area, visible);
+        for (Plant p : visible) {
+            p.addToDrawer(d, rootLayer);
+        }
+        visible.clear();
         d.draw(g);
     }
     
     /**
-     * Clears the garden and plants all new seeds.
+     * Draw how many plants there are in each part of an area, as squares
+     * from the dirt colour to green. The squares are the smallest of the
+     * index's counts that are still at least MIN_TILE_PIXELS on screen.
+     * 
+     * @param g Graphics object, in garden coordinates.
+     * @param area What to draw.
+     * @param scale Screen pixels per garden pixel.
+     */
+    private void drawDensity(Graphics2D g, Rectangle area, double scale) {
+        int level = 0;
+        while (level < index.getLevels() - 1 && index.getCellSize(level) * scale < MIN_TILE_PIXELS) {
+            level++;
+        }
+        int size = index.getCellSize(level);
+        g.setColor(VirtualGarden.BACKGROUND);
+        g.fillRect(area.x, area.y, area.width, area.height);
+        
+        // Full green is twice as crowded as the garden is on average
+        double full = 2.0 * plants.size() * size * size / ((double)width * height);
+        int c0 = Math.floorDiv(Math.max(0, area.x), size);
+        int r0 = Math.floorDiv(Math.max(0, area.y), size);
+        int c1 = (Math.min(width, area.x + area.width) - 1) / size;
+        int r1 = (Math.min(height, area.y + area.height) - 1) / size;
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int count = index.getCount(level, c, r);
+                if (count == 0) {
+                    continue;
+                }
+                int shade = (int)Math.min(DENSITY_COLOURS.length - 1, 
+                                          count / full * (DENSITY_COLOURS.length - 1));
+                g.setColor(DENSITY_COLOURS[Math.max(1, shade)]);
+                int x = c * size, y = r * size;
+                g.fillRect(x, y, Math.min(size, width - x), Math.min(size, height - y));
+            }
+        }
+    }
+    
+    /**
+     * Clears the garden and plants all new seeds. The seeds are spread out
+     * with PoissonDisk, and start without roots, so none of them collide 
+     * and they can all be registered with the Collision at once.
      * 
      * @param numSeeds The number of seeds.
      */
     private void plantNewSeeds(int numSeeds) {
-        Random r = new Random();
-        plants = new ArrayList<Plant>();
-        for (int i = 0; i < numSeeds; i++) {
-            Plant newPlant = new Plant(r.nextInt(width), r.nextInt(height), 
-                    Plant.Chromosomes.generate());
+        Random r = random;
+        plants.clear();
+        int[] positions = PoissonDisk.sample(width, height, numSeeds, r);
+        int count = positions.length / 2;
+        ArrayList<PlantPartRoots> roots = new ArrayList<PlantPartRoots>(count);
+        for (int i = 0; i < count; i++) {
+            Plant newPlant = new Plant(this, positions[2 * i], positions[2 * i + 1], 
+                    Plant.Chromosomes.generate(r), false);
             plantsToAdd.add(newPlant);
+            roots.add(newPlant.roots);
         }
+        collision.registerAll(roots);
     }
     
     /**
-     * Plants a set of seeds around the parent.
+     * Get a random mate from the garden.
      * 
-     * If the seeds are planted outside the boundaries of the garden, they are
-     * ignored/destroyed.
+     * @return A random plant from the garden.
+     */
+    public Plant getRandomMate() {
+        return plants.get(random.nextInt(plants.size()));
+    }
+    
+    /**
+     * Mate two sets of Chromosomes with this garden's genetic settings.
      * 
-     * @param seeds A set of seeds to plant, determined from mating the parents.
-     * @param x X position of parent.
-     * @param y Y position of parent.
-     * @param spread How wide the parent can spread seeds.
+     * @param m Mother
+     * @param f Father
+     * @return A new Chromosomes object, initialized via mating.
      */
-    public void plantSeedsFromReproduction(ArrayList<Plant.Chromosomes> seeds, int x, int y, int spread) {
-        Random r = new Random();
-        
-        for (Plant.Chromosomes seed : seeds) {
-            int angle = (int)(r.nextFloat() * 2 * Math.PI);
-            int distance = (int)(r.nextFloat() * spread);
-
-            int newX = x + (int)(distance * Math.cos(angle));
-            int newY = y + (int)(distance * Math.sin(angle));
-            
-            if (newX > 0 && newX < width && newY > 0 && newY < height)
-                plantsToAdd.add(new Plant(newX, newY, seed));
-        } 
+    public Plant.Chromosomes mate(Plant.Chromosomes m, Plant.Chromosomes f) {
+        return Plant.Chromosomes.mate(m, f, random, crossoverRate, mutationRate);
     }
     
     /**
-     * Get a random mate from the garden.
+     * Set the chance of a crossover at each bit when mating.
      * 
-     * @return A random plant from the garden.
+     * @param crossoverRate Chance from 0-1.
      */
-    public Plant getRandomMate() {
-        Random r = new Random();
-        return plants.get(r.nextInt(plants.size()));
+    public void setCrossoverRate(float crossoverRate) {
+        this.crossoverRate = crossoverRate;
+    }
+    
+    /**
+     * Set the chance of a mutation at each bit when mating.
+     * 
+     * @param mutationRate Chance from 0-1.
+     */
+    public void setMutationRate(float mutationRate) {
+        this.mutationRate = mutationRate;
+    }
+    
+    /**
+     * @return Number of plants currently growing.
+     */
+    public int getPopulation() {
+        return plants.size();
+    }
+    
+    /**
+     * @return Number of grow cycles so far.
+     */
+    public long getTicks() {
+        return ticks;
+    }
+    
+    /**
+     * @return Number of plants ever added to the garden.
+     */
+    public long getBirths() {
+        return births;
+    }
+    
+    /**
+     * @return Number of plants ever removed from the garden.
+     */
+    public long getDeaths() {
+        return deaths;
+    }
+    
+    /**
+     * @return Number of migrants ever planted, stillborn or not. See
+     *         addMigrants.
+     */
+    public long getImmigrants() {
+        return immigrants;
+    }
+    
+    /**
+     * Which plants a garden can change in place. Every plant remembers the
+     * branch it was made or copied on, and a fork starts a new branch for
+     * both gardens, so plants from before it get copied first. See own.
+     */
+    static class Branch {
+        boolean ended;          // Forked since, so its plants are shared
+        double end;             // The garden's clock when it was forked
     }
 }
@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events for what the garden is doing, so a recording shows
+ * ticks, reproduction, flushes and frames next to the usual samples.
+ *
+ * They're all off unless a recording turns them on, and when they're off
+ * begin, shouldCommit and commit do next to nothing. Turn them on with the
+ * settings in garden.jfc:
+ *
+ *   java -XX:StartFlightRecording:settings=default,settings=garden.jfc,filename=garden.jfr ...
+ *
+ * The usual pattern is to set the fields only once shouldCommit says the
+ * event will be kept, so a disabled event never does the work.
+ *
+ * @author Michael Hawthorne
+ */
+final class GardenEvents {
+    static final String CATEGORY = "Virtual Garden";
+
+    /**
+     * Nothing to make.
+     */
+    private GardenEvents() {
+    }
+
+    /**
+     * One Garden.grow cycle, start to finish.
+     */
+    @Name("virtualgarden.Tick")
+    @Label("Garden Tick")
+    @Category(CATEGORY)
+    @Description("One grow cycle of a garden")
+    @Enabled(false)
+    @StackTrace(false)
+    static class Tick extends Event {
+        @Label("Tick")
+        long tick;
+
+        @Label("Garden Time")
+        @Description("The garden's clock after the tick")
+        double time;
+
+        @Label("Population")
+        int population;
+
+        @Label("Growing")
+        @Description("Plants whose roots were still growing")
+        int growing;
+
+        @Label("Births")
+        int births;
+
+        @Label("Deaths")
+        int deaths;
+
+        @Label("Collision Tests")
+        @Description("Pairs of colliders compared")
+        long collisionTests;
+
+        @Label("Species")
+        @Description("Species with anybody in them after the tick")
+        int species;
+    }
+
+    /**
+     * Adding the plants born and removing the plants that died, at the end
+     * of a tick.
+     */
+    @Name("virtualgarden.Flush")
+    @Label("Birth/Death Flush")
+    @Category(CATEGORY)
+    @Description("Adding new plants and removing dead ones at the end of a tick")
+    @Enabled(false)
+    @StackTrace(false)
+    static class Flush extends Event {
+        @Label("Tick")
+        long tick;
+
+        @Label("Births")
+        int births;
+
+        @Label("Deaths")
+        int deaths;
+
+        @Label("Changed")
+        @Description("Plants that look different since last tick")
+        int changed;
+
+        @Label("Population")
+        @Description("Population after the flush")
+        int population;
+    }
+
+    /**
+     * Every flower that spread its seeds in a cycle, mated and planted
+     * together. See Reproduction.
+     */
+    @Name("virtualgarden.Reproduction")
+    @Label("Reproduction")
+    @Category(CATEGORY)
+    @Description("Flowers mating and spreading their seeds at the end of a tick")
+    @Enabled(false)
+    @StackTrace(false)
+    static class Reproduction extends Event {
+        @Label("Tick")
+        long tick;
+
+        @Label("Parents")
+        @Description("Flowers that spread seeds")
+        int parents;
+
+        @Label("Seeds")
+        int seeds;
+
+        @Label("Migrants")
+        @Description("Chromosomes that came from other gardens")
+        int migrants;
+
+        @Label("Planted")
+        @Description("Seeds that landed inside the garden, and migrants")
+        int planted;
+
+        @Label("Stillborn")
+        @Description("Planted seeds that landed on somebody's roots")
+        int stillborn;
+    }
+
+    /**
+     * One call to Drawer.draw.
+     */
+    @Name("virtualgarden.Draw")
+    @Label("Draw Frame")
+    @Category(CATEGORY)
+    @Description("Drawing the garden once")
+    @Enabled(false)
+    @StackTrace(false)
+    static class Draw extends Event {
+        @Label("Renderer")
+        String renderer;
+
+        @Label("Threads")
+        int threads;
+
+        @Label("Drawables")
+        @Description("Drawables handed to the Drawer")
+        int drawables;
+
+        @Label("Drawn")
+        @Description("Drawables that touched the area being drawn")
+        int drawn;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Every living plant's chromosomes, kept outside the Java heap. A Garden
+ * made with one keeps its genomes here instead of in a Chromosomes object per
+ * plant, which is a lot less for the garbage collector to look through in a
+ * big garden.
+ * 
+ * The store can be a file mapped into memory, and other programs can map
+ * the same file to read along while the garden grows. The layout is, all
+ * little-endian:
+ * 
+ *   0   8 bytes   "VGGENOME"
+ *   8   int       Format version, 1
+ *   12  int       Record size, 40
+ *   16  int       Capacity, in records. The file is at least
+ *                 HEADER_SIZE + capacity * RECORD_SIZE bytes
+ *   20  int       Limit. No plant id is this or higher
+ *   24  ...       Unused up to HEADER_SIZE
+ *   64  records   One per plant id: roots, leaf, stem, flower and all_plant
+ *                 chromosomes, 8 bytes each
+ * 
+ * A record of all zeros has no plant. Ids are reused once a plant is gone,
+ * and the file grows when the garden does, so a reader should look at the
+ * capacity again when it sees a limit past what it mapped. Nothing stops a
+ * reader from seeing a record halfway through being written.
+ * 
+ * Only the garden's thread may write to a store. Java has no way to unmap a
+ * file on purpose, so a mapped store's memory stays around until the garbage
+ * collector finds it.
+ * 
+ * @author Michael Hawthorne
+ */
+public class GenomeStore implements Closeable {
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 8 * Plant.Chromosomes.COUNT;
+    private static final long MAGIC = 0x454D4F4E45474756L;    // "VGGENOME", little-endian
+    private static final int VERSION = 1;
+    private static final int VERSION_OFFSET = 8;
+    private static final int RECORD_SIZE_OFFSET = 12;
+    private static final int CAPACITY_OFFSET = 16;
+    private static final int LIMIT_OFFSET = 20;
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+    
+    private final FileChannel channel;  // Null unless we're a file
+    private final boolean readOnly;
+    private ByteBuffer buffer;
+    private int capacity;
+    private int limit;
+    
+    /**
+     * GenomeStore ctor.
+     * 
+     * @param channel File we're mapped from, or null.
+     * @param buffer Header and records.
+     * @param readOnly Whether we're only reading along.
+     */
+    private GenomeStore(FileChannel channel, ByteBuffer buffer, boolean readOnly) {
+        this.channel = channel;
+        this.readOnly = readOnly;
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    /**
+     * Make a store in memory, off the heap.
+     * 
+     * @param capacity Plants to make room for to start with. It grows.
+     * @return The store.
+     */
+    public static GenomeStore allocate(int capacity) {
+        GenomeStore store = new GenomeStore(null, ByteBuffer.allocateDirect(size(capacity)), false);
+        store.writeHeader(capacity);
+        return store;
+    }
+    
+    /**
+     * Make a store in a file, replacing whatever was there.
+     * 
+     * @param file The file.
+     * @param capacity Plants to make room for to start with. It grows.
+     * @return The store.
+     * @throws IOException If the file can't be made or mapped.
+     */
+    public static GenomeStore create(Path file, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        GenomeStore store = new GenomeStore(channel, 
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, size(capacity)), false);
+        store.writeHeader(capacity);
+        return store;
+    }
+    
+    /**
+     * Map a store somebody else is writing, to read along.
+     * 
+     * @param file The file.
+     * @return The store. Call refresh to see it grow.
+     * @throws IOException If the file can't be mapped or isn't a store.
+     */
+    public static GenomeStore open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        GenomeStore store = new GenomeStore(channel, 
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE), true);
+        if (store.buffer.getLong(0) != MAGIC || store.buffer.getInt(VERSION_OFFSET) != VERSION
+                || store.buffer.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE) {
+            channel.close();
+            throw new IOException(file + " isn't a genome store");
+        }
+        store.refresh();
+        return store;
+    }
+    
+    /**
+     * Catch up with a store that's being written somewhere else, mapping
+     * more of the file if it grew.
+     * 
+     * @throws IOException If the file can't be mapped.
+     */
+    public void refresh() throws IOException {
+        int newCapacity = buffer.getInt(CAPACITY_OFFSET);
+        if (newCapacity != capacity) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size(newCapacity))
+                            .order(ByteOrder.LITTLE_ENDIAN);
+            capacity = newCapacity;
+        }
+        limit = Math.min(capacity, buffer.getInt(LIMIT_OFFSET));
+    }
+    
+    /**
+     * @return No plant id is this or higher.
+     */
+    public int getLimit() {
+        return limit;
+    }
+    
+    /**
+     * Whether there's a plant with an id.
+     * 
+     * @param id Plant id.
+     * @return Whether its record has anything in it.
+     */
+    public boolean contains(int id) {
+        if (id < 0 || id >= limit) {
+            return false;
+        }
+        int at = offset(id);
+        for (int i = 0; i < Plant.Chromosomes.COUNT; i++) {
+            if (buffer.getLong(at + 8 * i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Read one of a plant's chromosomes.
+     * 
+     * @param id Plant id.
+     * @param chromosome Which one, like Plant.Chromosomes.ROOTS.
+     * @return The chromosome.
+     */
+    public long read(int id, int chromosome) {
+        return buffer.getLong(offset(id) + 8 * chromosome);
+    }
+    
+    /**
+     * Read all of a plant's chromosomes into an array, in the same order
+     * as Plant.Chromosomes.toWords.
+     * 
+     * @param id Plant id.
+     * @param words The array.
+     * @param at Where to start.
+     */
+    public void read(int id, long[] words, int at) {
+        int offset = offset(id);
+        for (int i = 0; i < Plant.Chromosomes.COUNT; i++) {
+            words[at + i] = buffer.getLong(offset + 8 * i);
+        }
+    }
+    
+    /**
+     * Read a plant's chromosomes into a new Chromosomes object.
+     * 
+     * @param id Plant id.
+     * @return Its Chromosomes.
+     */
+    public Plant.Chromosomes get(int id) {
+        long[] words = new long[Plant.Chromosomes.COUNT];
+        read(id, words, 0);
+        return Plant.Chromosomes.fromWords(words, 0);
+    }
+    
+    /**
+     * Write a plant's chromosomes from an array.
+     * 
+     * @param id Plant id.
+     * @param words The array, in the same order as Plant.Chromosomes.toWords.
+     * @param at Where they start.
+     */
+    void write(int id, long[] words, int at) {
+        ensureCapacity(id + 1);
+        int offset = offset(id);
+        for (int i = 0; i < Plant.Chromosomes.COUNT; i++) {
+            buffer.putLong(offset + 8 * i, words[at + i]);
+        }
+        if (id >= limit) {
+            limit = id + 1;
+            buffer.putInt(LIMIT_OFFSET, limit);
+        }
+    }
+    
+    /**
+     * Forget a plant's chromosomes, once it's gone.
+     * 
+     * @param id Plant id.
+     */
+    void clear(int id) {
+        if (id < limit) {
+            int offset = offset(id);
+            for (int i = 0; i < Plant.Chromosomes.COUNT; i++) {
+                buffer.putLong(offset + 8 * i, 0);
+            }
+        }
+    }
+    
+    /**
+     * Stop using the file, if there is one. Writes it out first.
+     * 
+     * @throws IOException If the file can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            if (!readOnly) {
+                ((MappedByteBuffer)buffer).force();
+            }
+            channel.close();
+        }
+    }
+    
+    /**
+     * Fill in a new store's header.
+     * 
+     * @param capacity Its capacity.
+     */
+    private void writeHeader(int capacity) {
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(LIMIT_OFFSET, 0);
+        this.capacity = capacity;
+    }
+    
+    /**
+     * Make room for more plants, doubling as needed.
+     * 
+     * @param needed Records we need.
+     */
+    private void ensureCapacity(int needed) {
+        if (needed <= capacity) {
+            return;
+        }
+        if (needed > MAX_CAPACITY) {
+            throw new IllegalStateException("Too many plants for a genome store");
+        }
+        int newCapacity = (int)Math.min(MAX_CAPACITY, Math.max(needed, 2L * capacity));
+        ByteBuffer bigger;
+        if (channel != null) {
+            try {
+                bigger = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(newCapacity));
+            } catch (IOException e) {
+                throw new IllegalStateException("Couldn't grow the genome store", e);
+            }
+        } else {
+            bigger = ByteBuffer.allocateDirect(size(newCapacity));
+            ByteBuffer old = buffer.duplicate();
+            old.clear();
+            bigger.put(old);
+        }
+        buffer = bigger.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(CAPACITY_OFFSET, newCapacity);
+        capacity = newCapacity;
+    }
+    
+    /**
+     * @param id Plant id.
+     * @return Where its record starts.
+     */
+    private static int offset(int id) {
+        return HEADER_SIZE + id * RECORD_SIZE;
+    }
+    
+    /**
+     * @param capacity Records.
+     * @return Bytes needed for them and the header.
+     */
+    private static int size(int capacity) {
+        return HEADER_SIZE + Math.max(1, capacity) * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Several gardens evolving side by side, each on its own thread, that now 
+ * and then send each other migrants. Each island grows on its own and 
+ * drops copies of some of its plants' chromosomes into its neighbours' 
+ * mailboxes; the neighbours plant them, at random spots, the next time 
+ * they're between cycles. Mailboxes are lock-free queues, so islands never
+ * wait on each other, and one that's ahead just sends migrants from a 
+ * little further in the future.
+ * 
+ * Since islands don't wait for each other, which cycle a migrant arrives
+ * in depends on the threads, and runs can't be repeated exactly the way a
+ * single garden can.
+ * 
+ * As a program, grows the islands headless for a while and writes a line
+ * of CSV per island.
+ * 
+ * Options:
+ *   --islands N            Number of gardens. Default one per core.
+ *   --topology T           ring, complete or none. Default ring.
+ *   --migration-rate R     Fraction of an island's population sent to 
+ *                          each neighbour every migration. Default 0.05.
+ *   --migration-interval T Time between migrations. Default 1.
+ *   --seeds N              Seeds planted in each garden. Default 65.
+ *   --time T               Time each garden grows for. Default 10.
+ *   --size WxH             Garden size. Default 1900x900.
+ *   --random-seed N        Base seed for the gardens.
+ *   --out FILE             Where to write the CSV. Default stdout.
+ * 
+ * @author Michael Hawthorne
+ */
+public class IslandModel {
+    /**
+     * Who sends migrants to whom.
+     */
+    public enum Topology {
+        RING,       // Each island to the next one, and the last to the first
+        COMPLETE,   // Everybody to everybody else
+        NONE;       // Nobody, to compare against
+        
+        /**
+         * @param island An island.
+         * @param islands How many islands there are.
+         * @return The islands it sends migrants to.
+         */
+        int[] neighbours(int island, int islands) {
+            switch (this) {
+                case RING:
+                    return islands > 1 ? new int[] { (island + 1) % islands } : new int[0];
+                case COMPLETE:
+                    int[] all = new int[islands - 1];
+                    for (int i = 0, n = 0; i < islands; i++) {
+                        if (i != island) {
+                            all[n++] = i;
+                        }
+                    }
+                    return all;
+                default:
+                    return new int[0];
+            }
+        }
+    }
+    
+    private final Island[] islands;
+    private final double interval;
+    private final float rate;
+    
+    /**
+     * IslandModel ctor. Nobody else should grow the gardens while we do.
+     * 
+     * @param gardens The islands.
+     * @param topology Who sends migrants to whom.
+     * @param interval Time between migrations.
+     * @param rate Fraction of an island's population sent to each of its
+     *             neighbours every migration.
+     */
+    public IslandModel(Garden[] gardens, Topology topology, double interval, float rate) {
+        if (interval <= 0 || rate < 0) {
+            throw new IllegalArgumentException("Bad migration interval or rate");
+        }
+        this.interval = interval;
+        this.rate = rate;
+        islands = new Island[gardens.length];
+        for (int i = 0; i < gardens.length; i++) {
+            islands[i] = new Island(gardens[i]);
+        }
+        for (int i = 0; i < gardens.length; i++) {
+            int[] n = topology.neighbours(i, gardens.length);
+            islands[i].neighbours = new Island[n.length];
+            for (int j = 0; j < n.length; j++) {
+                islands[i].neighbours[j] = islands[n[j]];
+            }
+        }
+    }
+    
+    /**
+     * Grow every island until its clock reaches some time, each on its own
+     * thread.
+     * 
+     * @param until Time to grow the islands to.
+     * @throws InterruptedException If interrupted while waiting on islands.
+     * @throws ExecutionException If an island failed.
+     */
+    public void run(final double until) throws InterruptedException, ExecutionException {
+        ForkJoinPool pool = new ForkJoinPool(islands.length);
+        try {
+            ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(islands.length);
+            for (final Island island : islands) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        island.grow(until);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * @param island Which island.
+     * @return Its garden.
+     */
+    public Garden getGarden(int island) {
+        return islands[island].garden;
+    }
+    
+    /**
+     * @param island Which island.
+     * @return Migrants it's sent, counting one for each neighbour sent to.
+     */
+    public long getEmigrants(int island) {
+        return islands[island].emigrants;
+    }
+    
+    /**
+     * @param island Which island.
+     * @return Migrants it's planted. Ones that arrive after it's done
+     *         growing wait in its mailbox until it grows again.
+     */
+    public long getImmigrants(int island) {
+        Island i = islands[island];
+        return i.garden.getImmigrants() - i.immigrantsBefore;
+    }
+    
+    /**
+     * One garden, and the migrants on their way to it.
+     */
+    private class Island {
+        final Garden garden;
+        final ConcurrentLinkedQueue<long[]> mailbox = new ConcurrentLinkedQueue<long[]>();
+        Island[] neighbours;
+        double nextMigration = Double.NaN;
+        long emigrants;
+        final long immigrantsBefore;    // Planted before we started
+        
+        Island(Garden garden) {
+            this.garden = garden;
+            immigrantsBefore = garden.getImmigrants();
+        }
+        
+        /**
+         * Grow until our clock reaches some time, stopping at every 
+         * migration to send some of ours, and planting whoever's arrived 
+         * between cycles.
+         * 
+         * @param end Time to stop at.
+         */
+        void grow(double end) {
+            if (Double.isNaN(nextMigration)) {
+                nextMigration = garden.getTime() + interval;
+            }
+            while (garden.getTime() < end) {
+                long[] migrants;
+                while ((migrants = mailbox.poll()) != null) {
+                    garden.addMigrants(migrants);
+                }
+                
+                // An island with nobody left just waits for migrants
+                double until = Math.min(nextMigration, end);
+                float amt = garden.step(Garden.MIN_STEP, Garden.MAX_STEP, until);
+                if (amt <= 0 || garden.getTime() >= until) {
+                    // Nobody would plant migrants sent at the very end. If
+                    // we grow on later, they go out first thing then
+                    if (until < nextMigration || until >= end) {
+                        break;
+                    }
+                    emigrate();
+                    nextMigration += interval;
+                }
+            }
+        }
+        
+        /**
+         * Send copies of some of our plants to each neighbour.
+         */
+        private void emigrate() {
+            int count = Math.round(rate * garden.getPopulation());
+            if (count == 0) {
+                return;
+            }
+            for (Island n : neighbours) {
+                n.mailbox.add(garden.sampleGenomes(count));
+                emigrants += count;
+            }
+        }
+    }
+    
+    private static final String CSV_HEADER = "island,random_seed,time,ticks,population,"
+            + "species,births,deaths,emigrants,immigrants";
+    
+    /**
+     * Main function.
+     *
+     * @param args See the class comment.
+     * @throws IOException If the CSV can't be written.
+     * @throws InterruptedException If interrupted while waiting on islands.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int numIslands = Runtime.getRuntime().availableProcessors();
+        Topology topology = Topology.RING;
+        float rate = 0.05f;
+        double interval = 1;
+        int seeds = 65;
+        double duration = 10;
+        int width = 1900, height = 900;
+        long randomSeed = System.currentTimeMillis();
+        String out = null;
+        
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--islands")) {
+                numIslands = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--topology")) {
+                topology = Topology.valueOf(args[++i].toUpperCase());
+            } else if (args[i].equals("--migration-rate")) {
+                rate = Float.parseFloat(args[++i]);
+            } else if (args[i].equals("--migration-interval")) {
+                interval = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--seeds")) {
+                seeds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--time")) {
+                duration = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--size")) {
+                String[] size = args[++i].split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            } else if (args[i].equals("--random-seed")) {
+                randomSeed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--out")) {
+                out = args[++i];
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(1);
+            }
+        }
+        
+        Random seedSource = new Random(randomSeed);
+        Garden[] gardens = new Garden[numIslands];
+        long[] gardenSeeds = new long[numIslands];
+        for (int i = 0; i < numIslands; i++) {
+            gardenSeeds[i] = seedSource.nextLong();
+            gardens[i] = new Garden(width, height, seeds, new Random(gardenSeeds[i]));
+        }
+        IslandModel model = new IslandModel(gardens, topology, interval, rate);
+        try {
+            model.run(duration);
+        } catch (ExecutionException e) {
+            System.err.println("An island failed\n" + e.getCause().toString());
+            System.exit(1);
+        }
+        
+        Writer w = out == null ? new OutputStreamWriter(System.out) : new FileWriter(out);
+        PrintWriter csv = new PrintWriter(w);
+        csv.println(CSV_HEADER);
+        for (int i = 0; i < numIslands; i++) {
+            Garden g = gardens[i];
+            csv.println(i + "," + gardenSeeds[i] + "," + g.getTime() + "," + g.getTicks() + ","
+                        + g.getPopulation() + "," + g.getSpecies().getSpeciesCount() + ","
+                        + g.getBirths() + "," + g.getDeaths() + ","
+                        + model.getEmigrants(i) + "," + model.getImmigrants(i));
+        }
+        csv.flush();
+        if (out != null) {
+            csv.close();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+/**
+ * How the light in a garden is shared between the leaves. Each Garden has
+ * one.
+ * 
+ * The garden is split into square cells. Every canopy adds its weight, one
+ * more than the height of its stem, to each cell it covers. Wherever canopies
+ * overlap they split the cell's light by weight, so a tall canopy takes most
+ * of it, and a wide canopy takes some from more of its neighbours.
+ * 
+ * Weights are whole numbers, so a canopy can always take back exactly what
+ * it added. Canopies only do that when they actually change, so keeping the
+ * light up to date costs in proportion to the canopies that grew, not to the
+ * size of the garden. Cells are grouped into tiles that remember when they
+ * last changed, so a leaf can tell whether its share could be any different
+ * without looking at every cell.
+ * 
+ * Both grids are CopyOnWriteInts, so a forked garden shares its light with
+ * the original until canopies change it.
+ * 
+ * @author Michael Hawthorne
+ */
+class LightField {
+    private static final int MIN_CELL_SIZE = 16;    // Pixels
+    private static final int MAX_CELLS = 1 << 22;   // Big gardens get bigger cells
+    private static final int TILE_SHIFT = 3;        // Tiles are 8x8 cells
+    
+    private final int cellSize, cols, rows;
+    private final CopyOnWriteInts weight;           // Canopy weights in each cell
+    private final int tileCols;
+    private final CopyOnWriteInts tileVersions;     // When each tile last changed
+    private int version;                            // Goes up with every change
+    
+    /**
+     * LightField ctor.
+     * 
+     * @param width Width of the garden. Canopies outside it share the edge
+     *              cells.
+     * @param height Height of the garden.
+     */
+    LightField(int width, int height) {
+        long area = (long)Math.max(1, width) * Math.max(1, height);
+        cellSize = Math.max(MIN_CELL_SIZE, (int)Math.ceil(Math.sqrt((double)area / MAX_CELLS)));
+        cols = Math.max(1, (width + cellSize - 1) / cellSize);
+        rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        weight = new CopyOnWriteInts(cols * rows);
+        tileCols = ((cols - 1) >> TILE_SHIFT) + 1;
+        tileVersions = new CopyOnWriteInts(tileCols * (((rows - 1) >> TILE_SHIFT) + 1));
+    }
+    
+    /**
+     * Copy ctor, sharing both grids with the original.
+     * 
+     * @param from What to copy.
+     */
+    private LightField(LightField from) {
+        cellSize = from.cellSize;
+        cols = from.cols;
+        rows = from.rows;
+        weight = from.weight.fork();
+        tileCols = from.tileCols;
+        tileVersions = from.tileVersions.fork();
+        version = from.version;
+    }
+    
+    /**
+     * Fork the light, for a forked garden. Neither changes the other's
+     * light afterwards.
+     * 
+     * @return The fork.
+     */
+    LightField fork() {
+        return new LightField(this);
+    }
+    
+    /**
+     * Move a canopy from one shape to another. Either can have no weight,
+     * for a canopy that's only appearing or going away.
+     * 
+     * @param x X position of the canopy's middle.
+     * @param y Y position of the canopy's middle.
+     * @param oldRadius Radius it was added with.
+     * @param oldWeight Weight it was added with.
+     * @param newRadius Radius it has now.
+     * @param newWeight Weight it has now.
+     */
+    void move(int x, int y, int oldRadius, int oldWeight, int newRadius, int newWeight) {
+        if (oldWeight != 0) {
+            stamp(x, y, oldRadius, -oldWeight);
+        }
+        if (newWeight != 0) {
+            stamp(x, y, newRadius, newWeight);
+        }
+        version++;
+        touch(x, y, oldRadius);
+        touch(x, y, newRadius);
+    }
+    
+    /**
+     * When the light under a canopy last changed. If this is the same as
+     * last time, so is share.
+     * 
+     * @param x X position of the canopy's middle.
+     * @param y Y position of the canopy's middle.
+     * @param radius Radius it was added with.
+     * @return Version of the latest change anywhere near it.
+     */
+    int version(int x, int y, int radius) {
+        int tileCol0 = col(x - radius) >> TILE_SHIFT, tileCol1 = col(x + radius) >> TILE_SHIFT;
+        int tileRow0 = row(y - radius) >> TILE_SHIFT, tileRow1 = row(y + radius) >> TILE_SHIFT;
+        int latest = 0;
+        for (int tileRow = tileRow0; tileRow <= tileRow1; tileRow++) {
+            for (int tileCol = tileCol0; tileCol <= tileCol1; tileCol++) {
+                latest = Math.max(latest, tileVersions.get(tileRow * tileCols + tileCol));
+            }
+        }
+        return latest;
+    }
+    
+    /**
+     * What share of the light a canopy gets where it is.
+     * 
+     * @param x X position of the canopy's middle.
+     * @param y Y position of the canopy's middle.
+     * @param radius Radius it was added with.
+     * @param w Weight it was added with.
+     * @return Its share of the light, averaged over the cells it covers.
+     *         From 0 to 1.
+     */
+    float share(int x, int y, int radius, int w) {
+        if (w == 0) {
+            return 0;
+        }
+        int midCol = col(x), midRow = row(y);
+        int col0 = col(x - radius), col1 = col(x + radius);
+        int row0 = row(y - radius), row1 = row(y + radius);
+        long r2 = (long)radius * radius;
+        float total = 0;
+        int cells = 0;
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                if (covers(x, y, r2, col, row, midCol, midRow)) {
+                    total += (float)w / weight.get(row * cols + col);
+                    cells++;
+                }
+            }
+        }
+        return total / cells;
+    }
+    
+    /**
+     * Add weight to every cell a canopy covers.
+     * 
+     * @param x X position of the canopy's middle.
+     * @param y Y position of the canopy's middle.
+     * @param radius Radius of the canopy.
+     * @param w Weight to add. Negative to take it back.
+     */
+    private void stamp(int x, int y, int radius, int w) {
+        int midCol = col(x), midRow = row(y);
+        int col0 = col(x - radius), col1 = col(x + radius);
+        int row0 = row(y - radius), row1 = row(y + radius);
+        long r2 = (long)radius * radius;
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                if (covers(x, y, r2, col, row, midCol, midRow)) {
+                    weight.add(row * cols + col, w);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Mark the tiles under a canopy as changed just now.
+     * 
+     * @param x X position of the canopy's middle.
+     * @param y Y position of the canopy's middle.
+     * @param radius Radius of the canopy.
+     */
+    private void touch(int x, int y, int radius) {
+        int tileCol0 = col(x - radius) >> TILE_SHIFT, tileCol1 = col(x + radius) >> TILE_SHIFT;
+        int tileRow0 = row(y - radius) >> TILE_SHIFT, tileRow1 = row(y + radius) >> TILE_SHIFT;
+        for (int tileRow = tileRow0; tileRow <= tileRow1; tileRow++) {
+            for (int tileCol = tileCol0; tileCol <= tileCol1; tileCol++) {
+                tileVersions.set(tileRow * tileCols + tileCol, version);
+            }
+        }
+    }
+    
+    /**
+     * Whether a canopy covers a cell: the middle of the cell is under the
+     * canopy, or the canopy's middle is in the cell, so even the smallest
+     * canopy covers something.
+     * 
+     * @param x X position of the canopy's middle.
+     * @param y Y position of the canopy's middle.
+     * @param r2 Radius of the canopy, squared.
+     * @param col Cell column.
+     * @param row Cell row.
+     * @param midCol Column of the canopy's middle.
+     * @param midRow Row of the canopy's middle.
+     * @return Whether it's covered.
+     */
+    private boolean covers(int x, int y, long r2, int col, int row, int midCol, int midRow) {
+        if (col == midCol && row == midRow) {
+            return true;
+        }
+        long dx = col * cellSize + cellSize / 2 - x;
+        long dy = row * cellSize + cellSize / 2 - y;
+        return dx * dx + dy * dy <= r2;
+    }
+    
+    /**
+     * @param x X position.
+     * @return Cell column, clamped to the grid.
+     */
+    private int col(int x) {
+        return Math.max(0, Math.min(cols - 1, Math.floorDiv(x, cellSize)));
+    }
+    
+    /**
+     * @param y Y position.
+     * @return Cell row, clamped to the grid.
+     */
+    private int row(int y) {
+        return Math.max(0, Math.min(rows - 1, Math.floorDiv(y, cellSize)));
+    }
+}
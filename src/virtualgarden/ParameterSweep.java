@@ -0,0 +1,249 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a grid of genetic settings, one headless garden per setting, all at
+ * once on a fork-join pool. Writes a line of CSV per garden as they finish,
+ * in grid order. Gardens take longer cycles while their roots are far
+ * apart and skip ahead whenever none are growing, so the ticks column is 
+ * how many cycles it actually took.
+ *
+ * Options:
+ *   --crossover A,B,...    Crossover rates to try. Default 0.7.
+ *   --mutation A,B,...     Mutation rates to try. Default 0.001.
+ *   --replicates N         Gardens per setting, each with its own seed.
+ *   --seeds N              Seeds planted in each garden. Default 65.
+ *   --time T               Time each garden grows for. Default 10.
+ *   --ticks N              Same as --time, in the shortest cycles.
+ *   --size WxH             Garden size. Default 1900x900.
+ *   --threads N            Gardens growing at once. Default one per core.
+ *   --random-seed N        Base seed, so sweeps can be repeated.
+ *   --out FILE             Where to write the CSV. Default stdout.
+ *
+ * @author Michael Hawthorne
+ */
+public class ParameterSweep {
+    private static final float TICK = Garden.MIN_STEP;  // Shortest step the window takes
+
+    /**
+     * The result of growing one garden.
+     */
+    private static class Result {
+        float crossoverRate, mutationRate;
+        int replicate;
+        long randomSeed;
+        double duration;
+        long ticks;
+        int finalPopulation;
+        int peakPopulation;
+        double meanPopulation;
+        int finalSpecies;
+        int peakSpecies;
+        long births, deaths;
+        double extinctAt = -1;
+        long millis;
+
+        /**
+         * @return The result as a CSV line.
+         */
+        String toCsv() {
+            return crossoverRate + "," + mutationRate + "," + replicate + ","
+                   + randomSeed + "," + duration + "," + ticks + "," + finalPopulation + ","
+                   + peakPopulation + "," + String.format(Locale.ROOT, "%.2f", meanPopulation) + ","
+                   + finalSpecies + "," + peakSpecies + ","
+                   + births + "," + deaths + "," + extinctAt + "," + millis;
+        }
+    }
+
+    private static final String CSV_HEADER = "crossover_rate,mutation_rate,replicate,"
+            + "random_seed,time,ticks,final_population,peak_population,mean_population,"
+            + "final_species,peak_species,"
+            + "births,deaths,extinct_at_time,millis";
+
+    /**
+     * Grow one garden and summarize how it went.
+     */
+    private static class Run implements Callable<Result> {
+        private final Result result;
+        private final int width, height, seeds;
+
+        Run(int width, int height, int seeds, Result result) {
+            this.width = width;
+            this.height = height;
+            this.seeds = seeds;
+            this.result = result;
+        }
+
+        @Override
+        public Result call() {
+            long start = System.nanoTime();
+            Garden garden = new Garden(width, height, seeds, new Random(result.randomSeed));
+            garden.setCrossoverRate(result.crossoverRate);
+            garden.setMutationRate(result.mutationRate);
+
+            // Population weighted by how long each step was
+            double populationTime = 0;
+            while (garden.getTime() < result.duration) {
+                float amt = garden.step(TICK, Garden.MAX_STEP, result.duration);
+                if (amt <= 0) {
+                    break;
+                }
+                int population = garden.getPopulation();
+                populationTime += population * amt;
+                result.peakPopulation = Math.max(result.peakPopulation, population);
+                result.peakSpecies = Math.max(result.peakSpecies, garden.getSpecies().getSpeciesCount());
+                if (population == 0) {
+                    result.extinctAt = garden.getTime();
+                    break;
+                }
+            }
+
+            result.ticks = garden.getTicks();
+            result.finalPopulation = garden.getPopulation();
+            // A zero-length run has no time to average over, so it's just what it started with
+            result.meanPopulation = garden.getTime() > 0
+                    ? populationTime / garden.getTime() : result.finalPopulation;
+            result.finalSpecies = garden.getSpecies().getSpeciesCount();
+            result.births = garden.getBirths();
+            result.deaths = garden.getDeaths();
+            result.millis = (System.nanoTime() - start) / 1000000;
+            return result;
+        }
+    }
+
+    /**
+     * Main function.
+     *
+     * @param args See the class comment.
+     * @throws IOException If the CSV can't be written.
+     * @throws InterruptedException If interrupted while waiting on gardens.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        float[] crossoverRates = { Plant.Chromosomes.DEFAULT_CROSSOVER_RATE };
+        float[] mutationRates = { Plant.Chromosomes.DEFAULT_MUTATION_RATE };
+        int replicates = 1;
+        int seeds = 65;
+        double duration = 10;
+        int width = 1900, height = 900;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long randomSeed = System.currentTimeMillis();
+        String out = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--crossover")) {
+                crossoverRates = parseFloats(args[++i]);
+            } else if (args[i].equals("--mutation")) {
+                mutationRates = parseFloats(args[++i]);
+            } else if (args[i].equals("--replicates")) {
+                replicates = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--seeds")) {
+                seeds = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--time")) {
+                duration = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--ticks")) {
+                duration = Long.parseLong(args[++i]) * TICK;
+            } else if (args[i].equals("--size")) {
+                String[] size = args[++i].split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            } else if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--random-seed")) {
+                randomSeed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--out")) {
+                out = args[++i];
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        // Every garden gets its own seed, picked up front so the sweep can
+        // be repeated no matter which order the gardens finish in.
+        Random seedSource = new Random(randomSeed);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>();
+        for (float crossoverRate : crossoverRates) {
+            for (float mutationRate : mutationRates) {
+                for (int replicate = 0; replicate < replicates; replicate++) {
+                    Result r = new Result();
+                    r.crossoverRate = crossoverRate;
+                    r.mutationRate = mutationRate;
+                    r.replicate = replicate;
+                    r.randomSeed = seedSource.nextLong();
+                    r.duration = duration;
+                    futures.add(pool.submit(new Run(width, height, seeds, r)));
+                }
+            }
+        }
+
+        Writer w = out == null ? new OutputStreamWriter(System.out) : new FileWriter(out);
+        PrintWriter csv = new PrintWriter(w);
+        csv.println(CSV_HEADER);
+        csv.flush();
+        try {
+            for (Future<Result> f : futures) {
+                csv.println(f.get().toCsv());
+                csv.flush();
+            }
+        } catch (ExecutionException e) {
+            System.err.println("A garden failed\n" + e.getCause().toString());
+            System.exit(1);
+        } finally {
+            pool.shutdown();
+            if (out != null) {
+                csv.close();
+            }
+        }
+    }
+
+    /**
+     * Parse a comma separated list of floats.
+     *
+     * @param list The list.
+     * @return The floats in it.
+     */
+    private static float[] parseFloats(String list) {
+        String[] parts = list.split(",");
+        float[] values = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Float.parseFloat(parts[i].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+/**
+ * Where a garden's time goes, phase by phase. A Garden only keeps track when
+ * it's been handed one of these, which only ScalingBenchmark does, so
+ * normally all it costs is a null check per phase.
+ *
+ * @author Michael Hawthorne
+ */
+class PhaseTimes {
+    // Phases
+    static final int GROW = 0;          // Growing roots, not counting collision
+    static final int COLLISION = 1;     // Checking roots for collisions
+    static final int REPRODUCTION = 2;  // Mating and spreading seeds
+    static final int FLUSH = 3;         // Adding, updating and removing plants
+    static final int DRAW = 4;          // Drawing a frame
+    static final int SOIL = 5;          // Updating the soil's nutrients
+    static final String[] NAMES = { "grow", "collision", "reproduction", "flush", "draw", "soil" };
+
+    final long[] nanos = new long[NAMES.length];
+
+    /**
+     * Count some time against a phase.
+     *
+     * @param phase The phase.
+     * @param ns Nanoseconds spent.
+     */
+    void add(int phase, long ns) {
+        nanos[phase] += ns;
+    }
+}
@@ -25,6 +25,7 @@ package virtualgarden;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Random;
 
@@ -34,34 +35,117 @@ import java.util.Random;
  * @author Michael Hawthorne
  */
 public class Plant extends PlantPart implements Drawer.Drawable {
-    Chromosomes chromosomes;            // Set of chromosomes
+    final Garden garden;                // Where we're planted
+    Garden.Branch branch;               // Which of the garden's forks we belong to
+    int id;                             // Unique among living plants
+    Chromosomes chromosomes;            // Set of chromosomes. Null if the garden
+                                        // keeps them in a GenomeStore
+    private boolean ownChromosomes;     // Made them ourselves, so we can reuse them
     public int x, y;                    // Position
     
     PlantPartRoots roots;               // Sub-part of plant. The roots.
+    PlantPartStem stem;                 // Holds the leaves up
+    PlantPartLeaf leaf;                 // Catches light
     ArrayList<PlantPartFlower> flowers; // The flowers of the plant.
     
+    Rectangle drawnBounds;              // Everything we covered last repaint
+    boolean dirty;                      // Drawn differently since then?
+    boolean dead;                       // Waiting to be removed from the garden
+    
     /**
      * Plant ctor.
      * 
+     * @param garden The garden we're planted in.
      * @param x X position.
      * @param y Y position.
      * @param chromosomes Set of Chromosomes to grow from.
      */
-    public Plant(int x, int y, Chromosomes chromosomes) {
-        super(x, y, chromosomes.all_plant);
-        this.chromosomes = chromosomes;
+    public Plant(Garden garden, int x, int y, Chromosomes chromosomes) {
+        this(garden, x, y, chromosomes, true);
+    }
+    
+    /**
+     * Plant ctor.
+     * 
+     * @param garden The garden we're planted in.
+     * @param x X position.
+     * @param y Y position.
+     * @param chromosomes Set of Chromosomes to grow from.
+     * @param register Whether to register our roots and check them for 
+     *                 collisions now. Bulk seeding registers everyone at 
+     *                 once instead.
+     */
+    Plant(Garden garden, int x, int y, Chromosomes chromosomes, boolean register) {
+        this(garden, x, y, chromosomes, null, 0, register);
+    }
+    
+    /**
+     * Plant ctor, for chromosomes that are already lined up in an array.
+     * 
+     * @param garden The garden we're planted in.
+     * @param x X position.
+     * @param y Y position.
+     * @param genome Chromosomes, in the order Chromosomes.toWords writes them.
+     * @param at Where ours start.
+     * @param register Whether to register our roots and check them for 
+     *                 collisions now.
+     */
+    Plant(Garden garden, int x, int y, long[] genome, int at, boolean register) {
+        this(garden, x, y, null, genome, at, register);
+    }
+    
+    /**
+     * Plant ctor. Takes chromosomes one way or the other, and puts them in
+     * the garden's GenomeStore if it has one.
+     * 
+     * @param garden The garden we're planted in.
+     * @param x X position.
+     * @param y Y position.
+     * @param chromosomes Set of Chromosomes to grow from, or null.
+     * @param genome Or chromosomes in an array.
+     * @param at Where ours start in it.
+     * @param register Whether to register our roots and check them for 
+     *                 collisions now.
+     */
+    private Plant(Garden garden, int x, int y, Chromosomes chromosomes, long[] genome, int at,
+                  boolean register) {
+        super(x, y, chromosomes != null ? chromosomes.all_plant 
+                                        : genome[at + Chromosomes.ALL_PLANT]);
+        this.garden = garden;
+        this.branch = garden.branch;
+        this.id = garden.allocateId();
         this.x = x;
         this.y = y;
+        GenomeStore store = garden.genomes;
+        if (store == null) {
+            this.chromosomes = chromosomes != null ? chromosomes 
+                                                   : Chromosomes.fromWords(genome, at);
+            ownChromosomes = chromosomes == null;
+        } else if (chromosomes != null) {
+            long[] words = new long[Chromosomes.COUNT];
+            chromosomes.toWords(words, 0);
+            store.write(id, words, 0);
+        } else {
+            store.write(id, genome, at);
+        }
         
-        roots = new PlantPartRoots(x, y, chromosomes.roots);
-        Collision c = Collision.getInstance();
-        c.register(roots);
+        roots = new PlantPartRoots(x, y, getChromosome(Chromosomes.ROOTS), garden);
+        roots.id = id;
+        stem = new PlantPartStem(x, y, getChromosome(Chromosomes.STEM));
+        leaf = new PlantPartLeaf(x, y, getChromosome(Chromosomes.LEAF), garden.light);
         
         flowers = new ArrayList<PlantPartFlower>();
-        flowers.add(new PlantPartFlower(x, y, chromosomes.flower));
+        flowers.add(new PlantPartFlower(x, y, getChromosome(Chromosomes.FLOWER)));
+        born(garden.time);
+        garden.store(this);
         
+        if (!register) {
+            return;
+        }
+        Collision c = garden.collision;
+        c.register(roots);
         try {
-            if (c.isColliding(roots)) {
+            if (roots.check(c, garden.horizon)) {
                 die();
             }
         } catch (Collision.ColliderNotPopulatedException e) {
@@ -70,68 +154,258 @@ public class Plant extends PlantPart implements Drawer.Drawable {
         }
     }
     
+    /**
+     * Copy a plant, id and all, for a garden that's about to change it
+     * after a fork; see Garden.own. Its roots and leaves are already in the
+     * garden's soil and light, which were forked too. Chromosomes on the
+     * heap are shared, since neither plant changes them anymore, and ones
+     * in a GenomeStore are copied out, since only the garden that has the
+     * store may use it.
+     * 
+     * @param garden The garden.
+     * @param from Plant to copy.
+     */
+    Plant(Garden garden, Plant from) {
+        super(from);
+        this.garden = garden;
+        this.branch = garden.branch;
+        this.id = from.id;
+        this.x = from.x;
+        this.y = from.y;
+        if (from.chromosomes != null) {
+            chromosomes = from.chromosomes;
+            ownChromosomes = false;
+        } else {
+            long[] words = new long[Chromosomes.COUNT];
+            from.getChromosomes(words, 0);
+            chromosomes = Chromosomes.fromWords(words, 0);
+            ownChromosomes = true;
+        }
+        roots = new PlantPartRoots(from.roots, garden);
+        stem = new PlantPartStem(from.stem);
+        leaf = new PlantPartLeaf(from.leaf, garden.light);
+        flowers = new ArrayList<PlantPartFlower>(from.flowers.size());
+        for (PlantPartFlower f : from.flowers) {
+            flowers.add(new PlantPartFlower(f));
+        }
+        drawnBounds = from.drawnBounds != null ? new Rectangle(from.drawnBounds) : null;
+        dirty = from.dirty;
+        dead = from.dead;
+    }
+    
+    /**
+     * Start over as a newborn plant, for a dead plant the garden's PlantPool
+     * hands out instead of making a new one. Everything is as if we'd just
+     * been made from the chromosomes, except our roots aren't registered 
+     * with the collision yet; whoever plants us does that.
+     * 
+     * @param x X position.
+     * @param y Y position.
+     * @param genome Chromosomes, in the order Chromosomes.toWords writes them.
+     * @param at Where ours start.
+     */
+    void reset(int x, int y, long[] genome, int at) {
+        super.reset(x, y, genome[at + Chromosomes.ALL_PLANT]);
+        branch = garden.branch;
+        id = garden.allocateId();
+        this.x = x;
+        this.y = y;
+        GenomeStore store = garden.genomes;
+        if (store != null) {
+            store.write(id, genome, at);
+        } else if (ownChromosomes) {
+            chromosomes.readWords(genome, at);
+        } else {
+            chromosomes = Chromosomes.fromWords(genome, at);
+            ownChromosomes = true;
+        }
+        
+        // Roots the RootLayer still had to erase were let go; see Garden
+        if (roots != null) {
+            roots.reset(x, y, genome[at + Chromosomes.ROOTS]);
+        } else {
+            roots = new PlantPartRoots(x, y, genome[at + Chromosomes.ROOTS], garden);
+        }
+        roots.id = id;
+        stem.reset(x, y, genome[at + Chromosomes.STEM]);
+        leaf.reset(x, y, genome[at + Chromosomes.LEAF]);
+        for (PlantPartFlower f : flowers) {
+            f.reset(x, y, genome[at + Chromosomes.FLOWER]);
+        }
+        born(garden.time);
+        drawnBounds = null;
+        dirty = false;
+        dead = false;
+        garden.store(this);
+    }
+    
+    /**
+     * Start us and our parts aging, except for the flowers, which start
+     * when they bloom.
+     * 
+     * @param now The garden's clock.
+     */
+    @Override
+    void born(double now) {
+        super.born(now);
+        roots.born(now);
+        stem.born(now);
+        leaf.born(now);
+    }
+    
     /**
      * Kill yourself.
      */
     public void die() {
-        Garden.getInstance().notifyDeath(this);
+        if (!dead) {
+            dead = true;
+            garden.notifyDeath(this);
+        }
     }
     
     /**
-     * Called by Garden when plant is destroyed.
+     * Called by Garden when plant is destroyed. Takes our roots out of the
+     * collision registry and the soil, and our leaves out of the light.
      */
     public void detachColliders() {
-        Collision c = Collision.getInstance();
-        c.remove(roots);
+        garden.collision.remove(roots);
+        roots.detach();
+        leaf.detach();
+    }
+    
+    /**
+     * Tell the garden we look different. Only does anything once per cycle.
+     */
+    public void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            garden.notifyChanged(this);
+        }
+    }
+    
+    /**
+     * Returns our id. Ids are reused once a plant is removed from the garden.
+     * 
+     * @return Our id.
+     */
+    public int getId() {
+        return id;
     }
     
     /**
-     * Returns Chromosomes.
+     * Returns how big our flower is right now.
+     * 
+     * @return Petal size of our first flower, or 0 if we have none.
+     */
+    public int getPetalSize() {
+        return flowers.isEmpty() ? 0 : flowers.get(0).getPetalSize();
+    }
+    
+    /**
+     * Returns Chromosomes. If the garden keeps them in a GenomeStore, this 
+     * is a copy. Otherwise don't hang on to it after we die, since dead
+     * plants get reused, chromosomes and all.
      * 
      * @return Our Chromosome set.
      */
     public Chromosomes getChromosomes() {
-        return chromosomes;
+        return chromosomes != null ? chromosomes : garden.genomes.get(id);
     }
     
     /**
-     * Advance time, grow the plant.
+     * Returns one of our chromosomes, from wherever it's kept.
      * 
-     * @param amt Amount of time.
+     * @param which Which one, like Chromosomes.ROOTS.
+     * @return The chromosome.
      */
-    public void grow(float amt) {
-        super.grow(amt, this);
-        
-        // Calculate how much energy we're producing
-        float energy = roots.produceEnergy();
+    public long getChromosome(int which) {
+        return chromosomes != null ? chromosomes.get(which) : garden.genomes.read(id, which);
+    }
+    
+    /**
+     * Write all of our chromosomes into an array, like Chromosomes.toWords.
+     * 
+     * @param words The array.
+     * @param at Where to start.
+     */
+    void getChromosomes(long[] words, int at) {
+        if (chromosomes != null) {
+            chromosomes.toWords(words, at);
+        } else {
+            garden.genomes.read(id, words, at);
+        }
+    }
+    
+    /**
+     * Start our flowers on the garden's Timeline. Called by Garden when the
+     * plant is added.
+     * 
+     * @param now The garden's clock.
+     */
+    public void bloom(double now) {
         for (PlantPartFlower f : flowers) {
-            energy += f.produceEnergy();
+            f.bloom(this, now);
         }
+    }
+    
+    /**
+     * Advance time, grow the plant. The garden calls this while our roots
+     * are still growing, and after that until our stem and leaves are full
+     * grown; see isCanopyGrown. Flowers don't take any energy, so they 
+     * just follow the garden's clock; see PlantPartFlower.bloom.
+     * 
+     * Roots and leaves both make energy. The stem and then the leaves only
+     * grow if there's enough left over for them.
+     * 
+     * @param amt Amount of time.
+     * @return The energy we made.
+     */
+    public float grow(float amt) {
+        float energy = roots.produceEnergy() + leaf.produceEnergy();
+        float made = energy;
         
-        // Grow each part in order that energy reaches them
-        if (energy >= roots.consumeEnergy()) {
+        // Grow each part in order that energy reaches them. A part pays
+        // for what it was before growing.
+        float cost = roots.consumeEnergy();
+        if (energy >= cost) {
             roots.grow(amt, this);
-            energy -= roots.consumeEnergy();
-            
-            for (PlantPartFlower f : flowers) {
-                if (energy >= f.consumeEnergy()) {
-                    f.grow(amt, this);
-                    energy -= f.consumeEnergy();
-                }
-            }
+            energy -= cost;
+        } else {
+            roots.stall(amt);
+        }
+        cost = stem.consumeEnergy();
+        if (energy >= cost) {
+            stem.grow(amt, this);
+            energy -= cost;
+        }
+        cost = leaf.consumeEnergy();
+        if (energy >= cost) {
+            leaf.grow(amt, this);
+            energy -= cost;
         }
         if (energy < 0) {
             die();
         }
+        return made;
+    }
+    
+    /**
+     * @return Whether our stem and leaves have stopped growing.
+     */
+    public boolean isCanopyGrown() {
+        return stem.isFullGrown() && leaf.isFullGrown();
     }
     
     /**
      * Add this plant to the Drawer.
      * 
      * @param d The Drawer.
+     * @param layer The garden's RootLayer, or null if it has none.
      */
-    public void addToDrawer(Drawer d) {
-        d.addToDrawList(roots, 0);
+    public void addToDrawer(Drawer d, RootLayer layer) {
+        if (layer == null || !layer.isBaked(roots)) {
+            d.addToDrawList(roots, 0);
+        }
         d.addToDrawList(this, 1);
         for( PlantPartFlower f : flowers) {
             d.addToDrawList(f, 2);
@@ -145,10 +419,56 @@ public class Plant extends PlantPart implements Drawer.Drawable {
      */
     @Override
     public void draw(Graphics g) {
+        drawStem(g, x, y);
+    }
+    
+    /**
+     * Draw a plant's green circle at a position.
+     * 
+     * @param g Graphics object
+     * @param x X position.
+     * @param y Y position.
+     */
+    static void drawStem(Graphics g, int x, int y) {
         g.setColor(new Color(53, 196, 70));
         g.fillOval(x - 3, y - 3, 6, 6);
     }
 
+    /**
+     * Get the area the plant itself draws in. Just the green circle.
+     * 
+     * @return Bounding box of the circle.
+     */
+    @Override
+    public Rectangle getBounds() {
+        return new Rectangle(x - 3, y - 3, 7, 7);
+    }
+    
+    /**
+     * Get the area the whole plant draws in, roots and flowers included.
+     * 
+     * @return Bounding box of everything we draw.
+     */
+    public Rectangle getFullBounds() {
+        return getFullBounds(new Rectangle());
+    }
+    
+    /**
+     * Get the area the whole plant draws in, into a Rectangle we already
+     * have. The garden does this for every plant that changes, every cycle.
+     * 
+     * @param bounds Where to put it.
+     * @return bounds.
+     */
+    Rectangle getFullBounds(Rectangle bounds) {
+        bounds.setBounds(x - 3, y - 3, 7, 7);
+        roots.addBoundsTo(bounds);
+        for (int i = 0; i < flowers.size(); i++) {
+            flowers.get(i).addBoundsTo(bounds);
+        }
+        return bounds;
+    }
+
     /**
      * Calculate how much energy we consume in a grow cycle.
      * 
@@ -158,6 +478,8 @@ public class Plant extends PlantPart implements Drawer.Drawable {
     protected float consumeEnergy() {
         float totalEnergy = 0;
         totalEnergy += roots.consumeEnergy();
+        totalEnergy += stem.consumeEnergy();
+        totalEnergy += leaf.consumeEnergy();
         for (PlantPartFlower f : flowers) {
             totalEnergy += f.consumeEnergy();
         }
@@ -173,6 +495,7 @@ public class Plant extends PlantPart implements Drawer.Drawable {
     protected float produceEnergy() {
         float totalEnergy = 0;
         totalEnergy += roots.produceEnergy();
+        totalEnergy += leaf.produceEnergy();
         for (PlantPartFlower f : flowers) {
             totalEnergy += f.produceEnergy();
         }
@@ -194,20 +517,28 @@ public class Plant extends PlantPart implements Drawer.Drawable {
         long flower;        // Reproduction
         long all_plant;     // Variables that affect the whole plant, such as
                             // lifespan
+        static final int COUNT = 5;     // Chromosomes in a set
+        
+        // Order they're in wherever they're lined up, see toWords
+        public static final int ROOTS = 0;
+        public static final int LEAF = 1;
+        public static final int STEM = 2;
+        public static final int FLOWER = 3;
+        public static final int ALL_PLANT = 4;
         
-        // Constants for genetics. Play with these to make things grow/mate
-        // differently.
-        private static final float CROSSOVER_RATE = 0.7f;
-        private static final float MUTATION_RATE = 0.001f;
+        // Default constants for genetics. Each Garden has its own copy, so
+        // play with those to make things grow/mate differently.
+        public static final float DEFAULT_CROSSOVER_RATE = 0.7f;
+        public static final float DEFAULT_MUTATION_RATE = 0.001f;
         
         /**
          * Generate a stochastic set of genes.
          * 
+         * @param r Source of randomness.
          * @return A new Chromosomes object, initialized randomly.
          */
-        public static Chromosomes generate() {
+        public static Chromosomes generate(Random r) {
             Chromosomes c = new Chromosomes();
-            Random r = new Random();
             c.roots = r.nextLong();
             c.leaf = r.nextLong();
             c.stem = r.nextLong();
@@ -221,56 +552,211 @@ public class Plant extends PlantPart implements Drawer.Drawable {
          * 
          * @param m Mother
          * @param f Father
+         * @param r Source of randomness.
+         * @param crossoverRate Chance of a crossover at each bit.
+         * @param mutationRate Chance of a mutation at each bit.
          * @return A new Chromosomes object, initialized via mating.
          */
-        public static Chromosomes mate(Chromosomes m, Chromosomes f) {
+        public static Chromosomes mate(Chromosomes m, Chromosomes f, Random r,
+                                       float crossoverRate, float mutationRate) {
+            Mating mating = new Mating(crossoverRate, mutationRate);
             Chromosomes newC = new Chromosomes();
-            newC.roots = mateSingleChromosome(m.roots, f.roots);
-            newC.leaf = mateSingleChromosome(m.leaf, f.leaf);
-            newC.stem = mateSingleChromosome(m.stem, f.stem);
-            newC.flower = mateSingleChromosome(m.flower, f.flower);
-            newC.all_plant = mateSingleChromosome(m.all_plant, f.all_plant);
+            newC.roots = mating.mate(m.roots, f.roots, r);
+            newC.leaf = mating.mate(m.leaf, f.leaf, r);
+            newC.stem = mating.mate(m.stem, f.stem, r);
+            newC.flower = mating.mate(m.flower, f.flower, r);
+            newC.all_plant = mating.mate(m.all_plant, f.all_plant, r);
             
             return newC;
         }
         
         /**
-         * Helper function for mate. Mates a single Chromosome.
+         * Mate a lot of single chromosomes at once, each mother with the
+         * father at the same index.
          * 
-         * This function works by iterating through each bit of the mother, 
-         * and picking a random number. If that number is below the crossover 
-         * threshold, we do a crossover between mother and father. A crossover 
-         * is an exchange of genes. The bit of the father replace the remaining 
-         * bits of the mother. 
+         * @param mothers Mothers' chromosomes.
+         * @param fathers Fathers' chromosomes.
+         * @param children Where the children go.
+         * @param from First index to mate.
+         * @param to One past the last index to mate.
+         * @param r Source of randomness.
+         * @param crossoverRate Chance of a crossover at each bit.
+         * @param mutationRate Chance of a mutation at each bit.
+         */
+        static void mateAll(long[] mothers, long[] fathers, long[] children, int from, int to,
+                            Random r, float crossoverRate, float mutationRate) {
+            Mating mating = new Mating(crossoverRate, mutationRate);
+            for (int i = from; i < to; i++) {
+                children[i] = mating.mate(mothers[i], fathers[i], r);
+            }
+        }
+        
+        /**
+         * Write our chromosomes into an array, COUNT of them starting at an
+         * index.
+         * 
+         * @param words The array.
+         * @param at Where to start.
+         */
+        void toWords(long[] words, int at) {
+            words[at + ROOTS] = roots;
+            words[at + LEAF] = leaf;
+            words[at + STEM] = stem;
+            words[at + FLOWER] = flower;
+            words[at + ALL_PLANT] = all_plant;
+        }
+        
+        /**
+         * Overwrite our chromosomes with ones written by toWords.
+         * 
+         * @param words The array.
+         * @param at Where to start.
+         */
+        void readWords(long[] words, int at) {
+            roots = words[at + ROOTS];
+            leaf = words[at + LEAF];
+            stem = words[at + STEM];
+            flower = words[at + FLOWER];
+            all_plant = words[at + ALL_PLANT];
+        }
+        
+        /**
+         * Get one chromosome.
+         * 
+         * @param which Which one, like ROOTS.
+         * @return The chromosome.
+         */
+        long get(int which) {
+            switch (which) {
+                case ROOTS:
+                    return roots;
+                case LEAF:
+                    return leaf;
+                case STEM:
+                    return stem;
+                case FLOWER:
+                    return flower;
+                case ALL_PLANT:
+                    return all_plant;
+                default:
+                    throw new IllegalArgumentException("No chromosome " + which);
+            }
+        }
+        
+        /**
+         * Read a set of chromosomes written by toWords.
+         * 
+         * @param words The array.
+         * @param at Where they start.
+         * @return A new Chromosomes object.
+         */
+        static Chromosomes fromWords(long[] words, int at) {
+            Chromosomes c = new Chromosomes();
+            c.readWords(words, at);
+            return c;
+        }
+        
+        /**
+         * Mates single chromosomes with a given crossover and mutation rate.
+         * 
+         * Mating works by going through each bit of the mother, and picking 
+         * a random number. If that number is below the crossover threshold, 
+         * we do a crossover between mother and father. A crossover is an 
+         * exchange of genes. The bit of the father replace the remaining 
+         * bits of the mother. Only the first crossover counts.
          * 
          * If that number is also below the mutation threshold, we do a 
          * mutation. That is, we flip the bit at that position.
          * 
-         * @param m Mother
-         * @param f Father
-         * @return A new, mated chromosome.
+         * Picking a number for every bit adds up to a lot of numbers for 
+         * something that hardly ever happens. Instead we pick how many bits
+         * go by until the next thing happens, which is geometrically
+         * distributed, and jump straight there. Before the crossover, a bit
+         * mutates only if its number was above the crossover threshold but
+         * below the mutation threshold. At the crossover bit, only if it was
+         * below both. After it, with the plain mutation rate. That gives the
+         * same children as a number per bit, with a few numbers per
+         * chromosome.
          */
-        private static long mateSingleChromosome(long m, long f) {
-            Random r = new Random();
-            boolean hasCrossedOver = false;
-            long crossover_mask = Long.MAX_VALUE;
-            long mutation_mask = Long.highestOneBit(Long.MAX_VALUE);
-            long newC = m;
-            for (int i = 0; i < Long.SIZE; i++) {
-                float chance = r.nextFloat();
-                if (!hasCrossedOver && chance <= CROSSOVER_RATE) {
-                    newC = newC & ~crossover_mask | f & crossover_mask;
-                    hasCrossedOver = true;
+        private static class Mating {
+            private final double logNoCrossover;    // log(1 - chance of a crossover at a bit)
+            private final double logNoMutationBefore;   // Same, for mutations before it
+            private final float mutationAtCrossover;    // Chance the crossover bit mutates too
+            private final double logNoMutationAfter;    // And mutations after it
+            
+            /**
+             * Mating ctor.
+             * 
+             * @param crossoverRate Chance of a crossover at each bit.
+             * @param mutationRate Chance of a mutation at each bit.
+             */
+            Mating(float crossoverRate, float mutationRate) {
+                double c = Math.max(0, Math.min(1, crossoverRate));
+                double m = Math.max(0, Math.min(1, mutationRate));
+                logNoCrossover = Math.log1p(-c);
+                logNoMutationBefore = c < 1 ? Math.log1p(-Math.max(0, m - c) / (1 - c)) : 0;
+                mutationAtCrossover = c > 0 ? (float)Math.min(1, m / c) : 0;
+                logNoMutationAfter = Math.log1p(-m);
+            }
+            
+            /**
+             * Mate a single chromosome.
+             * 
+             * @param m Mother
+             * @param f Father
+             * @param r Source of randomness.
+             * @return A new, mated chromosome.
+             */
+            long mate(long m, long f, Random r) {
+                long newC = m;
+                int crossover = skip(r, logNoCrossover);
+                for (int i = skip(r, logNoMutationBefore); i < crossover; i += 1 + skip(r, logNoMutationBefore)) {
+                    newC = mutate(newC, i);
                 }
-                if (chance < MUTATION_RATE) {
-                    newC = (newC & ~mutation_mask) | ~(newC & mutation_mask);
+                if (crossover < Long.SIZE) {
+                    long crossover_mask = crossover < Long.SIZE - 1 ? (1L << (Long.SIZE - 1 - crossover)) - 1 : 0;
+                    newC = newC & ~crossover_mask | f & crossover_mask;
+                    if (r.nextFloat() < mutationAtCrossover) {
+                        newC = mutate(newC, crossover);
+                    }
+                    for (int i = crossover + 1 + skip(r, logNoMutationAfter); i < Long.SIZE; 
+                         i += 1 + skip(r, logNoMutationAfter)) {
+                        newC = mutate(newC, i);
+                    }
                 }
-                
-                crossover_mask &= ~mutation_mask;
-                mutation_mask = (mutation_mask >> 1) & ~mutation_mask;
+                return newC;
             }
             
-            return newC;
+            /**
+             * Mutate the bit at a position. Positions count down from just
+             * below the sign bit.
+             * 
+             * @param c Chromosome.
+             * @param i Position.
+             * @return The mutated chromosome.
+             */
+            private static long mutate(long c, int i) {
+                long mutation_mask = i < Long.SIZE - 1 ? 1L << (Long.SIZE - 2 - i) : 0;
+                return (c & ~mutation_mask) | ~(c & mutation_mask);
+            }
+            
+            /**
+             * How many bits go by before something happens.
+             * 
+             * @param r Source of randomness.
+             * @param logMiss log(1 - chance it happens at each bit).
+             * @return Number of bits, Long.SIZE or more if it won't happen on
+             *         this chromosome.
+             */
+            private static int skip(Random r, double logMiss) {
+                if (logMiss == 0) {
+                    return Long.SIZE;
+                }
+                if (logMiss == Double.NEGATIVE_INFINITY) {
+                    return 0;
+                }
+                return (int)Math.min(Long.SIZE, Math.log(1 - r.nextDouble()) / logMiss);
+            }
         }
     }
 }
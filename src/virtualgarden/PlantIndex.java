@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The garden's plants by where they're drawn, so drawing part of a big
+ * garden only has to look at the plants in that part.
+ * 
+ * A plant is in every grid cell its drawn bounds touch. The garden moves it
+ * when its bounds change, which is only work when they cross into another
+ * cell. A query hands out each plant once, from the first of its cells
+ * inside the area.
+ * 
+ * There's also a pyramid of how many plants are in each cell, by position,
+ * for drawing the garden zoomed out. Level 0 is the grid, and each level
+ * after that has cells twice as big, until one cell covers everything.
+ * 
+ * Only the garden changes the index, at the end of a cycle, while holding
+ * the garden's lock. Drawing holds the same lock.
+ * 
+ * Cells hold plant ids, and the index looks plants up in the garden's
+ * plants by id, so it forks along with them. See Garden.fork.
+ * 
+ * @author Michael Hawthorne
+ */
+class PlantIndex {
+    private static final int MIN_CELL_SIZE = 64;    // Pixels
+    private static final int MAX_CELLS = 1 << 22;   // Big gardens get bigger cells
+    
+    final int cellSize;
+    private final int cols, rows;
+    private final CopyOnWriteRefs<Plant> plants;    // The garden's plants, by id
+    private final CopyOnWriteRefs<int[]> cells;     // Ids in each cell. Never changed, only
+                                                    // replaced, since forks share them
+    private final CopyOnWriteInts[] counts;         // Plants in each cell, level by level
+    private final int[] levelCols, levelRows;
+    
+    /**
+     * PlantIndex ctor.
+     * 
+     * @param width Width of the garden.
+     * @param height Height of the garden.
+     * @param plants The garden's plants, by id.
+     */
+    PlantIndex(int width, int height, CopyOnWriteRefs<Plant> plants) {
+        long area = (long)width * height;
+        cellSize = Math.max(MIN_CELL_SIZE, (int)Math.ceil(Math.sqrt((double)area / MAX_CELLS)));
+        cols = Math.max(1, (width + cellSize - 1) / cellSize);
+        rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        this.plants = plants;
+        cells = new CopyOnWriteRefs<int[]>(cols * rows);
+        
+        int levels = 1;
+        while ((cols - 1) >> (levels - 1) > 0 || (rows - 1) >> (levels - 1) > 0) {
+            levels++;
+        }
+        counts = new CopyOnWriteInts[levels];
+        levelCols = new int[levels];
+        levelRows = new int[levels];
+        for (int l = 0; l < levels; l++) {
+            levelCols[l] = ((cols - 1) >> l) + 1;
+            levelRows[l] = ((rows - 1) >> l) + 1;
+            counts[l] = new CopyOnWriteInts(levelCols[l] * levelRows[l]);
+        }
+    }
+    
+    /**
+     * Copy ctor, sharing every cell and count with the original.
+     * 
+     * @param from What to copy.
+     * @param plants The copy's garden's plants, by id.
+     */
+    private PlantIndex(PlantIndex from, CopyOnWriteRefs<Plant> plants) {
+        cellSize = from.cellSize;
+        cols = from.cols;
+        rows = from.rows;
+        this.plants = plants;
+        cells = from.cells.fork();
+        counts = new CopyOnWriteInts[from.counts.length];
+        for (int l = 0; l < counts.length; l++) {
+            counts[l] = from.counts[l].fork();
+        }
+        levelCols = from.levelCols;
+        levelRows = from.levelRows;
+    }
+    
+    /**
+     * Fork the index, for a forked garden.
+     * 
+     * @param plants The forked garden's plants, by id.
+     * @return The fork.
+     */
+    PlantIndex fork(CopyOnWriteRefs<Plant> plants) {
+        return new PlantIndex(this, plants);
+    }
+    
+    /**
+     * Add a plant.
+     * 
+     * @param p The plant.
+     * @param bounds Where it's drawn.
+     */
+    void add(Plant p, Rectangle bounds) {
+        forEachCell(bounds, p, true);
+        count(p, 1);
+    }
+    
+    /**
+     * Take a plant out.
+     * 
+     * @param p The plant.
+     * @param bounds Where it was drawn when it was last added or moved.
+     */
+    void remove(Plant p, Rectangle bounds) {
+        forEachCell(bounds, p, false);
+        count(p, -1);
+    }
+    
+    /**
+     * A plant is drawn somewhere else now.
+     * 
+     * @param p The plant.
+     * @param from Where it was drawn.
+     * @param to Where it's drawn now.
+     */
+    void move(Plant p, Rectangle from, Rectangle to) {
+        if (col(from.x) == col(to.x) && row(from.y) == row(to.y)
+                && col(from.x + from.width) == col(to.x + to.width)
+                && row(from.y + from.height) == row(to.y + to.height)) {
+            return;
+        }
+        forEachCell(from, p, false);
+        forEachCell(to, p, true);
+    }
+    
+    /**
+     * Find every plant drawn in an area.
+     * 
+     * @param area The area, in garden coordinates.
+     * @param out Where the plants go.
+     */
+    void query(Rectangle area, ArrayList<Plant> out) {
+        int c0 = col(area.x), c1 = col(area.x + area.width);
+        int r0 = row(area.y), r1 = row(area.y + area.height);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int[] cell = cells.get(r * cols + c);
+                if (cell == null) {
+                    continue;
+                }
+                for (int id : cell) {
+                    Plant p = plants.get(id);
+                    Rectangle b = p.drawnBounds;
+                    // Only from the first cell we share with the area
+                    if (c == Math.max(c0, col(b.x)) && r == Math.max(r0, row(b.y))
+                            && area.intersects(b)) {
+                        out.add(p);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return Number of levels in the count pyramid.
+     */
+    int getLevels() {
+        return counts.length;
+    }
+    
+    /**
+     * @param level A level of the count pyramid.
+     * @return Size of that level's cells, in pixels.
+     */
+    int getCellSize(int level) {
+        return cellSize << level;
+    }
+    
+    /**
+     * How many plants grow in a cell of the count pyramid.
+     * 
+     * @param level The level.
+     * @param col Cell column, clamped to the level.
+     * @param row Cell row, clamped to the level.
+     * @return Plants whose position is in the cell.
+     */
+    int getCount(int level, int col, int row) {
+        col = Math.max(0, Math.min(levelCols[level] - 1, col));
+        row = Math.max(0, Math.min(levelRows[level] - 1, row));
+        return counts[level].get(row * levelCols[level] + col);
+    }
+    
+    /**
+     * Count a plant in or out of every level of the pyramid.
+     * 
+     * @param p The plant.
+     * @param delta 1 or -1.
+     */
+    private void count(Plant p, int delta) {
+        int c = col(p.x), r = row(p.y);
+        for (int l = 0; l < counts.length; l++) {
+            counts[l].add((r >> l) * levelCols[l] + (c >> l), delta);
+        }
+    }
+    
+    /**
+     * Add or remove a plant from every cell some bounds touch.
+     * 
+     * @param bounds The bounds.
+     * @param p The plant.
+     * @param add Add if true, remove if false.
+     */
+    private void forEachCell(Rectangle bounds, Plant p, boolean add) {
+        for (int r = row(bounds.y); r <= row(bounds.y + bounds.height); r++) {
+            for (int c = col(bounds.x); c <= col(bounds.x + bounds.width); c++) {
+                int index = r * cols + c;
+                int[] cell = cells.get(index);
+                if (add) {
+                    cell = cell == null ? new int[1] : Arrays.copyOf(cell, cell.length + 1);
+                    cell[cell.length - 1] = p.id;
+                    cells.set(index, cell);
+                } else if (cell != null) {
+                    cells.set(index, without(cell, p.id));
+                }
+            }
+        }
+    }
+    
+    /**
+     * @param cell Ids in a cell.
+     * @param id One to take out, keeping the rest in order.
+     * @return The ids without it. Null if there are none left.
+     */
+    private static int[] without(int[] cell, int id) {
+        for (int i = 0; i < cell.length; i++) {
+            if (cell[i] == id) {
+                if (cell.length == 1) {
+                    return null;
+                }
+                int[] smaller = new int[cell.length - 1];
+                System.arraycopy(cell, 0, smaller, 0, i);
+                System.arraycopy(cell, i + 1, smaller, i, smaller.length - i);
+                return smaller;
+            }
+        }
+        return cell;
+    }
+    
+    /**
+     * @param x X coordinate.
+     * @return Grid column, clamped to the grid.
+     */
+    private int col(int x) {
+        return Math.max(0, Math.min(cols - 1, Math.floorDiv(x, cellSize)));
+    }
+    
+    /**
+     * @param y Y coordinate.
+     * @return Grid row, clamped to the grid.
+     */
+    private int row(int y) {
+        return Math.max(0, Math.min(rows - 1, Math.floorDiv(y, cellSize)));
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list of plants that forks as cheaply as the garden's plants do. It keeps
+ * plant ids in a CopyOnWriteInts, and looks each one up in the garden's
+ * plants by id whenever it's read, so it always hands out whichever copy of
+ * a plant the garden has now; see Garden.own.
+ * 
+ * A list made to be indexed also remembers where each id is, so a plant can
+ * be taken out without looking for it. The last plant takes its place, so
+ * the order doesn't stay the same. Other lists only grow at the end, or get
+ * filtered in place with set and truncate.
+ * 
+ * @author Michael Hawthorne
+ */
+class PlantList implements Iterable<Plant> {
+    private final CopyOnWriteRefs<Plant> plants;    // The garden's plants, by id
+    private final CopyOnWriteInts ids;
+    private final CopyOnWriteInts slots;            // 1 + where each id is, 0 if it isn't.
+                                                    // Null if we aren't indexed
+    private int size;
+    
+    /**
+     * PlantList ctor. Starts out empty.
+     * 
+     * @param plants The garden's plants, by id.
+     * @param indexed Whether single plants will be removed.
+     */
+    PlantList(CopyOnWriteRefs<Plant> plants, boolean indexed) {
+        this.plants = plants;
+        ids = new CopyOnWriteInts(0);
+        slots = indexed ? new CopyOnWriteInts(0) : null;
+    }
+    
+    /**
+     * Copy ctor, sharing every chunk.
+     * 
+     * @param from What to copy.
+     * @param plants The copy's garden's plants, by id.
+     */
+    private PlantList(PlantList from, CopyOnWriteRefs<Plant> plants) {
+        this.plants = plants;
+        ids = from.ids.fork();
+        slots = from.slots != null ? from.slots.fork() : null;
+        size = from.size;
+    }
+    
+    /**
+     * Fork the list, for a forked garden.
+     * 
+     * @param plants The forked garden's plants, by id.
+     * @return The fork.
+     */
+    PlantList fork(CopyOnWriteRefs<Plant> plants) {
+        return new PlantList(this, plants);
+    }
+    
+    /**
+     * @param i Index.
+     * @return The plant there.
+     */
+    Plant get(int i) {
+        return plants.get(ids.get(i));
+    }
+    
+    /**
+     * Put a plant somewhere else in the list, for filtering it in place.
+     * Not for indexed lists.
+     * 
+     * @param i Index. Must be less than size.
+     * @param p The plant.
+     */
+    void set(int i, Plant p) {
+        if (ids.get(i) != p.id) {
+            // Writing would copy the chunk if it's shared
+            ids.set(i, p.id);
+        }
+    }
+    
+    /**
+     * @param p Plant to add at the end.
+     */
+    void add(Plant p) {
+        if (size == ids.length()) {
+            ids.grow(Math.max(16, size * 2));
+        }
+        ids.set(size, p.id);
+        if (slots != null) {
+            slots.grow(p.id + 1);
+            slots.set(p.id, size + 1);
+        }
+        size++;
+    }
+    
+    /**
+     * Take a plant out of an indexed list.
+     * 
+     * @param p The plant.
+     * @return Whether it was in the list.
+     */
+    boolean remove(Plant p) {
+        if (p.id >= slots.length() || slots.get(p.id) == 0) {
+            return false;
+        }
+        int i = slots.get(p.id) - 1;
+        int last = ids.get(--size);
+        if (last != p.id) {
+            ids.set(i, last);
+            slots.set(last, i + 1);
+        }
+        slots.set(p.id, 0);
+        return true;
+    }
+    
+    /**
+     * Drop everything past some size, after filtering in place.
+     * 
+     * @param size How many plants to keep.
+     */
+    void truncate(int size) {
+        this.size = Math.min(this.size, size);
+    }
+    
+    /**
+     * Take everybody out.
+     */
+    void clear() {
+        if (slots != null) {
+            for (int i = 0; i < size; i++) {
+                slots.set(ids.get(i), 0);
+            }
+        }
+        size = 0;
+    }
+    
+    /**
+     * @return Number of plants.
+     */
+    int size() {
+        return size;
+    }
+    
+    /**
+     * @return Whether there are no plants.
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Go through the plants in order. Plants added while going through are
+     * included.
+     * 
+     * @return An Iterator.
+     */
+    @Override
+    public Iterator<Plant> iterator() {
+        return new Iterator<Plant>() {
+            private int next;
+            
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+            
+            @Override
+            public Plant next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+            
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -30,7 +30,7 @@ package virtualgarden;
  */
 public abstract class PlantPart {
     protected long chromosome;
-    protected float age;        // Used for calculating stages of growth.
+    protected double birth_time;    // Garden clock when we were made. See getAge
     protected int parent_x;
     protected int parent_y;
     
@@ -45,7 +45,54 @@ public abstract class PlantPart {
         this.chromosome = chromosome;
         parent_x = x;
         parent_y = y;
-        age = 0;
+    }
+    
+    /**
+     * Copies a PlantPart, for a forked garden.
+     * 
+     * @param from What to copy.
+     */
+    protected PlantPart(PlantPart from) {
+        chromosome = from.chromosome;
+        birth_time = from.birth_time;
+        parent_x = from.parent_x;
+        parent_y = from.parent_y;
+    }
+    
+    /**
+     * Start over as a new part, for a plant that's being reused. See
+     * PlantPool.
+     * 
+     * @param x X position.
+     * @param y Y position.
+     * @param chromosome Chromosome of the part.
+     */
+    protected void reset(int x, int y, long chromosome) {
+        this.chromosome = chromosome;
+        parent_x = x;
+        parent_y = y;
+        birth_time = 0;
+    }
+    
+    /**
+     * Start aging. Called by the plant when it's made, with the garden's 
+     * clock at the time.
+     * 
+     * @param now The garden's clock.
+     */
+    void born(double now) {
+        birth_time = now;
+    }
+    
+    /**
+     * How old we are. Nobody counts their own age up every cycle; it comes
+     * from the garden's clock.
+     * 
+     * @param now The garden's clock.
+     * @return Time since we were made.
+     */
+    public float getAge(double now) {
+        return (float)(now - birth_time);
     }
     
     /**
@@ -75,13 +122,13 @@ public abstract class PlantPart {
     //protected abstract ArrayList<Gene> getGenes();
     
     /**
-     * Grow function. increases age.
+     * Grow function. Parts that only age have nothing to do, since age
+     * comes from the garden's clock.
      * 
      * @param amt Amount to grow.
      * @param parent The parent. Likely be needed by child classes.
      */
     protected void grow(float amt, Plant parent) {
-        age += amt;
     }
     
     /**
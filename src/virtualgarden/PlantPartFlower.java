@@ -25,7 +25,7 @@ package virtualgarden;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.util.ArrayList;
+import java.awt.Rectangle;
 
 /**
  * The Flower part of our plant. Defines reproduction.
@@ -33,19 +33,21 @@ import java.util.ArrayList;
  * @author Michael Hawthorne
  */
 public class PlantPartFlower extends PlantPart implements Drawer.Drawable {
-    private final float hue;          // Hue of the flower from 0-1
-    private final int seed_size;      // Size of seeds
-    private final int seed_num;       // Number of seeds
-    private final int seed_dispersal; // How far seeds spread when dropped
-    
-    private final int num_petals;
-    private final int petal_size;
-    private final float decline_age;
+    private float hue;                // Hue of the flower from 0-1
+    private int seed_size;            // Size of seeds
+    private int seed_num;             // Number of seeds
+    private int seed_dispersal;       // How far seeds spread when dropped
+    
+    private int num_petals;
+    private int petal_size;
+    private float decline_age;
     private float flower_age;
     private int calculated_petal_size;
     
     private boolean spooged;    // Have we spooged?
     
+    private FlowerEvent event;  // Our next change, on the garden's Timeline
+    
     /**
      * Creates a new Flower. Interprets chromosome and sets up properties.
      * 
@@ -55,6 +57,48 @@ public class PlantPartFlower extends PlantPart implements Drawer.Drawable {
      */
     public PlantPartFlower(int x, int y, Long chromosome) {
         super(x, y, chromosome);
+        init();
+    }
+    
+    /**
+     * Copy a flower, for a garden that's about to change it. The copy
+     * shares our event, which finds whichever flower has it when it fires.
+     * 
+     * @param from Flower to copy.
+     */
+    PlantPartFlower(PlantPartFlower from) {
+        super(from);
+        hue = from.hue;
+        seed_size = from.seed_size;
+        seed_num = from.seed_num;
+        seed_dispersal = from.seed_dispersal;
+        num_petals = from.num_petals;
+        petal_size = from.petal_size;
+        decline_age = from.decline_age;
+        flower_age = from.flower_age;
+        calculated_petal_size = from.calculated_petal_size;
+        spooged = from.spooged;
+        event = from.event;
+    }
+    
+    /**
+     * Start over as a new flower. If the old one is still on the Timeline,
+     * it won't fire; see FlowerEvent.
+     * 
+     * @param x Parent X position.
+     * @param y Parent Y position.
+     * @param chromosome Chromosome that defines flower.
+     */
+    @Override
+    protected void reset(int x, int y, long chromosome) {
+        super.reset(x, y, chromosome);
+        init();
+    }
+    
+    /**
+     * Interpret our chromosome, and start out closed.
+     */
+    private void init() {
         hue = ((int)(chromosome >> 56) & 0xFF) / 256f;
         seed_size = (int)((chromosome >> 52) & 0xF);
         seed_num  = (int)((chromosome >> 48) & 0x3);
@@ -69,53 +113,142 @@ public class PlantPartFlower extends PlantPart implements Drawer.Drawable {
         flower_age = 0;
         calculated_petal_size = 0;
         spooged = false;
+        event = null;
     }
     
     /**
-     * Generate a new set of seeds.
+     * Generate a new set of seeds. They're mated and planted at the end of
+     * the cycle, along with every other flower's; see Reproduction.
      * 
      * @param g The Garden. We need this to find a mate.
      * @param parent The parent plant. We need our full set of Chromosomes.
      */
     public void generateSeeds(Garden g, Plant parent) {
-        Plant mate = g.getRandomMate();
+        g.reproduction.add(parent, seed_num, seed_dispersal * 56);
+    }
+    
+    /**
+     * Start the flower's life. Flowers grow at a constant rate until they 
+     * reach the 'decline_age,' which is defined in our genes. At this point 
+     * they spread seeds, and start shrinking. When the flower is twice the 
+     * decline_age it dies. For now, the whole plant dies.
+     * 
+     * None of that depends on anything but time, so rather than growing 
+     * every cycle we put the next change on the garden's Timeline: the next 
+     * time the petals change size, when we spread seeds, and when we die.
+     * 
+     * @param parent Parent plant.
+     * @param now The garden's clock.
+     */
+    public void bloom(Plant parent, double now) {
+        born(now);
+        event = new FlowerEvent(parent.id);
+        Timeline timeline = parent.garden.timeline;
+        timeline.schedule(event, birth_time + nextChange(0));
         
-        ArrayList<Plant.Chromosomes> seeds = new ArrayList<Plant.Chromosomes>();
-        for (int i = 0; i < seed_num; i++) {
-            seeds.add(Plant.Chromosomes.mate(
-                                    parent.getChromosomes(), 
-                                    mate.getChromosomes()));
-        }
-        g.plantSeedsFromReproduction(seeds, parent_x, parent_y, seed_dispersal * 56);
+        // Spreading seeds and dying change the garden, so they shouldn't
+        // wait for a long step to end. Same times update schedules them at.
+        timeline.addDeadline(birth_time + decline_age);
+        timeline.addDeadline(birth_time + decline_age * 2);
     }
     
     /**
-     * Execute a grow cycle. Flowers grow at a constant rate until they reach 
-     * the 'decline_age,' which is defined in our genes. At this point they
-     * spread seeds, and start shrinking. When the flower is twice the decline_age
-     * it dies. For now, the whole plant dies.
+     * Catch the flower up to the given time.
      * 
-     * @param amt Amount to grow.
      * @param parent Parent plant.
+     * @param now The garden's clock.
      */
-    @Override
-    protected void grow(float amt, Plant parent) {
-        super.grow(amt, parent);
-        flower_age += amt;
+    private void update(Plant parent, double now) {
+        flower_age = getAge(now);
+        int old_petal_size = calculated_petal_size;
         
-        if (flower_age <= decline_age) {
-            calculated_petal_size = (int)(petal_size * (flower_age / decline_age));
-        }
-        else if (flower_age > decline_age) {
-            if (!spooged) {
-                generateSeeds(Garden.getInstance(), parent);
-                spooged = true;
-            }
-            calculated_petal_size = (int)((1 - ((flower_age / decline_age) - 1)) * petal_size);
+        if (flower_age >= decline_age && !spooged) {
+            generateSeeds(parent.garden, parent);
+            spooged = true;
+            parent.garden.notifyBloomed(parent, seed_num);
         }
+        calculated_petal_size = petalSizeAt(flower_age);
         if (flower_age >= decline_age * 2) {
             calculated_petal_size = 0;
             parent.die();
+        } else {
+            double next = birth_time + nextChange(flower_age);
+            parent.garden.timeline.schedule(event, next > now ? next : Math.nextUp(now));
+        }
+        if (calculated_petal_size != old_petal_size) {
+            parent.markDirty();
+        }
+    }
+    
+    /**
+     * How big our petals are at a given age.
+     * 
+     * @param age Age of the flower.
+     * @return Petal size.
+     */
+    private int petalSizeAt(float age) {
+        if (age <= decline_age) {
+            return (int)(petal_size * (age / decline_age));
+        }
+        return (int)((1 - ((age / decline_age) - 1)) * petal_size);
+    }
+    
+    /**
+     * The next age at which something about us changes: our petals grow or
+     * shrink a pixel, we spread seeds, or we die.
+     * 
+     * @param age Age of the flower now.
+     * @return Age of the next change.
+     */
+    private float nextChange(float age) {
+        int size = petalSizeAt(age);
+        float next;
+        if (age < decline_age) {
+            next = Math.min(decline_age, (size + 1) * decline_age / petal_size);
+        } else {
+            next = (2 - (float)size / petal_size) * decline_age;
+        }
+        return Math.min(next, decline_age * 2);
+    }
+    
+    /**
+     * Fires whenever a flower is due to change. Forked gardens share their
+     * Timeline, so we go by the plant's id rather than the plant, and update
+     * whichever copy of it the garden firing us has.
+     */
+    private static class FlowerEvent extends Timeline.Event {
+        private final int id;
+        
+        /**
+         * FlowerEvent ctor.
+         * 
+         * @param id Id of the parent plant.
+         */
+        FlowerEvent(int id) {
+            this.id = id;
+        }
+        
+        /**
+         * Update the flower, unless the plant already died. Or died and 
+         * its id was reused, in which case no flower has this event
+         * anymore and it's stale.
+         * 
+         * @param garden The garden.
+         * @param now The garden's clock.
+         */
+        @Override
+        protected void fire(Garden garden, double now) {
+            Plant parent = garden.plant(id);
+            if (parent == null || parent.dead) {
+                return;
+            }
+            for (int i = 0; i < parent.flowers.size(); i++) {
+                if (parent.flowers.get(i).event == this) {
+                    parent = garden.own(parent);
+                    parent.flowers.get(i).update(parent, now);
+                    return;
+                }
+            }
         }
     }
 
@@ -130,6 +263,45 @@ public class PlantPartFlower extends PlantPart implements Drawer.Drawable {
         }
     }
     
+    /**
+     * Get the current petal size.
+     * @return Petal size in pixels.
+     */
+    public int getPetalSize() {
+        return calculated_petal_size;
+    }
+    
+    /**
+     * Set the petal size directly, for showing a flower that lives somewhere
+     * else. See ViewerClient.
+     * @param size Petal size in pixels.
+     */
+    void setPetalSize(int size) {
+        calculated_petal_size = size;
+    }
+    
+    /**
+     * Get the area the flower draws in.
+     * @return Bounding box of the petals.
+     */
+    @Override
+    public Rectangle getBounds() {
+        int size = Math.abs(calculated_petal_size) + 1;
+        return new Rectangle(parent_x - size, parent_y - size, 
+                             2 * size + 1, 2 * size + 1);
+    }
+    
+    /**
+     * Grow a rectangle to cover the area the flower draws in. Same as adding
+     * getBounds to it, without making one.
+     * @param r The rectangle. Must not be empty.
+     */
+    void addBoundsTo(Rectangle r) {
+        int size = Math.abs(calculated_petal_size) + 1;
+        r.add(parent_x - size, parent_y - size);
+        r.add(parent_x + size + 1, parent_y + size + 1);
+    }
+    
     /**
      * Draws a single petal of the flower.
      * @param g Graphics object.
@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+/**
+ * The Leaves of our plant. A canopy held up by the stem, which turns its
+ * share of the garden's light into energy.
+ * 
+ * @author Michael Hawthorne
+ */
+public class PlantPartLeaf extends PlantPart {
+    private int max_radius;             // How wide the canopy can get, in pixels
+    private float spread_rate;          // Pixels per unit of time
+    private float absorption;           // How much of the light we use, 0-1
+    private final LightField light;     // The garden's light
+    private float radius;
+    
+    private int lit_radius;     // What we last told the LightField
+    private int lit_weight;     // 0 while we're not in it
+    private float lit_share;    // Our share of the light, as of lit_version
+    private int lit_version = -1;
+    
+    /**
+     * Initialize a new PlantPartLeaf. Interprets chromosome.
+     * 
+     * @param parent_x Parent's X position.
+     * @param parent_y Parent's Y position.
+     * @param chromosome Chromosome of these leaves.
+     * @param light The garden's LightField.
+     */
+    public PlantPartLeaf(int parent_x, int parent_y, Long chromosome, LightField light) {
+        super(parent_x, parent_y, chromosome);
+        this.light = light;
+        init();
+    }
+    
+    /**
+     * Copy leaves into a forked garden, whose light they're already in.
+     * 
+     * @param from Leaves to copy.
+     * @param light The forked garden's LightField.
+     */
+    PlantPartLeaf(PlantPartLeaf from, LightField light) {
+        super(from);
+        this.light = light;
+        max_radius = from.max_radius;
+        spread_rate = from.spread_rate;
+        absorption = from.absorption;
+        radius = from.radius;
+        lit_radius = from.lit_radius;
+        lit_weight = from.lit_weight;
+        lit_share = from.lit_share;
+        lit_version = from.lit_version;
+    }
+    
+    /**
+     * Start over as new leaves. The old ones must have been detached.
+     * 
+     * @param parent_x Parent's X position.
+     * @param parent_y Parent's Y position.
+     * @param chromosome Chromosome of these leaves.
+     */
+    @Override
+    protected void reset(int parent_x, int parent_y, long chromosome) {
+        super.reset(parent_x, parent_y, chromosome);
+        init();
+    }
+    
+    /**
+     * Interpret our chromosome, and start out with no canopy.
+     */
+    private void init() {
+        max_radius = 4 + ((int)(chromosome >> 60) & 0xF) * 3;
+        spread_rate = 10 + ((int)(chromosome >> 56) & 0xF) * 5;
+        absorption = 0.25f + 0.75f * (((int)(chromosome >> 52) & 0xF) / 15f);
+        radius = 0;
+        lit_radius = 0;
+        lit_weight = 0;
+        lit_share = 0;
+        lit_version = -1;
+    }
+    
+    /**
+     * Execute a grow cycle. The canopy spreads until it's full size, and
+     * the LightField hears about it whenever it covers different cells or
+     * the stem under it got a pixel taller.
+     * 
+     * @param amt Amount to grow
+     * @param parent Parent of leaves.
+     */
+    @Override
+    protected void grow(float amt, Plant parent) {
+        radius = Math.min(max_radius, radius + spread_rate * amt);
+        shade((int)radius, 1 + (int)parent.stem.getHeight());
+    }
+    
+    /**
+     * Move our canopy in the LightField, if it changed.
+     * 
+     * @param r Radius of the canopy now.
+     * @param w Weight of the canopy now. 0 to take it out.
+     */
+    private void shade(int r, int w) {
+        if (r != lit_radius || w != lit_weight) {
+            light.move(parent_x, parent_y, lit_radius, lit_weight, r, w);
+            lit_radius = r;
+            lit_weight = w;
+        }
+    }
+    
+    /**
+     * Take our canopy out of the light. Called when the plant is destroyed.
+     */
+    public void detach() {
+        shade(0, 0);
+    }
+    
+    /**
+     * @return Whether the canopy has spread as wide as it can.
+     */
+    public boolean isFullGrown() {
+        return radius >= max_radius;
+    }
+    
+    /**
+     * Get how wide the canopy is.
+     * 
+     * @return Radius in pixels.
+     */
+    public float getRadius() {
+        return radius;
+    }
+    
+    /**
+     * Calculate consumed energy. Bigger canopies cost more to keep up.
+     * 
+     * @return Energy consumed.
+     */
+    @Override
+    protected float consumeEnergy() {
+        return radius * radius;
+    }
+    
+    /**
+     * Calculate produced energy. Light falling on our canopy, less what the
+     * neighbours took.
+     * 
+     * @return Energy produced.
+     */
+    @Override
+    protected float produceEnergy() {
+        int version = light.version(parent_x, parent_y, lit_radius);
+        if (version != lit_version) {
+            lit_share = light.share(parent_x, parent_y, lit_radius, lit_weight);
+            lit_version = version;
+        }
+        return absorption * (float)Math.PI * radius * radius * lit_share;
+    }
+}
@@ -25,6 +25,7 @@ package virtualgarden;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 
 /**
  * The Roots of our plant. Mainly produces energy.
@@ -33,25 +34,115 @@ import java.awt.Graphics;
  */
 public class PlantPartRoots extends PlantPart 
         implements Collision.Collider<PlantPartRoots>, Drawer.Drawable { 
+    static final float MAX_SPEED = 15 * 15 / 2f;   // Fastest any roots' radius grows
+    
     int depth;
     int width;
-    float width_factor;
     boolean collided;       // We stop growing when we collide with other roots.
+    private double freeze_time;     // Garden clock when we collided. See getGrowth
+    private double stalled;         // Time we went without growing
+    private final Garden garden;    // Whose clock we grow by. Null if we're only shown
+    Garden.Branch branch;           // Which of the garden's forks we belong to
+    int id;                         // Our plant's id
+    private int drawn_left;     // Where we last drew, to notice when we change
+    private int drawn_diameter;
+    private final SoilField soil;   // Where we get nutrients. Null if we're only shown
+    private int soil_radius;        // What we last told the SoilField
+    private int soil_depth;         // 0 while we're not in it
+    private float supply;           // Nutrients around us, as of supply_version
+    private int supply_version = -1;
+    private float clearance;        // Room to the nearest roots, as of our last check
     
     /**
-     * Initialize a new PlantPartRoots.
+     * Initialize a new PlantPartRoots, just for showing. They don't take
+     * anything from any soil.
      * 
      * @param parent_x Parent's X position.
      * @param parent_y Parent's Y position.
      * @param chromosome Chromosomes of these roots.
      */
     public PlantPartRoots(int parent_x, int parent_y, Long chromosome) {
+        this(parent_x, parent_y, chromosome, null);
+    }
+    
+    /**
+     * Initialize a new PlantPartRoots. They grow from when they're born;
+     * see PlantPart.born.
+     * 
+     * @param parent_x Parent's X position.
+     * @param parent_y Parent's Y position.
+     * @param chromosome Chromosomes of these roots.
+     * @param garden The garden, for its clock and SoilField.
+     */
+    public PlantPartRoots(int parent_x, int parent_y, Long chromosome, Garden garden) {
         super(parent_x, parent_y, chromosome);
+        this.garden = garden;
+        this.soil = garden != null ? garden.soil : null;
+        branch = garden != null ? garden.branch : null;
+        init();
+    }
+    
+    /**
+     * Copy some roots, for a garden that's about to change them. They're
+     * already in its soil, and its collision registry under our id, since
+     * those were forked too.
+     * 
+     * @param from Roots to copy.
+     * @param garden The garden.
+     */
+    PlantPartRoots(PlantPartRoots from, Garden garden) {
+        super(from);
+        this.garden = garden;
+        this.soil = garden.soil;
+        branch = garden.branch;
+        id = from.id;
+        depth = from.depth;
+        width = from.width;
+        collided = from.collided;
+        freeze_time = from.freeze_time;
+        stalled = from.stalled;
+        drawn_left = from.drawn_left;
+        drawn_diameter = from.drawn_diameter;
+        soil_radius = from.soil_radius;
+        soil_depth = from.soil_depth;
+        supply = from.supply;
+        supply_version = from.supply_version;
+        clearance = from.clearance;
+    }
+
+    /**
+     * Start over as new roots. The old ones must have been detached, and
+     * not be in a RootLayer.
+     * 
+     * @param parent_x Parent's X position.
+     * @param parent_y Parent's Y position.
+     * @param chromosome Chromosome of these roots.
+     */
+    @Override
+    protected void reset(int parent_x, int parent_y, long chromosome) {
+        super.reset(parent_x, parent_y, chromosome);
+        branch = garden != null ? garden.branch : null;
+        init();
+    }
+    
+    /**
+     * Interpret our chromosome, and start out with no width.
+     */
+    private void init() {
         depth = (int)(chromosome >> 60) & 0xF;
         width = (int)Math.pow(((chromosome >> 56) & 0xF), 2);
         collided = false;
+        freeze_time = 0;
+        stalled = 0;
+        drawn_left = 0;
+        drawn_diameter = 0;
+        soil_radius = 0;
+        soil_depth = 0;
+        supply = 0;
+        supply_version = -1;
+        clearance = 0;
     }
-
+    
     /**
      * Execute a grow cycle. Handles collision.
      * 
@@ -60,23 +151,125 @@ public class PlantPartRoots extends PlantPart
      */
     @Override
     protected void grow( float amt, Plant parent) {
-        super.grow(amt, parent);
         if (!collided) {
-            width_factor += amt;
+            // Our width follows the garden's clock, so it's already grown
+            // by amt. Only tell the parent when we'd actually draw differently
+            int left = (int) (parent_x - getRadius());
+            int diameter = (int) getRadius() * 2;
+            if (left != drawn_left || diameter != drawn_diameter) {
+                drawn_left = left;
+                drawn_diameter = diameter;
+                parent.markDirty();
+            }
+            drain((int)getRadius(), depth);
             // Collision code
-            Collision collision = Collision.getInstance();
+            Collision collision = parent.garden.collision;
+            PhaseTimes times = parent.garden.phaseTimes;
+            long start = times == null ? 0 : System.nanoTime();
             try {
-                if ( collision.isColliding((Collision.Collider) this)) {
+                // Neighbours that grow after us this cycle can still close
+                // in by amt
+                if (check(collision, parent.garden.horizon + amt)) {
                     collided = true;
+                    freeze_time = garden.time;
+                    parent.garden.notifyRootsFrozen(parent);
                 }
             }
             catch (Collision.ColliderNotPopulatedException e) {
                 System.err.println("You forgot to populate the collider\n"
                                     + e.toString());
             }
+            if (times != null) {
+                times.add(PhaseTimes.COLLISION, System.nanoTime() - start);
+            }
         }
     }
 
+    /**
+     * Don't grow this cycle, when there wasn't energy for it.
+     * 
+     * @param amt How long the cycle was.
+     */
+    void stall(float amt) {
+        if (!collided) {
+            stalled += amt;
+        }
+    }
+    
+    /**
+     * How much we've grown: the time we've spent growing, from when we
+     * were born to now, or to when we collided. Roots the garden has
+     * forked away from stopped growing at the fork.
+     * 
+     * @return What our width is scaled by for our radius.
+     */
+    private float getGrowth() {
+        double end;
+        if (collided || garden == null) {
+            end = freeze_time;
+        } else {
+            end = branch.ended ? branch.end : garden.time;
+        }
+        return (float)(end - birth_time - stalled);
+    }
+    
+    /**
+     * Check whether we're colliding with other roots, and remember how much
+     * room there is to the nearest ones that we could reach in some time.
+     * 
+     * @param collision The garden's Collision.
+     * @param ahead How much time to look ahead.
+     * @return Whether we're colliding.
+     * @throws virtualgarden.Collision.ColliderNotPopulatedException 
+     */
+    boolean check(Collision collision, float ahead) throws Collision.ColliderNotPopulatedException {
+        clearance = collision.clearance(this, (getSpeed() + MAX_SPEED) * ahead);
+        return clearance < 0;
+    }
+    
+    /**
+     * How long until we could touch other roots, going by our last check.
+     * Everybody around us is taken to grow as fast as roots can.
+     * 
+     * @param since Time that's passed since the check.
+     * @return Time until we might collide. Infinite once we have.
+     */
+    float timeToContact(float since) {
+        if (collided) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return Math.max(0, clearance - MAX_SPEED * since) / (getSpeed() + MAX_SPEED);
+    }
+    
+    /**
+     * @return How fast our radius grows, per unit of time.
+     */
+    float getSpeed() {
+        return width / 2f;
+    }
+    
+    /**
+     * Move our roots in the SoilField, if they changed.
+     * 
+     * @param r Radius of the roots now.
+     * @param d Depth of the roots now. 0 to take them out.
+     */
+    private void drain(int r, int d) {
+        if (soil != null && (r != soil_radius || d != soil_depth)) {
+            soil.move(parent_x, parent_y, soil_radius, soil_depth, r, d);
+            soil_radius = r;
+            soil_depth = d;
+            supply_version = -1;
+        }
+    }
+    
+    /**
+     * Take our roots out of the soil. Called when the plant is destroyed.
+     */
+    public void detach() {
+        drain(0, 0);
+    }
+    
     /**
      * Draw the roots.
      * 
@@ -92,6 +285,33 @@ public class PlantPartRoots extends PlantPart
                    (int)getRadius() * 2, (int)getRadius() * 2);
     }
 
+    /**
+     * Get the area the roots draw in.
+     * 
+     * @return Bounding box of the roots.
+     */
+    @Override
+    public Rectangle getBounds() {
+        int left = (int) (parent_x - getRadius());
+        int top = (int) (parent_y - getRadius());
+        int diameter = (int) getRadius() * 2;
+        return new Rectangle(left - 1, top - 1, diameter + 3, diameter + 3);
+    }
+
+    /**
+     * Grow a rectangle to cover the area the roots draw in. Same as adding
+     * getBounds to it, without making one.
+     * 
+     * @param r The rectangle. Must not be empty.
+     */
+    void addBoundsTo(Rectangle r) {
+        int left = (int) (parent_x - getRadius());
+        int top = (int) (parent_y - getRadius());
+        int diameter = (int) getRadius() * 2;
+        r.add(left - 1, top - 1);
+        r.add(left + diameter + 2, top + diameter + 2);
+    }
+
     /**
      * Calculate consumed energy.
      * 
@@ -103,12 +323,21 @@ public class PlantPartRoots extends PlantPart
     }
 
     /**
-     * Calculate produced energy.
+     * Calculate produced energy. Deeper and wider roots make more, as far
+     * as the soil around them has anything to give.
+     * 
      * @return Energy produced.
      */
     @Override
     protected float produceEnergy() {
-        return depth * getRadius();
+        if (soil == null) {
+            return depth * getRadius();
+        }
+        if (supply_version != soil.getVersion()) {
+            supply = soil.supply(parent_x, parent_y, soil_radius);
+            supply_version = soil.getVersion();
+        }
+        return depth * getRadius() * supply;
     }
     
     /**
@@ -117,7 +346,75 @@ public class PlantPartRoots extends PlantPart
      * @return Radius of the roots.
      */
     public float getRadius() {
-        return width_factor * width / 2;
+        return getGrowth() * width / 2;
+    }
+    
+    /**
+     * Set the radius directly, for showing roots that live somewhere else.
+     * See ViewerClient.
+     * 
+     * @param radius Radius of the roots.
+     */
+    void setRadius(float radius) {
+        if (width > 0) {
+            // Shown roots don't grow on their own, so we act like ours
+            // froze at the right time
+            float growth = 2 * radius / width;
+            freeze_time = birth_time + stalled + growth;
+            // Float rounding can leave us a hair off, which is enough to
+            // draw a pixel over. Walk to the exact value if there is one.
+            for (int i = 0; i < 4 && getRadius() != radius; i++) {
+                growth = getRadius() < radius ? Math.nextUp(growth) : Math.nextAfter(growth, 0);
+                freeze_time = birth_time + stalled + growth;
+            }
+        }
+    }
+    
+    /**
+     * Whether roots at a position cover the same pixels with either of two
+     * radii. Matches what draw does, float rounding included.
+     * 
+     * @param x Parent X position.
+     * @param y Parent Y position.
+     * @param a One radius.
+     * @param b The other radius.
+     * @return Whether both draw the same oval.
+     */
+    static boolean drawsSame(int x, int y, float a, float b) {
+        return (int)(x - a) == (int)(x - b) && (int)(y - a) == (int)(y - b)
+               && (int)a == (int)b;
+    }
+    
+    /**
+     * @return Our plant's id.
+     */
+    @Override
+    public int getId() {
+        return id;
+    }
+    
+    /**
+     * @return X position of our plant.
+     */
+    @Override
+    public float getCenterX() {
+        return parent_x;
+    }
+    
+    /**
+     * @return Y position of our plant.
+     */
+    @Override
+    public float getCenterY() {
+        return parent_y;
+    }
+    
+    /**
+     * @return Radius of the roots. Nothing further away can touch us.
+     */
+    @Override
+    public float getReach() {
+        return getRadius();
     }
     
     /**
@@ -133,4 +430,17 @@ public class PlantPartRoots extends PlantPart
         float size = getRadius() + other.getRadius();
         return size > distance;
     }
+    
+    /**
+     * How far our roots are from another's.
+     * 
+     * @param other Other Roots.
+     * @return Distance between the edges. Negative if we're colliding.
+     */
+    @Override
+    public float getGap(PlantPartRoots other) {
+        float distance = (float)Math.sqrt(Math.pow(parent_x - other.getParentX(), 2) + 
+                                          Math.pow(parent_y - other.getParentY(), 2));
+        return distance - (getRadius() + other.getRadius());
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+/**
+ * The Stem of our plant. Holds the leaves up to the light, which costs
+ * energy to keep up.
+ * 
+ * @author Michael Hawthorne
+ */
+public class PlantPartStem extends PlantPart {
+    private int max_height;             // How tall we can get, in pixels
+    private float growth_rate;          // Pixels per unit of time
+    private float upkeep;               // Energy per pixel of height
+    private float height;
+    
+    /**
+     * Initialize a new PlantPartStem. Interprets chromosome.
+     * 
+     * @param parent_x Parent's X position.
+     * @param parent_y Parent's Y position.
+     * @param chromosome Chromosome of this stem.
+     */
+    public PlantPartStem(int parent_x, int parent_y, Long chromosome) {
+        super(parent_x, parent_y, chromosome);
+        init();
+    }
+    
+    /**
+     * Copy a stem into a forked garden.
+     * 
+     * @param from Stem to copy.
+     */
+    PlantPartStem(PlantPartStem from) {
+        super(from);
+        max_height = from.max_height;
+        growth_rate = from.growth_rate;
+        upkeep = from.upkeep;
+        height = from.height;
+    }
+    
+    /**
+     * Start over as a new stem.
+     * 
+     * @param parent_x Parent's X position.
+     * @param parent_y Parent's Y position.
+     * @param chromosome Chromosome of this stem.
+     */
+    @Override
+    protected void reset(int parent_x, int parent_y, long chromosome) {
+        super.reset(parent_x, parent_y, chromosome);
+        init();
+    }
+    
+    /**
+     * Interpret our chromosome, and start out flat.
+     */
+    private void init() {
+        max_height = 4 + ((int)(chromosome >> 60) & 0xF) * 4;
+        growth_rate = 8 + ((int)(chromosome >> 56) & 0xF) * 4;
+        upkeep = 1 + ((int)(chromosome >> 52) & 0xF) / 15f;
+        height = 0;
+    }
+    
+    /**
+     * Execute a grow cycle. We get taller until we reach our full height.
+     * 
+     * @param amt Amount to grow
+     * @param parent Parent of stem.
+     */
+    @Override
+    protected void grow(float amt, Plant parent) {
+        height = Math.min(max_height, height + growth_rate * amt);
+    }
+    
+    /**
+     * @return Whether we've reached our full height.
+     */
+    public boolean isFullGrown() {
+        return height >= max_height;
+    }
+    
+    /**
+     * Get how tall we are.
+     * 
+     * @return Height in pixels.
+     */
+    public float getHeight() {
+        return height;
+    }
+    
+    /**
+     * Calculate consumed energy. Taller stems cost more than their height,
+     * so only plants with energy to spare get tall.
+     * 
+     * @return Energy consumed.
+     */
+    @Override
+    protected float consumeEnergy() {
+        return upkeep * height * height;
+    }
+    
+    /**
+     * Calculate produced energy.
+     * 
+     * @return Energy produced.
+     */
+    @Override
+    protected float produceEnergy() {
+        return 0;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.util.Arrays;
+
+/**
+ * Dead plants, kept to be reused for the next seeds. Each Garden has one.
+ * 
+ * A garden that's filled up loses about as many plants each cycle as it
+ * gains, and every one of them is a Plant, its parts, its Chromosomes and a
+ * list of flowers. Instead of leaving all of that to the garbage collector,
+ * the garden puts its dead here once it's done removing them, and
+ * Reproduction takes them back out and resets them from the seeds'
+ * chromosomes.
+ * 
+ * The pool only holds so many. Past that, dead plants are left for the
+ * garbage collector like before, so a garden that shrinks a lot doesn't
+ * keep all of its old plants around. Only the garden's thread may use it.
+ * 
+ * @author Michael Hawthorne
+ */
+public class PlantPool {
+    public static final int DEFAULT_CAPACITY = 1024;
+    
+    private Plant[] plants = new Plant[16];
+    private int size;
+    private int capacity;
+    private long reused;            // Plants handed out again
+    private long created;           // Times we had nothing to hand out
+    private long dropped;           // Dead plants we had no room for
+    
+    /**
+     * PlantPool ctor.
+     * 
+     * @param capacity Most dead plants to keep. 0 to keep none.
+     */
+    PlantPool(int capacity) {
+        setCapacity(capacity);
+    }
+    
+    /**
+     * Get a dead plant to reset.
+     * 
+     * @return A dead plant, or null if there aren't any and the caller has
+     *         to make a new one.
+     */
+    Plant take() {
+        if (size == 0) {
+            created++;
+            return null;
+        }
+        reused++;
+        Plant p = plants[--size];
+        plants[size] = null;
+        return p;
+    }
+    
+    /**
+     * Keep a dead plant for later, if there's room. It must be out of the
+     * garden completely.
+     * 
+     * @param p The plant.
+     */
+    void give(Plant p) {
+        if (size == capacity) {
+            dropped++;
+            return;
+        }
+        if (size == plants.length) {
+            plants = Arrays.copyOf(plants, Math.min(capacity, size * 2));
+        }
+        plants[size++] = p;
+    }
+    
+    /**
+     * Change how many dead plants to keep. Any extra are let go.
+     * 
+     * @param capacity Most dead plants to keep. 0 to keep none.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity " + capacity + " out of range");
+        }
+        this.capacity = capacity;
+        if (size > capacity) {
+            Arrays.fill(plants, capacity, size, null);
+            dropped += size - capacity;
+            size = capacity;
+        }
+    }
+    
+    /**
+     * @return Most dead plants we keep.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * @return Dead plants waiting to be reused.
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * @return Plants handed out to be reset instead of made.
+     */
+    public long getReused() {
+        return reused;
+    }
+    
+    /**
+     * @return Plants that had to be made because the pool was empty.
+     */
+    public long getCreated() {
+        return created;
+    }
+    
+    /**
+     * @return Dead plants let go because the pool was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+    
+    /**
+     * @return Share of new plants that were reused, from 0 to 1.
+     */
+    public double getHitRate() {
+        long asked = reused + created;
+        return asked == 0 ? 0 : (double)reused / asked;
+    }
+}
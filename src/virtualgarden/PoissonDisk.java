@@ -0,0 +1,321 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Picks spots for a lot of seeds at once, none of them closer than a minimum
+ * distance to each other (Poisson-disk sampling, Bridson's way).
+ *
+ * The garden is split into square tiles that are grown in four passes, like
+ * the squares of a checkerboard coloured with four colours. Tiles in the same
+ * pass are a whole tile apart, so they can't get in each other's way and run
+ * in parallel. Each tile has its own Random, seeded up front, so the same
+ * Random always gives the same spots no matter how many threads there are.
+ *
+ * @author Michael Hawthorne
+ */
+public class PoissonDisk {
+    private static final int ATTEMPTS = 30;         // Darts to miss before a tile is full
+    private static final int AROUND = 16;           // Spots tried around each one
+    private static final double STEP_COS = Math.cos(2 * Math.PI / AROUND);
+    private static final double STEP_SIN = Math.sin(2 * Math.PI / AROUND);
+    private static final int TILE_CELLS = 32;       // Tile size, in grid cells
+    private static final int PARALLEL_TILES = 16;   // Fewer tiles than this isn't worth the threads
+    private static final double SLACK = 2;          // Aim for this much more room than count needs
+
+    private static ForkJoinPool pool;               // For when we're not already in one
+
+    private final int width, height;
+    private final double distance;      // Minimum distance between spots
+    private final double reach;         // How far out to try new spots
+    private final double cellSize;      // Grid cells hold at most one spot
+    private final double perCell;       // 1 / cellSize
+    private final int cols, rows;
+    private final long[] grid;          // Spot in each cell, X << 32 | Y, or -1
+
+    /**
+     * PoissonDisk ctor.
+     *
+     * @param width Width of the area.
+     * @param height Height of the area.
+     * @param distance Minimum distance between spots.
+     */
+    private PoissonDisk(int width, int height, double distance) {
+        this.width = width;
+        this.height = height;
+        this.distance = distance;
+        reach = distance + 1;
+        cellSize = distance / Math.sqrt(2);
+        perCell = 1 / cellSize;
+        cols = (int)Math.ceil(width / cellSize);
+        rows = (int)Math.ceil(height / cellSize);
+        grid = new long[cols * rows];
+        Arrays.fill(grid, -1);
+    }
+
+    /**
+     * Pick spots for seeds, evenly spread over an area but not in a pattern.
+     *
+     * @param width Width of the area. Spots are from 0 to width - 1.
+     * @param height Height of the area.
+     * @param count Number of spots wanted.
+     * @param random Where the randomness comes from.
+     * @return X and Y of each spot, one after the other. Only has fewer than
+     *         count spots if the area doesn't have that many pixels.
+     */
+    public static int[] sample(int width, int height, int count, Random random) {
+        if (count <= 0 || width <= 0 || height <= 0) {
+            return new int[0];
+        }
+        count = (int)Math.min(count, (long)width * height);
+
+        // A maximal Poisson-disk set has about 0.7 spots per distance squared,
+        // so this gives plenty to choose from. Tighten up if it still wasn't
+        // enough.
+        double distance = Math.sqrt((double)width * height / (SLACK * count));
+        int[] spots;
+        while (true) {
+            PoissonDisk disk = new PoissonDisk(width, height, Math.max(1, distance));
+            disk.fill(random);
+            spots = disk.collect();
+            if (spots.length / 2 >= count || distance <= 1) {
+                break;
+            }
+            distance *= 0.85;
+        }
+
+        // Any subset is still spread out. Take a random one of the right size.
+        int found = spots.length / 2;
+        for (int i = 0; i < count && i < found; i++) {
+            int j = i + random.nextInt(found - i);
+            int x = spots[2 * j], y = spots[2 * j + 1];
+            spots[2 * j] = spots[2 * i];
+            spots[2 * j + 1] = spots[2 * i + 1];
+            spots[2 * i] = x;
+            spots[2 * i + 1] = y;
+        }
+        return Arrays.copyOf(spots, 2 * Math.min(count, found));
+    }
+
+    /**
+     * Fill the whole area, tile by tile, a quarter of the tiles at a time.
+     *
+     * @param random Seeds each tile's own Random.
+     */
+    private void fill(Random random) {
+        int tileCols = (cols + TILE_CELLS - 1) / TILE_CELLS;
+        int tileRows = (rows + TILE_CELLS - 1) / TILE_CELLS;
+        long[] seeds = new long[tileCols * tileRows];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = random.nextLong();
+        }
+
+        for (int pass = 0; pass < 4; pass++) {
+            ArrayList<Tile> tiles = new ArrayList<Tile>();
+            for (int ty = pass / 2; ty < tileRows; ty += 2) {
+                for (int tx = pass % 2; tx < tileCols; tx += 2) {
+                    tiles.add(new Tile(tx, ty, seeds[ty * tileCols + tx]));
+                }
+            }
+            if (seeds.length < PARALLEL_TILES) {
+                for (Tile t : tiles) {
+                    t.compute();
+                }
+            } else if (ForkJoinTask.inForkJoinPool()) {
+                ForkJoinTask.invokeAll(tiles);
+            } else {
+                final ArrayList<Tile> passTiles = tiles;
+                getPool().invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(passTiles);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @return Every spot we found, row by row.
+     */
+    private int[] collect() {
+        int found = 0;
+        for (long spot : grid) {
+            if (spot >= 0) {
+                found++;
+            }
+        }
+        int[] spots = new int[2 * found];
+        int n = 0;
+        for (long spot : grid) {
+            if (spot >= 0) {
+                spots[n++] = (int)(spot >>> 32);
+                spots[n++] = (int)spot;
+            }
+        }
+        return spots;
+    }
+
+    /**
+     * @return Shared pool for sampling from outside of any ForkJoinPool.
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    /**
+     * One square of the grid, filled on its own.
+     */
+    private class Tile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final int col0, row0, col1, row1;   // Cells we own
+        private final Random random;
+        private int[] active;                       // Cells of spots we can still grow from
+        private int numActive;
+
+        /**
+         * Tile ctor.
+         *
+         * @param tx Tile column.
+         * @param ty Tile row.
+         * @param seed Seed for our Random.
+         */
+        Tile(int tx, int ty, long seed) {
+            col0 = tx * TILE_CELLS;
+            row0 = ty * TILE_CELLS;
+            col1 = Math.min(cols, col0 + TILE_CELLS);
+            row1 = Math.min(rows, row0 + TILE_CELLS);
+            random = new Random(seed);
+            active = new int[64];
+        }
+
+        /**
+         * Throw darts at the tile, and grow outward from every one that
+         * lands, until nothing more fits.
+         */
+        @Override
+        protected void compute() {
+            double x0 = col0 * cellSize, y0 = row0 * cellSize;
+            double spanX = Math.min(width, col1 * cellSize) - x0;
+            double spanY = Math.min(height, row1 * cellSize) - y0;
+            int misses = 0;
+            while (misses < ATTEMPTS) {
+                if (tryAdd((int)(x0 + random.nextDouble() * spanX),
+                           (int)(y0 + random.nextDouble() * spanY))) {
+                    misses = 0;
+                    grow();
+                } else {
+                    misses++;
+                }
+            }
+        }
+
+        /**
+         * Bridson: try spots around random active ones until none are left
+         * with room around them.
+         */
+        private void grow() {
+            while (numActive > 0) {
+                int a = random.nextInt(numActive);
+                int cell = active[a];
+                int px = (int)(grid[cell] >>> 32), py = (int)grid[cell];
+                // Evenly spaced around a circle just past the minimum
+                // distance, from a random start, turning a step at a time.
+                boolean added = false;
+                double start = random.nextDouble() * 2 * Math.PI;
+                double dx = reach * Math.cos(start), dy = reach * Math.sin(start);
+                for (int i = 0; i < AROUND && !added; i++) {
+                    added = tryAdd((int)Math.round(px + dx), (int)Math.round(py + dy));
+                    double turned = dx * STEP_COS - dy * STEP_SIN;
+                    dy = dx * STEP_SIN + dy * STEP_COS;
+                    dx = turned;
+                }
+                if (!added) {
+                    active[a] = active[--numActive];
+                }
+            }
+        }
+
+        /**
+         * Add a spot if it's in our tile and far enough from everything.
+         *
+         * @param x X position.
+         * @param y Y position.
+         * @return Whether it was added.
+         */
+        private boolean tryAdd(int x, int y) {
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                return false;
+            }
+            int col = (int)(x * perCell), row = (int)(y * perCell);
+            if (col < col0 || col >= col1 || row < row0 || row >= row1) {
+                return false;
+            }
+
+            // Anything closer than distance is at most two cells over, not
+            // counting the far corners. Those cells may be in a neighbouring
+            // tile, but never one that's being filled right now.
+            int cell = row * cols + col;
+            if (grid[cell] >= 0) {
+                return false;
+            }
+            double d2 = distance * distance;
+            int r0 = Math.max(0, row - 2), r1 = Math.min(rows - 1, row + 2);
+            int c0 = Math.max(0, col - 2), c1 = Math.min(cols - 1, col + 2);
+            for (int r = r0; r <= r1; r++) {
+                boolean edge = r == row - 2 || r == row + 2;
+                for (int c = c0; c <= c1; c++) {
+                    if (edge && (c == col - 2 || c == col + 2)) {
+                        continue;
+                    }
+                    long spot = grid[r * cols + c];
+                    if (spot >= 0) {
+                        long dx = (int)(spot >>> 32) - x, dy = (int)spot - y;
+                        if (dx * dx + dy * dy < d2) {
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            grid[cell] = (long)x << 32 | y;
+            if (numActive == active.length) {
+                active = Arrays.copyOf(active, active.length * 2);
+            }
+            active[numActive++] = cell;
+            return true;
+        }
+    }
+}
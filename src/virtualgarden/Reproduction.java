@@ -0,0 +1,326 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Every flower that spreads its seeds in a cycle, done together at the end
+ * of the cycle. Each Garden has one.
+ * 
+ * Flowers only say how many seeds they have and how far they spread them.
+ * Then, for all of them at once: pick each flower a mate, mate every seed,
+ * throw every seed, drop the ones that landed outside the garden, and plant
+ * the rest, registering all of their roots with the Collision together.
+ * Each step is a loop over plain arrays. Mating is most of the work, and is
+ * split over a ForkJoinPool when there's enough of it.
+ * 
+ * Nothing a seed does depends on another seed from the same cycle. Seeds
+ * have no roots yet, so they can't land on each other, only on roots that
+ * were already growing.
+ * 
+ * Migrants from other gardens get planted along with the seeds, anywhere
+ * in the garden, as they are.
+ * 
+ * @author Michael Hawthorne
+ */
+class Reproduction {
+    private static final int CHUNK = 4096;          // Chromosomes mated per task
+    private static final int PARALLEL_CHUNKS = 4;   // Fewer chunks than this isn't worth the threads
+    
+    // Seeds are thrown a whole number of radians around the parent, like
+    // they always have been, so there are only seven directions.
+    private static final double[] COS = new double[7];
+    private static final double[] SIN = new double[7];
+    static {
+        for (int i = 0; i < COS.length; i++) {
+            COS[i] = Math.cos(i);
+            SIN[i] = Math.sin(i);
+        }
+    }
+    
+    private static ForkJoinPool pool;               // For when we're not already in one
+    
+    private final Garden garden;
+    
+    // Flowers that spread seeds this cycle
+    private Plant[] parents = new Plant[16];
+    private int[] seedCounts = new int[16];
+    private int[] spreads = new int[16];
+    private int numParents;
+    
+    // Seeds, Chromosomes.COUNT words each where it's chromosomes
+    private Plant[] mates = new Plant[16];
+    private int[] seedParents = new int[64];        // Index into parents
+    private long[] mothers = new long[64 * Plant.Chromosomes.COUNT];
+    private long[] fathers = new long[64 * Plant.Chromosomes.COUNT];
+    private long[] children = new long[64 * Plant.Chromosomes.COUNT];
+    private int[] xs = new int[64];
+    private int[] ys = new int[64];
+    
+    // Migrants to plant this cycle, Chromosomes.COUNT words each
+    private long[] migrants = new long[16 * Plant.Chromosomes.COUNT];
+    private int numMigrants;
+    
+    /**
+     * Reproduction ctor.
+     * 
+     * @param garden The garden the seeds are planted in.
+     */
+    Reproduction(Garden garden) {
+        this.garden = garden;
+    }
+    
+    /**
+     * Spread a flower's seeds at the end of this cycle.
+     * 
+     * @param parent The plant the flower is on.
+     * @param seeds How many seeds.
+     * @param spread How far from the parent they can land.
+     */
+    void add(Plant parent, int seeds, int spread) {
+        if (numParents == parents.length) {
+            parents = Arrays.copyOf(parents, numParents * 2);
+            seedCounts = Arrays.copyOf(seedCounts, numParents * 2);
+            spreads = Arrays.copyOf(spreads, numParents * 2);
+        }
+        parents[numParents] = parent;
+        seedCounts[numParents] = seeds;
+        spreads[numParents] = spread;
+        numParents++;
+    }
+    
+    /**
+     * Plant some migrants at the end of this cycle.
+     * 
+     * @param genomes Their chromosomes, Chromosomes.COUNT words each.
+     */
+    void addMigrants(long[] genomes) {
+        int words = numMigrants * Plant.Chromosomes.COUNT;
+        if (words + genomes.length > migrants.length) {
+            migrants = Arrays.copyOf(migrants, Math.max(words + genomes.length, migrants.length * 2));
+        }
+        System.arraycopy(genomes, 0, migrants, words, genomes.length);
+        numMigrants += genomes.length / Plant.Chromosomes.COUNT;
+    }
+    
+    /**
+     * Plant the migrants another garden's waiting on at the end of this
+     * cycle too, like for a forked garden.
+     * 
+     * @param other The other garden's Reproduction.
+     */
+    void addMigrants(Reproduction other) {
+        addMigrants(Arrays.copyOf(other.migrants, other.numMigrants * Plant.Chromosomes.COUNT));
+    }
+    
+    /**
+     * @return Whether there are migrants waiting to be planted.
+     */
+    boolean hasMigrants() {
+        return numMigrants > 0;
+    }
+    
+    /**
+     * Make and plant every seed spread since the last time, and every
+     * migrant. New plants go in the garden's plantsToAdd, like any other.
+     */
+    void run() {
+        if (numParents == 0 && numMigrants == 0) {
+            return;
+        }
+        GardenEvents.Reproduction event = new GardenEvents.Reproduction();
+        event.begin();
+        Random r = garden.random;
+        
+        // Pick mates. Anybody in the garden will do, even the parent.
+        PlantList plants = garden.plants;
+        if (mates.length < numParents) {
+            mates = new Plant[parents.length];
+        }
+        int numSeeds = 0;
+        for (int p = 0; p < numParents; p++) {
+            mates[p] = plants.get(r.nextInt(plants.size()));
+            numSeeds += seedCounts[p];
+        }
+        
+        // Line up everybody's chromosomes, one seed after another
+        ensureSeeds(numSeeds + numMigrants);
+        int words = numSeeds * Plant.Chromosomes.COUNT;
+        int seed = 0;
+        for (int p = 0; p < numParents; p++) {
+            for (int i = 0; i < seedCounts[p]; i++) {
+                seedParents[seed] = p;
+                parents[p].getChromosomes(mothers, seed * Plant.Chromosomes.COUNT);
+                mates[p].getChromosomes(fathers, seed * Plant.Chromosomes.COUNT);
+                seed++;
+            }
+        }
+        mate(words, r);
+        
+        // Throw them, and keep the ones that land in the garden
+        int width = garden.width, height = garden.height;
+        int kept = 0;
+        for (int s = 0; s < numSeeds; s++) {
+            int p = seedParents[s];
+            int angle = (int)(r.nextFloat() * 2 * Math.PI);
+            int distance = (int)(r.nextFloat() * spreads[p]);
+            int x = parents[p].x + (int)(distance * COS[angle]);
+            int y = parents[p].y + (int)(distance * SIN[angle]);
+            if (x > 0 && x < width && y > 0 && y < height) {
+                xs[kept] = x;
+                ys[kept] = y;
+                if (kept != s) {
+                    System.arraycopy(children, s * Plant.Chromosomes.COUNT, 
+                                     children, kept * Plant.Chromosomes.COUNT, Plant.Chromosomes.COUNT);
+                }
+                kept++;
+            }
+        }
+        
+        // Migrants land anywhere
+        for (int m = 0; m < numMigrants; m++) {
+            xs[kept] = 1 + r.nextInt(width - 1);
+            ys[kept] = 1 + r.nextInt(height - 1);
+            System.arraycopy(migrants, m * Plant.Chromosomes.COUNT, 
+                             children, kept * Plant.Chromosomes.COUNT, Plant.Chromosomes.COUNT);
+            kept++;
+        }
+        
+        // Plant them all, then check them all against the roots already
+        // there
+        ArrayList<Plant> planted = new ArrayList<Plant>(kept);
+        ArrayList<PlantPartRoots> roots = new ArrayList<PlantPartRoots>(kept);
+        for (int s = 0; s < kept; s++) {
+            Plant p = garden.newPlant(xs[s], ys[s], children, s * Plant.Chromosomes.COUNT);
+            planted.add(p);
+            roots.add(p.roots);
+        }
+        Collision collision = garden.collision;
+        collision.registerAll(roots);
+        int stillborn = 0;
+        for (Plant p : planted) {
+            try {
+                if (p.roots.check(collision, garden.horizon)) {
+                    p.die();
+                    stillborn++;
+                }
+            } catch (Collision.ColliderNotPopulatedException e) {
+                System.err.println("You forgot to populate the collider\n"
+                                   + e.toString());
+            }
+        }
+        for (Plant p : planted) {
+            garden.plantsToAdd.add(p);
+        }
+        garden.immigrants += numMigrants;
+        
+        if (event.shouldCommit()) {
+            event.tick = garden.ticks;
+            event.parents = numParents;
+            event.seeds = numSeeds;
+            event.migrants = numMigrants;
+            event.planted = kept;
+            event.stillborn = stillborn;
+            event.commit();
+        }
+        Arrays.fill(parents, 0, numParents, null);
+        Arrays.fill(mates, 0, numParents, null);
+        numParents = 0;
+        numMigrants = 0;
+    }
+    
+    /**
+     * Mate every lined up chromosome into children. Each chunk has its own
+     * Random, seeded from ours, so the children are the same however many
+     * threads there are.
+     * 
+     * @param words How many chromosomes there are.
+     * @param r Source of randomness.
+     */
+    private void mate(int words, Random r) {
+        final float crossoverRate = garden.crossoverRate;
+        final float mutationRate = garden.mutationRate;
+        int numChunks = (words + CHUNK - 1) / CHUNK;
+        ArrayList<RecursiveAction> chunks = new ArrayList<RecursiveAction>(numChunks);
+        for (int c = 0; c < numChunks; c++) {
+            final int from = c * CHUNK, to = Math.min(words, from + CHUNK);
+            final Random chunkRandom = new Random(r.nextLong());
+            chunks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    Plant.Chromosomes.mateAll(mothers, fathers, children, from, to,
+                                              chunkRandom, crossoverRate, mutationRate);
+                }
+            });
+        }
+        if (numChunks < PARALLEL_CHUNKS) {
+            for (RecursiveAction chunk : chunks) {
+                chunk.invoke();
+            }
+        } else if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(chunks);
+        } else {
+            final ArrayList<RecursiveAction> all = chunks;
+            getPool().invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(all);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Make sure there's room for a number of seeds.
+     * 
+     * @param numSeeds Seeds this cycle.
+     */
+    private void ensureSeeds(int numSeeds) {
+        if (seedParents.length < numSeeds) {
+            int size = Math.max(numSeeds, seedParents.length * 2);
+            seedParents = new int[size];
+            xs = new int[size];
+            ys = new int[size];
+            mothers = new long[size * Plant.Chromosomes.COUNT];
+            fathers = new long[size * Plant.Chromosomes.COUNT];
+            children = new long[size * Plant.Chromosomes.COUNT];
+        }
+    }
+    
+    /**
+     * @return Shared pool for mating from outside of any ForkJoinPool.
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A background image with the dirt and every root that has stopped growing.
+ * Roots that collide never change again, so we draw them into here once
+ * instead of every frame. When their plant dies we paint over them and redraw
+ * whatever roots they were overlapping.
+ *
+ * The simulation queues up changes from its own thread. The image itself is
+ * only touched by whoever draws, in flush.
+ *
+ * Roots are known by their plant's id, since the garden copies a plant
+ * before changing it once it's been forked, and the copy is the same roots.
+ *
+ * @author Michael Hawthorne
+ */
+public class RootLayer implements Drawer.Drawable {
+    private static final int CELL_SIZE = 64;    // Size of the lookup grid cells
+    private static final long MAX_PIXELS = 1 << 24;   // Biggest image we'll keep
+
+    private final BufferedImage image;
+    private final int cols, rows;
+    private final ArrayList<PlantPartRoots>[] cells;   // Baked roots by area
+    private final BitSet baked;                 // Ids of the roots we've drawn
+
+    // Pending changes, in the order they were queued. Roots can be queued
+    // to bake more than once, like when the layer is new, so each says
+    // which it is.
+    private final ConcurrentLinkedQueue<Change> pending;
+
+    /**
+     * RootLayer ctor.
+     *
+     * @param width Width of the garden.
+     * @param height Height of the garden.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RootLayer(int width, int height) {
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.getGraphics();
+        g.setColor(VirtualGarden.BACKGROUND);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+
+        cols = (width + CELL_SIZE - 1) / CELL_SIZE;
+        rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        cells = new ArrayList[cols * rows];
+        baked = new BitSet();
+        pending = new ConcurrentLinkedQueue<Change>();
+    }
+
+    /**
+     * Whether a garden is small enough to have a layer. The layer is an
+     * image of the whole garden, which a big garden can't afford.
+     *
+     * @param width Width of the garden.
+     * @param height Height of the garden.
+     * @return Whether to make a layer for it.
+     */
+    public static boolean fits(int width, int height) {
+        return (long)width * height <= MAX_PIXELS;
+    }
+
+    /**
+     * Queue roots that have stopped growing to be drawn into the layer.
+     * Does nothing if they're baked already.
+     *
+     * @param roots Roots that won't change anymore.
+     */
+    public void bake(PlantPartRoots roots) {
+        pending.add(new Change(roots, true));
+    }
+
+    /**
+     * Queue roots to be removed from the layer. Does nothing if they
+     * were never baked.
+     *
+     * @param roots Roots of a dead plant.
+     */
+    public void erase(PlantPartRoots roots) {
+        pending.add(new Change(roots, false));
+    }
+
+    /**
+     * Apply queued changes to the image. Call from the drawing thread before
+     * asking roots whether they're baked.
+     */
+    public void flush() {
+        Change c;
+        Graphics2D g = null;
+        while ((c = pending.poll()) != null) {
+            PlantPartRoots roots = c.roots;
+            if (c.bake == baked.get(roots.getId())) {
+                continue;
+            }
+            if (g == null) {
+                g = image.createGraphics();
+            }
+            if (c.bake) {
+                roots.draw(g);
+                baked.set(roots.getId());
+                forEachCell(roots.getBounds(), roots, true);
+            } else {
+                eraseBaked(g, roots);
+            }
+        }
+        if (g != null) {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Whether some roots are drawn into the layer, so they shouldn't draw
+     * themselves. Only up to date after flush.
+     *
+     * @param roots Roots to ask about.
+     * @return Whether they're baked.
+     */
+    public boolean isBaked(PlantPartRoots roots) {
+        return baked.get(roots.getId());
+    }
+
+    /**
+     * Paint the dirt back over some roots, then redraw any baked roots that
+     * shared that area.
+     *
+     * @param g Graphics for our image.
+     * @param roots Roots to erase.
+     */
+    private void eraseBaked(Graphics2D g, PlantPartRoots roots) {
+        Rectangle bounds = roots.getBounds();
+        forEachCell(bounds, roots, false);
+        baked.clear(roots.getId());
+
+        g.setClip(bounds);
+        g.setColor(VirtualGarden.BACKGROUND);
+        g.fill(bounds);
+        ArrayList<PlantPartRoots> redrawn = new ArrayList<PlantPartRoots>();
+        for (int i = cellIndex(bounds.x, cols); i <= cellIndex(bounds.x + bounds.width, cols); i++) {
+            for (int j = cellIndex(bounds.y, rows); j <= cellIndex(bounds.y + bounds.height, rows); j++) {
+                ArrayList<PlantPartRoots> cell = cells[j * cols + i];
+                if (cell == null) {
+                    continue;
+                }
+                for (PlantPartRoots other : cell) {
+                    if (!redrawn.contains(other) && bounds.intersects(other.getBounds())) {
+                        other.draw(g);
+                        redrawn.add(other);
+                    }
+                }
+            }
+        }
+        g.setClip(null);
+    }
+
+    /**
+     * Add or remove roots from every grid cell its bounds touch.
+     *
+     * @param bounds Bounds of the roots.
+     * @param roots The roots.
+     * @param add Add if true, remove if false.
+     */
+    private void forEachCell(Rectangle bounds, PlantPartRoots roots, boolean add) {
+        for (int i = cellIndex(bounds.x, cols); i <= cellIndex(bounds.x + bounds.width, cols); i++) {
+            for (int j = cellIndex(bounds.y, rows); j <= cellIndex(bounds.y + bounds.height, rows); j++) {
+                int index = j * cols + i;
+                if (add) {
+                    if (cells[index] == null) {
+                        cells[index] = new ArrayList<PlantPartRoots>();
+                    }
+                    cells[index].add(roots);
+                } else if (cells[index] != null) {
+                    ArrayList<PlantPartRoots> cell = cells[index];
+                    for (int k = 0; k < cell.size(); k++) {
+                        if (cell.get(k).getId() == roots.getId()) {
+                            cell.remove(k);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Which grid cell a coordinate falls in, clamped to the grid.
+     *
+     * @param coord X or Y coordinate.
+     * @param count Number of cells along that axis.
+     * @return Cell index along that axis.
+     */
+    private static int cellIndex(int coord, int count) {
+        return Math.max(0, Math.min(count - 1, coord / CELL_SIZE));
+    }
+
+    /**
+     * Draw the layer.
+     *
+     * @param g Graphics object.
+     */
+    @Override
+    public void draw(Graphics g) {
+        g.drawImage(image, 0, 0, null);
+    }
+
+    /**
+     * Get the area the layer covers. That's the whole garden.
+     *
+     * @return Bounding box of the garden.
+     */
+    @Override
+    public Rectangle getBounds() {
+        return new Rectangle(0, 0, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Roots to bake or erase.
+     */
+    private static class Change {
+        final PlantPartRoots roots;
+        final boolean bake;     // Bake if true, erase if false
+
+        /**
+         * Change ctor.
+         *
+         * @param roots The roots.
+         * @param bake Whether to bake them or erase them.
+         */
+        Change(PlantPartRoots roots, boolean bake) {
+            this.roots = roots;
+            this.bake = bake;
+        }
+    }
+}
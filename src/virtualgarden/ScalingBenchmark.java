@@ -0,0 +1,443 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Times whole ticks of headless gardens of different sizes, phase by phase,
+ * to see how each phase scales with the number of plants.
+ *
+ * Every garden has the same density as the window's 65 seeds, so a bigger
+ * garden is just more of the same. Each garden is grown until flowers are
+ * spreading seeds before timing starts, in bigger steps than the window's to
+ * get there sooner, and the whole run starts with a small garden to get the
+ * JIT going. After each timed tick the middle of the garden is drawn into a
+ * window-sized image through a Viewport, for the draw phase, so drawing
+ * should cost the same at every size. Gardens this big don't get a
+ * RootLayer, so roots are drawn like everything else.
+ *
+ * For each phase we report the median time per tick, and fit
+ * time = a * plants ^ exponent through the sizes. 1 means the phase scales
+ * linearly with the plants.
+ *
+ * Results are written as a properties file, which can be handed back later
+ * with --baseline. Any phase that got slower by more than the threshold, or
+ * whose exponent went up by more than the exponent threshold, is reported
+ * and the exit status is 2.
+ *
+ * Options:
+ *   --sizes A,B,...            Plant counts. Default 1000,10000,100000,1000000.
+ *   --warmup T                 Garden time grown before timing each garden.
+ *                              Default 1, about a thousand window ticks.
+ *   --ticks N                  Ticks timed for each garden. Default 20.
+ *   --repeats N                Gardens per size; the median is kept. Default 3.
+ *   --random-seed N            Base seed. Default 1.
+ *   --out FILE                 Where to write the results. Default stdout.
+ *   --baseline FILE            Earlier results to compare against.
+ *   --threshold F              Allowed slowdown per phase. Default 0.25, 25%.
+ *   --exponent-threshold F     Allowed rise in an exponent. Default 0.15.
+ *   --off-heap                 Keep chromosomes in a GenomeStore.
+ *   --min-ns N                 Ignore phases faster than this per tick in
+ *                              both runs, since they're mostly noise. Their
+ *                              exponents too, if they're that fast at
+ *                              every size. Default 20000.
+ *
+ * @author Michael Hawthorne
+ */
+public class ScalingBenchmark {
+    private static final double AREA_PER_PLANT = 1900.0 * 900 / 65;    // The window's density
+    private static final float TICK = 0.001f;                           // Same step as the window
+    private static final float WARMUP_STEP = 0.01f;
+    private static final int VIEW_WIDTH = 1900, VIEW_HEIGHT = 900;
+    private static final int JIT_PLANTS = 2000;
+    private static final int JIT_ROUNDS = 3;
+    private static final String TOTAL = "tick";     // Whole grow calls, drawing not included
+
+    /**
+     * Median times for one size.
+     */
+    private static class Result {
+        int plants;
+        double meanPopulation;
+        double[] nsPerTick = new double[PhaseTimes.NAMES.length];
+        double totalNsPerTick;
+    }
+
+    /**
+     * One timed garden.
+     */
+    private static class Run {
+        double meanPopulation;
+        double[] nsPerTick = new double[PhaseTimes.NAMES.length];
+        double totalNsPerTick;
+    }
+
+    /**
+     * Grow one garden and time it.
+     *
+     * @param plants Seeds to start with.
+     * @param seed Random seed.
+     * @param warmup Garden time before timing.
+     * @param ticks Ticks to time.
+     * @param offHeap Whether to keep chromosomes in a GenomeStore.
+     * @return Time per tick in each phase.
+     */
+    private static Run measure(int plants, long seed, double warmup, int ticks, boolean offHeap) {
+        int side = (int)Math.round(Math.sqrt(plants * AREA_PER_PLANT));
+        Garden garden = new Garden(side, side, plants, new Random(seed),
+                                   offHeap ? GenomeStore.allocate(plants) : null);
+        garden.advance(warmup, WARMUP_STEP);
+
+        // Look at the middle of the garden through a window-sized view
+        BufferedImage view = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = view.createGraphics();
+        Viewport viewport = new Viewport(side, side, VIEW_WIDTH, VIEW_HEIGHT);
+        viewport.centerOn(side / 2.0, side / 2.0);
+        Drawer drawer = new Drawer();
+
+        PhaseTimes times = new PhaseTimes();
+        garden.phaseTimes = times;
+        long population = 0;
+        long total = 0;
+        for (int i = 0; i < ticks; i++) {
+            long start = System.nanoTime();
+            garden.grow(TICK);
+            long grown = System.nanoTime();
+            total += grown - start;
+
+            garden.draw(g, drawer, viewport);
+            times.add(PhaseTimes.DRAW, System.nanoTime() - grown);
+            population += garden.getPopulation();
+        }
+        g.dispose();
+
+        Run run = new Run();
+        run.meanPopulation = (double)population / ticks;
+        for (int phase = 0; phase < PhaseTimes.NAMES.length; phase++) {
+            run.nsPerTick[phase] = (double)times.nanos[phase] / ticks;
+        }
+        run.totalNsPerTick = (double)total / ticks;
+        return run;
+    }
+
+    /**
+     * Main function.
+     *
+     * @param args See the class comment.
+     * @throws IOException If the results or baseline can't be written or read.
+     */
+    public static void main(String[] args) throws IOException {
+        int[] sizes = { 1000, 10000, 100000, 1000000 };
+        double warmup = 1;
+        int ticks = 20;
+        int repeats = 3;
+        long randomSeed = 1;
+        String out = null;
+        String baseline = null;
+        double threshold = 0.25;
+        double exponentThreshold = 0.15;
+        double minNs = 20000;
+        boolean offHeap = false;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--sizes")) {
+                String[] parts = args[++i].split(",");
+                sizes = new int[parts.length];
+                for (int j = 0; j < parts.length; j++) {
+                    sizes[j] = Integer.parseInt(parts[j].trim());
+                }
+            } else if (args[i].equals("--warmup")) {
+                warmup = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--ticks")) {
+                ticks = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--repeats")) {
+                repeats = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--random-seed")) {
+                randomSeed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--out")) {
+                out = args[++i];
+            } else if (args[i].equals("--baseline")) {
+                baseline = args[++i];
+            } else if (args[i].equals("--threshold")) {
+                threshold = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--exponent-threshold")) {
+                exponentThreshold = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--off-heap")) {
+                offHeap = true;
+            } else if (args[i].equals("--min-ns")) {
+                minNs = Double.parseDouble(args[++i]);
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        // Give the JIT something to chew on before anything counts
+        for (int i = 0; i < JIT_ROUNDS; i++) {
+            measure(JIT_PLANTS, randomSeed - 1 - i, warmup, ticks, offHeap);
+        }
+
+        ArrayList<Result> results = new ArrayList<Result>();
+        for (int size : sizes) {
+            Run[] runs = new Run[repeats];
+            for (int r = 0; r < repeats; r++) {
+                runs[r] = measure(size, randomSeed + r, warmup, ticks, offHeap);
+            }
+            Result result = new Result();
+            result.plants = size;
+            double[] values = new double[repeats];
+            for (int phase = 0; phase < PhaseTimes.NAMES.length; phase++) {
+                for (int r = 0; r < repeats; r++) {
+                    values[r] = runs[r].nsPerTick[phase];
+                }
+                result.nsPerTick[phase] = median(values);
+            }
+            for (int r = 0; r < repeats; r++) {
+                values[r] = runs[r].totalNsPerTick;
+            }
+            result.totalNsPerTick = median(values);
+            for (int r = 0; r < repeats; r++) {
+                values[r] = runs[r].meanPopulation;
+            }
+            result.meanPopulation = median(values);
+            results.add(result);
+
+            System.err.println(String.format("%,9d plants: %s", size, summarize(result)));
+        }
+
+        Properties current = toProperties(results, warmup, ticks, repeats);
+        Writer w = out == null ? new OutputStreamWriter(System.out) : new FileWriter(out);
+        PrintWriter pw = new PrintWriter(w);
+        pw.println("# ScalingBenchmark results. Times are nanoseconds per tick.");
+        for (String key : sortedKeys(current)) {
+            pw.println(key + "=" + current.getProperty(key));
+        }
+        pw.flush();
+        if (out != null) {
+            pw.close();
+        }
+
+        if (baseline != null) {
+            Properties base = new Properties();
+            InputStream in = new FileInputStream(baseline);
+            try {
+                base.load(in);
+            } finally {
+                in.close();
+            }
+            if (!compare(base, current, threshold, exponentThreshold, minNs)) {
+                System.exit(2);
+            }
+        }
+    }
+
+    /**
+     * @param result A size's results.
+     * @return One line about it, for people.
+     */
+    private static String summarize(Result result) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s %.3f ms", TOTAL, result.totalNsPerTick / 1e6));
+        for (int phase = 0; phase < PhaseTimes.NAMES.length; phase++) {
+            sb.append(String.format(", %s %.3f ms", PhaseTimes.NAMES[phase],
+                                    result.nsPerTick[phase] / 1e6));
+        }
+        sb.append(String.format(" (population %.0f)", result.meanPopulation));
+        return sb.toString();
+    }
+
+    /**
+     * Put results, and the exponents fit through them, in a Properties.
+     * Keys are phase.plants and phase.exponent.
+     *
+     * @param results Results, one per size.
+     * @param warmup Warm-up time used.
+     * @param ticks Timed ticks used.
+     * @param repeats Gardens per size used.
+     * @return The Properties.
+     */
+    private static Properties toProperties(ArrayList<Result> results, double warmup, int ticks,
+                                           int repeats) {
+        Properties p = new Properties();
+        StringBuilder sizes = new StringBuilder();
+        for (Result r : results) {
+            sizes.append(sizes.length() == 0 ? "" : ",").append(r.plants);
+        }
+        p.setProperty("sizes", sizes.toString());
+        p.setProperty("warmup", Double.toString(warmup));
+        p.setProperty("ticks", Integer.toString(ticks));
+        p.setProperty("repeats", Integer.toString(repeats));
+
+        double[] plants = new double[results.size()];
+        double[] nanos = new double[results.size()];
+        for (int phase = -1; phase < PhaseTimes.NAMES.length; phase++) {
+            String name = phase < 0 ? TOTAL : PhaseTimes.NAMES[phase];
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                plants[i] = r.plants;
+                nanos[i] = phase < 0 ? r.totalNsPerTick : r.nsPerTick[phase];
+                p.setProperty(name + "." + r.plants, String.format(Locale.ROOT, "%.0f", nanos[i]));
+            }
+            double exponent = fitExponent(plants, nanos);
+            if (!Double.isNaN(exponent)) {
+                p.setProperty(name + ".exponent", String.format(Locale.ROOT, "%.3f", exponent));
+            }
+        }
+        for (Result r : results) {
+            p.setProperty("population." + r.plants, String.format(Locale.ROOT, "%.0f", r.meanPopulation));
+        }
+        return p;
+    }
+
+    /**
+     * Fit y = a * x ^ b by least squares on log y = log a + b log x.
+     *
+     * @param x Sizes.
+     * @param y Times.
+     * @return b, or NaN if there aren't two usable points.
+     */
+    static double fitExponent(double[] x, double[] y) {
+        int n = 0;
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = 0; i < x.length; i++) {
+            if (x[i] <= 0 || y[i] <= 0) {
+                continue;
+            }
+            double lx = Math.log(x[i]), ly = Math.log(y[i]);
+            n++;
+            sx += lx;
+            sy += ly;
+            sxx += lx * lx;
+            sxy += lx * ly;
+        }
+        double denominator = n * sxx - sx * sx;
+        if (n < 2 || denominator == 0) {
+            return Double.NaN;
+        }
+        return (n * sxy - sx * sy) / denominator;
+    }
+
+    /**
+     * Compare results against a baseline and say what got worse.
+     *
+     * @param base Baseline results.
+     * @param current These results.
+     * @param threshold Allowed slowdown, as a fraction.
+     * @param exponentThreshold Allowed rise in an exponent.
+     * @param minNs Times below this in both are ignored, and so are the
+     *              exponents of phases that are below it at every size.
+     * @return Whether everything is within the thresholds.
+     */
+    private static boolean compare(Properties base, Properties current, double threshold,
+                                   double exponentThreshold, double minNs) {
+        // Exponents fit through different sizes can't be compared
+        boolean sameSizes = current.getProperty("sizes").equals(base.getProperty("sizes"));
+        boolean ok = true;
+        for (String key : sortedKeys(current)) {
+            String phase = key.substring(0, Math.max(0, key.indexOf('.')));
+            if (!isPhase(phase) || base.getProperty(key) == null
+                    || (key.endsWith(".exponent") && !sameSizes)) {
+                continue;
+            }
+            double was = Double.parseDouble(base.getProperty(key));
+            double now = Double.parseDouble(current.getProperty(key));
+            String verdict;
+            if (key.endsWith(".exponent")) {
+                // Fitting through times that are all noise gives noise
+                boolean worse = now - was > exponentThreshold
+                        && !(isBelow(base, phase, minNs) && isBelow(current, phase, minNs));
+                verdict = String.format("%-24s %8.3f -> %8.3f%s", key, was, now,
+                                        worse ? "  REGRESSION" : "");
+                ok &= !worse;
+            } else {
+                double change = was > 0 ? now / was - 1 : 0;
+                boolean worse = change > threshold && Math.max(was, now) >= minNs;
+                verdict = String.format("%-24s %8.3f -> %8.3f ms (%+.0f%%)%s", key, was / 1e6,
+                                        now / 1e6, change * 100, worse ? "  REGRESSION" : "");
+                ok &= !worse;
+            }
+            System.err.println(verdict);
+        }
+        System.err.println(ok ? "No regressions" : "Regressions found");
+        return ok;
+    }
+
+    /**
+     * @param p Results.
+     * @param phase A phase.
+     * @param minNs A time per tick.
+     * @return Whether the phase took less than that at every size.
+     */
+    private static boolean isBelow(Properties p, String phase, double minNs) {
+        for (String size : p.getProperty("sizes").split(",")) {
+            String time = p.getProperty(phase + "." + size);
+            if (time != null && Double.parseDouble(time) >= minNs) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param name A key's prefix.
+     * @return Whether it's one of the things we time.
+     */
+    private static boolean isPhase(String name) {
+        return name.equals(TOTAL) || Arrays.asList(PhaseTimes.NAMES).contains(name);
+    }
+
+    /**
+     * @param p Properties.
+     * @return Its keys, sorted so related keys end up together.
+     */
+    private static ArrayList<String> sortedKeys(Properties p) {
+        ArrayList<String> keys = new ArrayList<String>(p.stringPropertyNames());
+        java.util.Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * @param values Some numbers. Reordered.
+     * @return Their median.
+     */
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        int mid = values.length / 2;
+        return values.length % 2 == 1 ? values[mid] : (values[mid - 1] + values[mid]) / 2;
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The nutrients in a garden's soil. Each Garden has one.
+ * 
+ * The garden is split into square cells, each holding from 0 to 1 of
+ * nutrients. Roots drain the cells they cover, harder the deeper they go,
+ * and every cell slowly fills back up and shares with its neighbours, so a
+ * crowded patch of soil runs thin and recovers from the edges.
+ * 
+ * Roots add their depth to the cells they cover only when they change, like
+ * canopies in the LightField. The nutrients themselves are updated every
+ * INTERVAL of garden time, not every cycle, by a five point stencil from one
+ * grid into the other. The grid is done in square tiles that fit in cache,
+ * spread over a ForkJoinPool when there are enough of them. Tiles only read
+ * the old grid and only write their own part of the new one, so they don't
+ * need to wait on each other.
+ * 
+ * A forked garden shares its soil with the original. Demand is kept in
+ * CopyOnWriteInts, and the nutrients are never written in place anyway, so
+ * both just stop writing into the grid they share and get a grid of their
+ * own at their next update.
+ * 
+ * @author Michael Hawthorne
+ */
+class SoilField {
+    private static final int MIN_CELL_SIZE = 16;    // Pixels
+    private static final int MAX_CELLS = 1 << 22;   // Big gardens get bigger cells
+    private static final int TILE_CELLS = 64;       // Tile size, in cells
+    private static final int PARALLEL_TILES = 16;   // Fewer tiles than this isn't worth the threads
+    static final float INTERVAL = 0.05f;            // Garden time between updates
+    
+    // Rates, per unit of garden time
+    private static final float DIFFUSION = 4;       // Share with each neighbour
+    private static final float REGROWTH = 0.5f;     // Fill back toward 1
+    private static final float UPTAKE = 0.1f;       // Drained per point of root depth
+    private static final float MAX_DIFFUSION = 0.2f;    // Per step. More isn't stable
+    private static final float MAX_CATCH_UP = 20;   // Longest update. The soil has long
+                                                    // settled by then
+    
+    private static ForkJoinPool pool;               // For when we're not already in one
+    
+    private final int cellSize, cols, rows;
+    private float[] nutrients;                      // What roots see
+    private float[] next;                           // Written by the next update. Null
+                                                    // until then in a fork
+    private boolean shared;                         // Nutrients shared with a fork
+    private final CopyOnWriteInts demand;           // Root depth in each cell
+    private final ArrayList<Tile> tiles;
+    private float elapsed;                          // Time since the last update
+    private int version;                            // Updates so far
+    
+    // The step the tiles are doing
+    private float diffusion, regrowth, uptake;
+    
+    /**
+     * SoilField ctor. The soil starts out full.
+     * 
+     * @param width Width of the garden. Roots outside it share the edge
+     *              cells.
+     * @param height Height of the garden.
+     */
+    SoilField(int width, int height) {
+        long area = (long)Math.max(1, width) * Math.max(1, height);
+        cellSize = Math.max(MIN_CELL_SIZE, (int)Math.ceil(Math.sqrt((double)area / MAX_CELLS)));
+        cols = Math.max(1, (width + cellSize - 1) / cellSize);
+        rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        nutrients = new float[cols * rows];
+        next = new float[cols * rows];
+        demand = new CopyOnWriteInts(cols * rows);
+        Arrays.fill(nutrients, 1);
+        tiles = makeTiles();
+    }
+    
+    /**
+     * Copy ctor, sharing the nutrients and demand with the original.
+     * 
+     * @param from What to copy.
+     */
+    private SoilField(SoilField from) {
+        cellSize = from.cellSize;
+        cols = from.cols;
+        rows = from.rows;
+        nutrients = from.nutrients;
+        shared = true;
+        demand = from.demand.fork();
+        tiles = makeTiles();
+        elapsed = from.elapsed;
+        version = from.version;
+    }
+    
+    /**
+     * Fork the soil, for a forked garden. Neither changes the other's soil
+     * afterwards.
+     * 
+     * @return The fork.
+     */
+    SoilField fork() {
+        shared = true;
+        return new SoilField(this);
+    }
+    
+    /**
+     * @return A Tile for every square of the grid.
+     */
+    private ArrayList<Tile> makeTiles() {
+        ArrayList<Tile> t = new ArrayList<Tile>();
+        for (int row = 0; row < rows; row += TILE_CELLS) {
+            for (int col = 0; col < cols; col += TILE_CELLS) {
+                t.add(new Tile(col, row));
+            }
+        }
+        return t;
+    }
+    
+    /**
+     * Let time pass. Updates the nutrients once a whole INTERVAL has gone
+     * by.
+     * 
+     * @param amt Amount of time.
+     */
+    void advance(float amt) {
+        elapsed += amt;
+        if (elapsed >= INTERVAL) {
+            update(elapsed);
+            elapsed = 0;
+        }
+    }
+    
+    /**
+     * Drain, diffuse and refill the nutrients, in as many steps as it takes
+     * to stay stable.
+     * 
+     * @param dt Time since the last update. Past MAX_CATCH_UP the soil
+     *           has settled, so it's only updated that long.
+     */
+    private void update(float dt) {
+        dt = Math.min(dt, MAX_CATCH_UP);
+        int steps = Math.max(1, (int)Math.ceil(DIFFUSION * dt / MAX_DIFFUSION));
+        float step = dt / steps;
+        diffusion = DIFFUSION * step;
+        regrowth = REGROWTH * step;
+        uptake = UPTAKE * step;
+        if (next == null) {
+            next = new float[cols * rows];
+        }
+        for (int i = 0; i < steps; i++) {
+            if (tiles.size() < PARALLEL_TILES) {
+                for (Tile t : tiles) {
+                    t.compute();
+                }
+            } else {
+                for (Tile t : tiles) {
+                    t.reinitialize();
+                }
+                if (ForkJoinTask.inForkJoinPool()) {
+                    ForkJoinTask.invokeAll(tiles);
+                } else {
+                    getPool().invoke(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            invokeAll(tiles);
+                        }
+                    });
+                }
+            }
+            // A fork may still be reading the old grid, so don't write
+            // over it next time
+            float[] swap = nutrients;
+            nutrients = next;
+            next = shared ? new float[cols * rows] : swap;
+            shared = false;
+        }
+        version++;
+    }
+    
+    /**
+     * @return Number of updates so far. Nutrients only change when this
+     *         does.
+     */
+    int getVersion() {
+        return version;
+    }
+    
+    /**
+     * Move roots from one size to another. Either can have no depth, for
+     * roots that are only appearing or going away.
+     * 
+     * @param x X position of the roots' middle.
+     * @param y Y position of the roots' middle.
+     * @param oldRadius Radius they were added with.
+     * @param oldDepth Depth they were added with.
+     * @param newRadius Radius they have now.
+     * @param newDepth Depth they have now.
+     */
+    void move(int x, int y, int oldRadius, int oldDepth, int newRadius, int newDepth) {
+        if (oldDepth != 0) {
+            stamp(x, y, oldRadius, -oldDepth);
+        }
+        if (newDepth != 0) {
+            stamp(x, y, newRadius, newDepth);
+        }
+    }
+    
+    /**
+     * How much there is for roots to take.
+     * 
+     * @param x X position of the roots' middle.
+     * @param y Y position of the roots' middle.
+     * @param radius Radius of the roots.
+     * @return Nutrients, averaged over the cells the roots cover. From 0
+     *         to 1.
+     */
+    float supply(int x, int y, int radius) {
+        int midCol = col(x), midRow = row(y);
+        int col0 = col(x - radius), col1 = col(x + radius);
+        int row0 = row(y - radius), row1 = row(y + radius);
+        long r2 = (long)radius * radius;
+        float total = 0;
+        int cells = 0;
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                if (covers(x, y, r2, col, row, midCol, midRow)) {
+                    total += nutrients[row * cols + col];
+                    cells++;
+                }
+            }
+        }
+        return total / cells;
+    }
+    
+    /**
+     * Add depth to every cell some roots cover.
+     * 
+     * @param x X position of the roots' middle.
+     * @param y Y position of the roots' middle.
+     * @param radius Radius of the roots.
+     * @param depth Depth to add. Negative to take it back.
+     */
+    private void stamp(int x, int y, int radius, int depth) {
+        int midCol = col(x), midRow = row(y);
+        int col0 = col(x - radius), col1 = col(x + radius);
+        int row0 = row(y - radius), row1 = row(y + radius);
+        long r2 = (long)radius * radius;
+        for (int row = row0; row <= row1; row++) {
+            for (int col = col0; col <= col1; col++) {
+                if (covers(x, y, r2, col, row, midCol, midRow)) {
+                    demand.add(row * cols + col, depth);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Whether roots cover a cell: the middle of the cell is inside them, or
+     * their middle is in the cell.
+     * 
+     * @param x X position of the roots' middle.
+     * @param y Y position of the roots' middle.
+     * @param r2 Radius of the roots, squared.
+     * @param col Cell column.
+     * @param row Cell row.
+     * @param midCol Column of the roots' middle.
+     * @param midRow Row of the roots' middle.
+     * @return Whether it's covered.
+     */
+    private boolean covers(int x, int y, long r2, int col, int row, int midCol, int midRow) {
+        if (col == midCol && row == midRow) {
+            return true;
+        }
+        long dx = col * cellSize + cellSize / 2 - x;
+        long dy = row * cellSize + cellSize / 2 - y;
+        return dx * dx + dy * dy <= r2;
+    }
+    
+    /**
+     * @param x X position.
+     * @return Cell column, clamped to the grid.
+     */
+    private int col(int x) {
+        return Math.max(0, Math.min(cols - 1, Math.floorDiv(x, cellSize)));
+    }
+    
+    /**
+     * @param y Y position.
+     * @return Cell row, clamped to the grid.
+     */
+    private int row(int y) {
+        return Math.max(0, Math.min(rows - 1, Math.floorDiv(y, cellSize)));
+    }
+    
+    /**
+     * @return Shared pool for updating from outside of any ForkJoinPool.
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+    
+    /**
+     * One square of the grid, updated on its own.
+     */
+    private class Tile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final int col0, row0, col1, row1;   // Cells we write
+        
+        /**
+         * Tile ctor.
+         * 
+         * @param col0 First column.
+         * @param row0 First row.
+         */
+        Tile(int col0, int row0) {
+            this.col0 = col0;
+            this.row0 = row0;
+            col1 = Math.min(cols, col0 + TILE_CELLS);
+            row1 = Math.min(rows, row0 + TILE_CELLS);
+        }
+        
+        /**
+         * One step for each of our cells. Nothing flows over the edges of
+         * the garden.
+         */
+        @Override
+        protected void compute() {
+            // The garden's left and right edges get done on their own, so
+            // the cells in between don't have to check
+            int first = Math.max(col0, 1), last = Math.min(col1, cols - 1);
+            for (int row = row0; row < row1; row++) {
+                int up = row > 0 ? -cols : 0;
+                int down = row < rows - 1 ? cols : 0;
+                int i = row * cols;
+                if (col0 == 0) {
+                    cell(i, up, down, 0, cols > 1 ? 1 : 0);
+                }
+                for (int col = first; col < last; col++) {
+                    cell(i + col, up, down, -1, 1);
+                }
+                if (col1 == cols && cols > 1) {
+                    cell(i + cols - 1, up, down, -1, 0);
+                }
+            }
+        }
+        
+        /**
+         * Update one cell. A neighbour offset of 0 stands for a neighbour
+         * off the edge, which just has what we have.
+         * 
+         * @param i The cell.
+         * @param up Offset of the cell above.
+         * @param down Offset of the cell below.
+         * @param left Offset of the cell to the left.
+         * @param right Offset of the cell to the right.
+         */
+        private void cell(int i, int up, int down, int left, int right) {
+            float[] from = nutrients;
+            float c = from[i];
+            float v = c + diffusion * (from[i + left] + from[i + right] + from[i + up]
+                                       + from[i + down] - 4 * c)
+                      + regrowth * (1 - c) - c * Math.min(1, uptake * demand.get(i));
+            next[i] = v < 0 ? 0 : v > 1 ? 1 : v;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.util.Arrays;
+
+/**
+ * Groups the garden's plants into species: plants whose chromosomes are only
+ * a few bits apart. Each Garden keeps one up to date as plants are born and
+ * die, so how many species there are is always on hand.
+ * 
+ * Finding everybody within r bits of a genome without comparing it to every
+ * plant uses multi-index hashing. The 320 bits of a plant's chromosomes are
+ * cut into r + 1 blocks, and each block has a hash table of the plants that
+ * have each value there. Two genomes at most r bits apart can't differ in
+ * every one of r + 1 blocks, so they share at least one block exactly, and
+ * only plants in the same bucket as one of the query's blocks need to be
+ * compared bit by bit.
+ * 
+ * Clustering happens online. A new plant joins the species of the closest
+ * plant within the radius, or starts a new species if there isn't one.
+ * When a plant dies its species shrinks, and disappears once it's empty.
+ * Species never split, so a species that died out in the middle can be two
+ * groups that are further apart than the radius. That's the price of not
+ * clustering everybody over again every cycle.
+ * 
+ * Everything is indexed by plant id, which the garden keeps small. Only the
+ * garden's thread may use it; other threads can look through Garden.post.
+ * The arrays are CopyOnWrite ones, so a forked garden's index shares them
+ * until one side adds or removes somebody; see fork.
+ * 
+ * @author Michael Hawthorne
+ */
+public class SpeciesIndex {
+    public static final int DEFAULT_RADIUS = 7;     // 8 blocks of 40 bits
+    private static final int WORDS = Plant.Chromosomes.COUNT;
+    private static final int BITS = WORDS * Long.SIZE;
+    
+    private final int radius;           // Most bits apart plants of a species are
+    private final int blocks;           // radius + 1
+    private final int[] blockStart;     // First bit of each block, and BITS
+    
+    private int capacity;               // Ids we have room for
+    private CopyOnWriteLongs genomes;   // WORDS per id
+    private CopyOnWriteInts speciesOf;  // Species of each id, or -1 if not indexed
+    private CopyOnWriteInts next;       // blocks per id: next id in the bucket, or -1
+    private CopyOnWriteInts heads;      // blocks tables of buckets: first id, or -1
+    private int bucketMask;             // Buckets per table - 1
+    private int indexed;                // Plants in the index
+    
+    private final CopyOnWriteInts sizes;        // Plants in each species
+    private final CopyOnWriteInts freeSpecies;  // Species numbers to reuse
+    private int numFreeSpecies;
+    private int nextSpecies;
+    private int numSpecies;             // Species with anybody in them
+    
+    private final long[] scratch = new long[WORDS];     // The genome we're looking for
+    private final long[] other = new long[WORDS];       // One we're comparing it to
+    private final long[] keys;                          // Each of scratch's blocks
+    
+    /**
+     * SpeciesIndex ctor.
+     * 
+     * @param radius How many bits two plants may differ by and still be the
+     *               same species. Each bit costs another hash table.
+     */
+    public SpeciesIndex(int radius) {
+        if (radius < 0 || radius >= BITS) {
+            throw new IllegalArgumentException("Radius " + radius + " out of range");
+        }
+        this.radius = radius;
+        blocks = radius + 1;
+        blockStart = new int[blocks + 1];
+        for (int b = 0; b <= blocks; b++) {
+            blockStart[b] = (int)((long)BITS * b / blocks);
+        }
+        capacity = 0;
+        genomes = new CopyOnWriteLongs(0);
+        speciesOf = new CopyOnWriteInts(0);
+        next = new CopyOnWriteInts(0);
+        bucketMask = 63;
+        heads = new CopyOnWriteInts(blocks * (bucketMask + 1));
+        heads.fill(0, heads.length(), -1);
+        sizes = new CopyOnWriteInts(16);
+        freeSpecies = new CopyOnWriteInts(16);
+        keys = new long[blocks];
+    }
+    
+    /**
+     * Copy ctor, sharing every array with the original.
+     * 
+     * @param from Index to copy.
+     */
+    private SpeciesIndex(SpeciesIndex from) {
+        radius = from.radius;
+        blocks = from.blocks;
+        blockStart = from.blockStart;
+        capacity = from.capacity;
+        genomes = from.genomes.fork();
+        speciesOf = from.speciesOf.fork();
+        next = from.next.fork();
+        heads = from.heads.fork();
+        bucketMask = from.bucketMask;
+        indexed = from.indexed;
+        sizes = from.sizes.fork();
+        freeSpecies = from.freeSpecies.fork();
+        numFreeSpecies = from.numFreeSpecies;
+        nextSpecies = from.nextSpecies;
+        numSpecies = from.numSpecies;
+        keys = new long[blocks];
+    }
+    
+    /**
+     * Fork the index, for a forked garden. Plants keep their ids there, so
+     * the fork has everybody in the same species.
+     * 
+     * @return The fork.
+     */
+    SpeciesIndex fork() {
+        return new SpeciesIndex(this);
+    }
+    
+    /**
+     * Put a plant in the index, and in a species.
+     * 
+     * @param p The plant. Must not be in the index already.
+     */
+    void add(Plant p) {
+        int id = p.id;
+        ensureCapacity(id + 1);
+        p.getChromosomes(scratch, 0);
+        for (int w = 0; w < WORDS; w++) {
+            genomes.set(id * WORDS + w, scratch[w]);
+        }
+        
+        int closest = nearest(id);
+        int species = closest >= 0 ? speciesOf.get(closest) : newSpecies();
+        speciesOf.set(id, species);
+        sizes.add(species, 1);
+        for (int b = 0; b < blocks; b++) {
+            int bucket = b * (bucketMask + 1) + bucket(keys[b]);
+            next.set(id * blocks + b, heads.get(bucket));
+            heads.set(bucket, id);
+        }
+        indexed++;
+    }
+    
+    /**
+     * Take a plant out of the index, and out of its species. Does nothing
+     * if it isn't in the index.
+     * 
+     * @param p The plant.
+     */
+    void remove(Plant p) {
+        int id = p.id;
+        if (id >= capacity || speciesOf.get(id) < 0) {
+            return;
+        }
+        read(id, other);
+        for (int b = 0; b < blocks; b++) {
+            int bucket = b * (bucketMask + 1) + bucket(key(other, b));
+            if (heads.get(bucket) == id) {
+                heads.set(bucket, next.get(id * blocks + b));
+            } else {
+                int prev = heads.get(bucket);
+                while (next.get(prev * blocks + b) != id) {
+                    prev = next.get(prev * blocks + b);
+                }
+                next.set(prev * blocks + b, next.get(id * blocks + b));
+            }
+        }
+        int species = speciesOf.get(id);
+        speciesOf.set(id, -1);
+        sizes.add(species, -1);
+        if (sizes.get(species) == 0) {
+            freeSpecies.grow(numFreeSpecies + 1);
+            freeSpecies.set(numFreeSpecies++, species);
+            numSpecies--;
+        }
+        indexed--;
+    }
+    
+    /**
+     * Find every plant within some number of bits of a plant.
+     * 
+     * @param p The plant. Doesn't need to be in the index.
+     * @param within Most bits apart, up to the index's radius.
+     * @return Ids of the plants that close, not counting p.
+     */
+    public int[] near(Plant p, int within) {
+        if (within < 0 || within > radius) {
+            throw new IllegalArgumentException("Can only search within " + radius + " bits");
+        }
+        p.getChromosomes(scratch, 0);
+        for (int b = 0; b < blocks; b++) {
+            keys[b] = key(scratch, b);
+        }
+        int[] found = new int[8];
+        int numFound = 0;
+        for (int b = 0; b < blocks; b++) {
+            for (int id = heads.get(b * (bucketMask + 1) + bucket(keys[b])); id >= 0; 
+                 id = next.get(id * blocks + b)) {
+                if (id == p.id) {
+                    continue;
+                }
+                read(id, other);
+                if (seenBefore(b)) {
+                    continue;
+                }
+                if (key(other, b) == keys[b] && distance(scratch, other, within) <= within) {
+                    if (numFound == found.length) {
+                        found = Arrays.copyOf(found, numFound * 2);
+                    }
+                    found[numFound++] = id;
+                }
+            }
+        }
+        return Arrays.copyOf(found, numFound);
+    }
+    
+    /**
+     * Which species a plant is in. Species numbers are reused once a species
+     * dies out.
+     * 
+     * @param id The plant's id.
+     * @return Its species, or -1 if it isn't in the index.
+     */
+    public int getSpecies(int id) {
+        return id < capacity ? speciesOf.get(id) : -1;
+    }
+    
+    /**
+     * @return Number of species with anybody in them.
+     */
+    public int getSpeciesCount() {
+        return numSpecies;
+    }
+    
+    /**
+     * @return Number of plants in the index.
+     */
+    public int getIndexed() {
+        return indexed;
+    }
+    
+    /**
+     * @return How many bits apart plants of a species can be.
+     */
+    public int getRadius() {
+        return radius;
+    }
+    
+    /**
+     * Get the size of every species, biggest first.
+     * 
+     * @return The number of plants in each species.
+     */
+    public int[] getSpeciesSizes() {
+        int[] out = new int[numSpecies];
+        int n = 0;
+        for (int s = 0; s < nextSpecies; s++) {
+            if (sizes.get(s) > 0) {
+                out[n++] = sizes.get(s);
+            }
+        }
+        Arrays.sort(out);
+        for (int i = 0, j = n - 1; i < j; i++, j--) {
+            int t = out[i];
+            out[i] = out[j];
+            out[j] = t;
+        }
+        return out;
+    }
+    
+    /**
+     * Find the indexed plant closest to the genome in scratch, within our
+     * radius. Leaves the genome's keys in keys.
+     * 
+     * @param skip An id to leave out.
+     * @return The closest plant's id, or -1 if none is within the radius.
+     */
+    private int nearest(int skip) {
+        for (int b = 0; b < blocks; b++) {
+            keys[b] = key(scratch, b);
+        }
+        int best = -1;
+        int bestDistance = radius + 1;
+        for (int b = 0; b < blocks && bestDistance > 0; b++) {
+            for (int id = heads.get(b * (bucketMask + 1) + bucket(keys[b])); id >= 0; 
+                 id = next.get(id * blocks + b)) {
+                if (id == skip) {
+                    continue;
+                }
+                read(id, other);
+                if (seenBefore(b) || key(other, b) != keys[b]) {
+                    continue;
+                }
+                int d = distance(scratch, other, bestDistance - 1);
+                if (d < bestDistance) {
+                    best = id;
+                    bestDistance = d;
+                    if (d == 0) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Whether a query already went past the genome in other, in the bucket
+     * of an earlier block. Buckets are chained by id, so nothing has to be
+     * marked to know; we just hash other's earlier blocks.
+     * 
+     * @param b The block the query is on.
+     * @return Whether other was in one of the query's buckets before b.
+     */
+    private boolean seenBefore(int b) {
+        for (int e = 0; e < b; e++) {
+            if (bucket(key(other, e)) == bucket(keys[e])) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Copy an indexed plant's genome out.
+     * 
+     * @param id The plant's id.
+     * @param g Where to put it, WORDS long.
+     */
+    private void read(int id, long[] g) {
+        for (int w = 0; w < WORDS; w++) {
+            g[w] = genomes.get(id * WORDS + w);
+        }
+    }
+    
+    /**
+     * Count the bits two genomes differ in, giving up once it's past a limit.
+     * 
+     * @param a One genome.
+     * @param b The other.
+     * @param limit Past this, we don't care how far.
+     * @return The distance, or something over limit.
+     */
+    private static int distance(long[] a, long[] b, int limit) {
+        int d = 0;
+        for (int w = 0; w < WORDS && d <= limit; w++) {
+            d += Long.bitCount(a[w] ^ b[w]);
+        }
+        return d;
+    }
+    
+    /**
+     * Get one block of a genome's bits. Bit 0 is the top bit of the roots
+     * chromosome, and bits run on through the rest in order. Blocks wider
+     * than a long are folded into one, so equal blocks always have equal
+     * keys but not the other way around.
+     * 
+     * @param g The genome.
+     * @param b Which block.
+     * @return The block's key.
+     */
+    private long key(long[] g, int b) {
+        int end = blockStart[b + 1];
+        long key = 0;
+        for (int start = blockStart[b]; start < end; start += Long.SIZE) {
+            int width = Math.min(Long.SIZE, end - start);
+            int word = start / Long.SIZE, offset = start % Long.SIZE;
+            long bits = g[word] << offset;
+            if (offset + width > Long.SIZE) {
+                bits |= g[word + 1] >>> (Long.SIZE - offset);
+            }
+            key = key * 0x9E3779B97F4A7C15L + (bits >>> (Long.SIZE - width));
+        }
+        return key;
+    }
+    
+    /**
+     * @param key A block's key.
+     * @return The bucket it goes in, in that block's table.
+     */
+    private int bucket(long key) {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & bucketMask;
+    }
+    
+    /**
+     * @return A species number nobody's using.
+     */
+    private int newSpecies() {
+        numSpecies++;
+        if (numFreeSpecies > 0) {
+            return freeSpecies.get(--numFreeSpecies);
+        }
+        sizes.grow(nextSpecies + 1);
+        return nextSpecies++;
+    }
+    
+    /**
+     * Make room for ids up to some number. Once there are more ids than
+     * buckets, the tables double and everybody is hashed again, so buckets
+     * stay short.
+     * 
+     * @param ids How many ids we need room for.
+     */
+    private void ensureCapacity(int ids) {
+        if (ids <= capacity) {
+            return;
+        }
+        int oldCapacity = capacity;
+        capacity = Math.max(ids, Math.max(64, capacity * 2));
+        genomes.grow(capacity * WORDS);
+        speciesOf.grow(capacity);
+        speciesOf.fill(oldCapacity, capacity, -1);
+        next.grow(capacity * blocks);
+        if (capacity <= bucketMask + 1) {
+            return;
+        }
+        
+        bucketMask = Integer.highestOneBit(capacity - 1) * 2 - 1;
+        heads = new CopyOnWriteInts(blocks * (bucketMask + 1));
+        heads.fill(0, heads.length(), -1);
+        for (int id = 0; id < oldCapacity; id++) {
+            if (speciesOf.get(id) < 0) {
+                continue;
+            }
+            read(id, other);
+            for (int b = 0; b < blocks; b++) {
+                int bucket = b * (bucketMask + 1) + bucket(key(other, b));
+                next.set(id * blocks + b, heads.get(bucket));
+                heads.set(bucket, id);
+            }
+        }
+    }
+}
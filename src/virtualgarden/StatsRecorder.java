@@ -0,0 +1,621 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records how a garden is doing every tick, for runs too long to keep it
+ * all in memory or in CSV. Each tick is a row, and each statistic is a
+ * column.
+ * 
+ * Rows go into a chunk of plain arrays, one per column. When a chunk is
+ * full it's handed to a background thread, which compresses each column on
+ * its own and appends them to the file. Counters are stored as the
+ * difference from the row before, and the rest as the bits that changed
+ * since the row before, both as varints, so a column that barely moves
+ * takes a byte or two a row. There is a fixed number of chunks, like
+ * FrameExporter's frames. If the writer falls so far behind that none are
+ * free, a chunk's rows are dropped rather than making the garden wait.
+ * 
+ * The file is a header and then chunks, all big-endian:
+ * 
+ *   header  8 bytes   "VGSTATS1"
+ *           int       Format version, 1
+ *           int       Number of columns
+ *           columns   Name, as modified UTF-8, and a byte of encoding
+ *   chunk   long      Row number of the chunk's first row
+ *           int       Rows in the chunk
+ *           ints      Compressed length of each column
+ *           bytes     Each column, one after another
+ * 
+ * Every column of every chunk starts from zero, so a Reader can seek past
+ * the chunks and columns it doesn't want without decoding them.
+ * 
+ * Trait means follow the garden's DeltaStream rather than looking at every
+ * plant every tick.
+ * 
+ * @author Michael Hawthorne
+ */
+public class StatsRecorder implements Closeable {
+    public static final int DEFAULT_CHUNK_ROWS = 4096;
+    private static final long MAGIC = 0x5647535441545331L;  // "VGSTATS1"
+    private static final int VERSION = 1;
+    private static final int NUM_CHUNKS = 4;
+    
+    // Encodings
+    static final int DELTA = 0;     // Zigzag varint of the change since the last row
+    static final int XOR = 1;       // Varint of the bits that changed, for doubles
+    static final int VARINT = 2;    // Varint of the value itself
+    
+    // Columns
+    public static final String[] COLUMNS = { "tick", "time", "population", "births", "deaths",
+            "species", "tick_nanos", "mean_energy", "mean_root_depth", "mean_seeds",
+            "mean_seed_dispersal", "mean_hue" };
+    private static final int[] ENCODINGS = { DELTA, XOR, DELTA, VARINT, VARINT,
+            DELTA, VARINT, XOR, XOR, XOR,
+            XOR, XOR };
+    private static final int TICK = 0, TIME = 1, POPULATION = 2, BIRTHS = 3, DEATHS = 4,
+            SPECIES = 5, TICK_NANOS = 6, MEAN_ENERGY = 7, MEAN_ROOT_DEPTH = 8, MEAN_SEEDS = 9,
+            MEAN_SEED_DISPERSAL = 10, MEAN_HUE = 11;
+    private static final int TRAITS = 4;    // Root depth, seeds, dispersal, hue
+    
+    private final int chunkRows;
+    private final DataOutputStream out;
+    private final ArrayBlockingQueue<long[][]> freeChunks;
+    private final ExecutorService writer;
+    private final AtomicInteger failed;
+    private volatile boolean closed;
+    
+    private long[][] chunk;             // Rows so far, column by column
+    private int rows;                   // Rows in chunk
+    private long nextRow;               // Row number of the next row
+    private final AtomicInteger dropped; // Chunks that didn't get written
+    
+    // Following the garden
+    private DeltaStream.Reader deltas;
+    private final DeltaStream.Handler handler;
+    private boolean lost;               // Missed some deltas. Count again
+    private long[] traitsOf;            // TRAITS per plant id
+    private boolean[] tracked;
+    private final long[] traitSums = new long[TRAITS];
+    private int numTracked;
+    private long lastBirths, lastDeaths;
+    
+    /**
+     * StatsRecorder ctor.
+     * 
+     * @param file File to write. Replaced if it's there.
+     * @param chunkRows Rows in each chunk.
+     * @throws IOException If the file can't be written.
+     */
+    public StatsRecorder(File file, int chunkRows) throws IOException {
+        this.chunkRows = Math.max(1, chunkRows);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeLong(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(COLUMNS.length);
+        for (int c = 0; c < COLUMNS.length; c++) {
+            out.writeUTF(COLUMNS[c]);
+            out.writeByte(ENCODINGS[c]);
+        }
+        out.flush();
+        
+        freeChunks = new ArrayBlockingQueue<long[][]>(NUM_CHUNKS);
+        for (int i = 1; i < NUM_CHUNKS; i++) {
+            freeChunks.add(new long[COLUMNS.length][this.chunkRows]);
+        }
+        chunk = new long[COLUMNS.length][this.chunkRows];
+        
+        // The queue never holds more than NUM_CHUNKS jobs, since each job
+        // owns one of our chunks.
+        writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(NUM_CHUNKS),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "StatsRecorder writer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        failed = new AtomicInteger();
+        dropped = new AtomicInteger();
+        
+        traitsOf = new long[64 * TRAITS];
+        tracked = new boolean[64];
+        handler = new DeltaStream.Handler() {
+            @Override
+            public void onRecord(DeltaStream.Record r) {
+                if (lost) {
+                    return;
+                }
+                if (r.type == DeltaStream.BORN) {
+                    track(r.id, r.a, r.b);
+                } else if (r.type == DeltaStream.DIED) {
+                    untrack(r.id);
+                }
+            }
+            
+            @Override
+            public void onOverrun(long count) {
+                lost = true;
+            }
+        };
+    }
+    
+    /**
+     * Call once per garden tick, from the thread growing the garden, to
+     * record a row.
+     * 
+     * @param garden The garden. Always the same one.
+     * @param nanos How long the tick took.
+     */
+    public void tick(Garden garden, long nanos) {
+        if (closed) {
+            return;
+        }
+        if (deltas != null) {
+            deltas.poll(handler, Integer.MAX_VALUE);
+        }
+        if (deltas == null || lost) {
+            recount(garden);
+        }
+        
+        int row = rows;
+        long[][] c = chunk;
+        c[TICK][row] = garden.ticks;
+        c[TIME][row] = Double.doubleToLongBits(garden.time);
+        c[POPULATION][row] = garden.plants.size();
+        c[BIRTHS][row] = garden.births - lastBirths;
+        c[DEATHS][row] = garden.deaths - lastDeaths;
+        c[SPECIES][row] = garden.species.getSpeciesCount();
+        c[TICK_NANOS][row] = nanos;
+        c[MEAN_ENERGY][row] = Double.doubleToLongBits(garden.meanEnergy);
+        for (int t = 0; t < TRAITS; t++) {
+            double mean = numTracked > 0 ? (double)traitSums[t] / numTracked : 0;
+            c[MEAN_ROOT_DEPTH + t][row] = Double.doubleToLongBits(mean);
+        }
+        lastBirths = garden.births;
+        lastDeaths = garden.deaths;
+        
+        if (++rows == chunkRows) {
+            hand();
+        }
+    }
+    
+    /**
+     * Write whatever rows are left and wait for the writer to finish.
+     * 
+     * @throws IOException If the file couldn't be written or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (rows > 0) {
+            hand();
+        }
+        closed = true;
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if (failed.get() > 0) {
+            throw new IOException(failed.get() + " chunks failed to write");
+        }
+    }
+    
+    /**
+     * @return Number of chunks dropped because the writer was behind.
+     */
+    public int getChunksDropped() {
+        return dropped.get();
+    }
+    
+    /**
+     * Give the current chunk to the writer, and start another.
+     */
+    private void hand() {
+        final long[][] full = chunk;
+        final int count = rows;
+        final long first = nextRow;
+        nextRow += count;
+        rows = 0;
+        long[][] fresh = freeChunks.poll();
+        if (fresh == null) {
+            // Every chunk is waiting on the writer. Lose this one instead
+            // of waiting.
+            dropped.incrementAndGet();
+            return;
+        }
+        chunk = fresh;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeChunk(full, count, first);
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    System.err.println("Could not write stats\n" + e.toString());
+                } finally {
+                    freeChunks.add(full);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Compress a chunk column by column and append it to the file. Only
+     * the writer thread calls this.
+     * 
+     * @param columns The rows, column by column.
+     * @param count How many rows.
+     * @param first Row number of the first.
+     * @throws IOException If the file couldn't be written.
+     */
+    private void writeChunk(long[][] columns, int count, long first) throws IOException {
+        ByteArrayOutputStream[] encoded = new ByteArrayOutputStream[COLUMNS.length];
+        for (int c = 0; c < COLUMNS.length; c++) {
+            encoded[c] = new ByteArrayOutputStream(count * 2);
+            long prev = 0;
+            for (int i = 0; i < count; i++) {
+                long v = columns[c][i];
+                switch (ENCODINGS[c]) {
+                    case DELTA:
+                        long d = v - prev;
+                        writeVarint(encoded[c], (d << 1) ^ (d >> 63));
+                        break;
+                    case XOR:
+                        writeVarint(encoded[c], v ^ prev);
+                        break;
+                    default:
+                        writeVarint(encoded[c], v);
+                        break;
+                }
+                prev = v;
+            }
+        }
+        out.writeLong(first);
+        out.writeInt(count);
+        for (ByteArrayOutputStream e : encoded) {
+            out.writeInt(e.size());
+        }
+        for (ByteArrayOutputStream e : encoded) {
+            e.writeTo(out);
+        }
+        out.flush();
+    }
+    
+    /**
+     * Write a long as an unsigned varint: seven bits a byte, low bits first,
+     * with the top bit set on every byte but the last.
+     * 
+     * @param out Where to write.
+     * @param v The value.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int)(v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int)v);
+    }
+    
+    /**
+     * Start counting a plant's traits.
+     * 
+     * @param id The plant's id.
+     * @param roots Its roots chromosome.
+     * @param flower Its flower chromosome.
+     */
+    private void track(int id, long roots, long flower) {
+        if (id >= tracked.length) {
+            int size = Math.max(id + 1, tracked.length * 2);
+            tracked = Arrays.copyOf(tracked, size);
+            traitsOf = Arrays.copyOf(traitsOf, size * TRAITS);
+        }
+        if (tracked[id]) {
+            untrack(id);
+        }
+        // Same genes PlantPartRoots and PlantPartFlower read
+        int at = id * TRAITS;
+        traitsOf[at] = (roots >> 60) & 0xF;
+        traitsOf[at + 1] = (flower >> 48) & 0x3;
+        traitsOf[at + 2] = (flower >> 44) & 0xF;
+        traitsOf[at + 3] = (flower >> 56) & 0xFF;
+        for (int t = 0; t < TRAITS; t++) {
+            traitSums[t] += traitsOf[at + t];
+        }
+        tracked[id] = true;
+        numTracked++;
+    }
+    
+    /**
+     * Stop counting a plant's traits.
+     * 
+     * @param id The plant's id.
+     */
+    private void untrack(int id) {
+        if (id >= tracked.length || !tracked[id]) {
+            return;
+        }
+        int at = id * TRAITS;
+        for (int t = 0; t < TRAITS; t++) {
+            traitSums[t] -= traitsOf[at + t];
+        }
+        tracked[id] = false;
+        numTracked--;
+    }
+    
+    /**
+     * Go through the plants and count everybody's traits, and follow the
+     * deltas from here on. For the first tick, and when we missed some
+     * births and deaths.
+     * 
+     * @param garden The garden.
+     */
+    private void recount(Garden garden) {
+        Arrays.fill(tracked, false);
+        Arrays.fill(traitSums, 0);
+        numTracked = 0;
+        for (Plant p : garden.plants) {
+            track(p.id, p.getChromosome(Plant.Chromosomes.ROOTS),
+                  p.getChromosome(Plant.Chromosomes.FLOWER));
+        }
+        deltas = garden.getDeltas().reader();
+        lost = false;
+    }
+    
+    /**
+     * Reads a file written by a StatsRecorder. Only the chunk headers are
+     * read up front, and only the columns asked for are ever decoded.
+     */
+    public static class Reader implements Closeable {
+        private final RandomAccessFile file;
+        private final String[] columns;
+        private final int[] encodings;
+        private final ArrayList<long[]> chunks;     // First row, rows, where each column starts and the end
+        
+        /**
+         * Reader ctor.
+         * 
+         * @param path The file.
+         * @throws IOException If it can't be read, or isn't a stats file.
+         */
+        public Reader(File path) throws IOException {
+            file = new RandomAccessFile(path, "r");
+            try {
+                if (file.readLong() != MAGIC) {
+                    throw new IOException(path + " isn't a stats file");
+                }
+                if (file.readInt() != VERSION) {
+                    throw new IOException(path + " is from a different version");
+                }
+                int numColumns = file.readInt();
+                columns = new String[numColumns];
+                encodings = new int[numColumns];
+                for (int c = 0; c < numColumns; c++) {
+                    columns[c] = file.readUTF();
+                    encodings[c] = file.readByte();
+                }
+                
+                // Chunks the writer hasn't finished yet are left out
+                chunks = new ArrayList<long[]>();
+                long length = file.length();
+                long pos = file.getFilePointer();
+                long headerSize = 12 + 4L * numColumns;
+                while (pos + headerSize <= length) {
+                    file.seek(pos);
+                    long[] chunk = new long[3 + numColumns];
+                    chunk[0] = file.readLong();
+                    chunk[1] = file.readInt();
+                    long offset = pos + headerSize;
+                    for (int c = 0; c < numColumns; c++) {
+                        chunk[2 + c] = offset;
+                        offset += file.readInt() & 0xFFFFFFFFL;
+                    }
+                    if (offset > length) {
+                        break;
+                    }
+                    chunk[2 + numColumns] = offset;
+                    chunks.add(chunk);
+                    pos = offset;
+                }
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        }
+        
+        /**
+         * @return Names of the columns in the file.
+         */
+        public String[] getColumns() {
+            return columns.clone();
+        }
+        
+        /**
+         * @return One past the last row number in the file.
+         */
+        public long getRows() {
+            if (chunks.isEmpty()) {
+                return 0;
+            }
+            long[] last = chunks.get(chunks.size() - 1);
+            return last[0] + last[1];
+        }
+        
+        /**
+         * Read part of one column. Chunks outside the range and the other
+         * columns are skipped over.
+         * 
+         * @param column Name of the column.
+         * @param from First row.
+         * @param to One past the last row.
+         * @return A value per row. Counters are exact up to 2^53. Rows that
+         *         were dropped are NaN.
+         * @throws IOException If the file can't be read.
+         */
+        public double[] read(String column, long from, long to) throws IOException {
+            int c = Arrays.asList(columns).indexOf(column);
+            if (c < 0) {
+                throw new IllegalArgumentException("No column " + column);
+            }
+            to = Math.min(to, getRows());
+            if (from >= to) {
+                return new double[0];
+            }
+            double[] values = new double[(int)(to - from)];
+            Arrays.fill(values, Double.NaN);
+            for (long[] chunk : chunks) {
+                long first = chunk[0];
+                int count = (int)chunk[1];
+                if (first + count <= from || first >= to) {
+                    continue;
+                }
+                byte[] bytes = new byte[(int)(chunk[3 + c] - chunk[2 + c])];
+                file.seek(chunk[2 + c]);
+                file.readFully(bytes);
+                decode(bytes, encodings[c], first, count, from, values);
+            }
+            return values;
+        }
+        
+        /**
+         * Decode one column of a chunk into the rows we want.
+         * 
+         * @param bytes The compressed column.
+         * @param encoding How it was compressed.
+         * @param first Row number of the chunk's first row.
+         * @param count Rows in the chunk.
+         * @param from Row number of values[0].
+         * @param values Where the rows go.
+         */
+        private static void decode(byte[] bytes, int encoding, long first, int count,
+                                   long from, double[] values) {
+            int pos = 0;
+            long prev = 0;
+            for (int i = 0; i < count; i++) {
+                long raw = 0;
+                int shift = 0;
+                int b;
+                do {
+                    b = bytes[pos++];
+                    raw |= (long)(b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                
+                long v;
+                switch (encoding) {
+                    case DELTA:
+                        v = prev + ((raw >>> 1) ^ -(raw & 1));
+                        break;
+                    case XOR:
+                        v = prev ^ raw;
+                        break;
+                    default:
+                        v = raw;
+                        break;
+                }
+                prev = v;
+                
+                long row = first + i - from;
+                if (row >= values.length) {
+                    break;
+                }
+                if (row >= 0) {
+                    values[(int)row] = encoding == XOR ? Double.longBitsToDouble(v) : v;
+                }
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+    
+    /**
+     * Print columns of a stats file as CSV.
+     * 
+     * Usage: StatsRecorder FILE [FROM [TO [COLUMN...]]]
+     * 
+     * @param args See above.
+     * @throws IOException If the file can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: StatsRecorder FILE [FROM [TO [COLUMN...]]]");
+            System.exit(1);
+        }
+        Reader reader = new Reader(new File(args[0]));
+        try {
+            long from = args.length > 1 ? Long.parseLong(args[1]) : 0;
+            long to = args.length > 2 ? Long.parseLong(args[2]) : reader.getRows();
+            String[] names = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length)
+                                             : reader.getColumns();
+            double[][] values = new double[names.length][];
+            for (int c = 0; c < names.length; c++) {
+                values[c] = reader.read(names[c], from, to);
+            }
+            StringBuilder line = new StringBuilder("row");
+            for (String name : names) {
+                line.append(',').append(name);
+            }
+            System.out.println(line);
+            int rows = values.length > 0 ? values[0].length : 0;
+            for (int i = 0; i < rows; i++) {
+                line.setLength(0);
+                line.append(from + i);
+                for (double[] column : values) {
+                    line.append(',').append(column[i]);
+                }
+                System.out.println(line);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A Drawer that draws on several threads. The area being drawn is cut into
+ * horizontal stripes of whole screen pixels, and each stripe gets its own
+ * thread drawing only the Drawables that touch it, still in priority order.
+ * The stripes all land in one offscreen image that is copied to the screen in
+ * one go. The image is only as big as the area is on screen, however the
+ * Graphics is scaled or moved.
+ *
+ * @author Michael Hawthorne
+ */
+public class StripeRenderer extends Drawer {
+    private final int numStripes;
+    private final ExecutorService workers;
+    private BufferedImage image;            // Reused between frames
+
+    /**
+     * StripeRenderer ctor.
+     *
+     * @param threads Number of threads, and stripes, to draw with.
+     */
+    public StripeRenderer(int threads) {
+        super();
+        numStripes = threads;
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StripeRenderer worker");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Draw our Drawables in priority order, a stripe per thread.
+     *
+     * @param g Graphics object.
+     */
+    @Override
+    public void draw(Graphics g) {
+        GardenEvents.Draw event = new GardenEvents.Draw();
+        event.begin();
+        ArrayList<Drawable> drawList = takeDrawList();
+        Rectangle area = g.getClipBounds();
+        if (area == null) {
+            for (Drawable part : drawList) {
+                if (area == null) {
+                    area = part.getBounds();
+                } else {
+                    area.add(part.getBounds());
+                }
+            }
+            if (area == null) {
+                return;
+            }
+        }
+        if (area.isEmpty()) {
+            return;
+        }
+        Graphics2D screen = (Graphics2D)g;
+        final AffineTransform transform = screen.getTransform();
+        final Rectangle device = transform.createTransformedShape(area).getBounds();
+        ensureImage(device.width, device.height);
+
+        // Sort everything into the stripes it touches. Going through the list
+        // in order keeps each stripe in priority order. Stripes are cut in
+        // whole device pixels, so under a scaled Graphics neighbouring
+        // stripes still meet exactly, with no seams or unpainted rows.
+        int stripeHeight = (device.height + numStripes - 1) / numStripes;
+        ArrayList<ArrayList<Drawable>> stripes = new ArrayList<ArrayList<Drawable>>();
+        for (int i = 0; i < numStripes; i++) {
+            stripes.add(new ArrayList<Drawable>());
+        }
+        int drawn = 0;
+        for (Drawable part : drawList) {
+            Rectangle b = part.getBounds();
+            if (!area.intersects(b)) {
+                continue;
+            }
+            drawn++;
+            Rectangle db = transform.createTransformedShape(b).getBounds();
+            int first = Math.max(0, (db.y - device.y) / stripeHeight);
+            int last = Math.min(numStripes - 1, (db.y + db.height - device.y) / stripeHeight);
+            for (int i = first; i <= last; i++) {
+                stripes.get(i).add(part);
+            }
+        }
+
+        ArrayList<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < numStripes; i++) {
+            // In image pixels, which are device pixels less device.x/y
+            final Rectangle stripe = new Rectangle(0, i * stripeHeight, device.width, stripeHeight)
+                    .intersection(new Rectangle(0, 0, device.width, device.height));
+            final ArrayList<Drawable> parts = stripes.get(i);
+            if (stripe.isEmpty()) {
+                continue;
+            }
+            jobs.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Graphics2D sg = image.createGraphics();
+                    sg.setClip(stripe);
+                    sg.setColor(VirtualGarden.BACKGROUND);
+                    sg.fill(stripe);
+                    // The clip stays put in device space as the transform goes on
+                    sg.translate(-device.x, -device.y);
+                    sg.transform(transform);
+                    for (Drawable part : parts) {
+                        part.draw(sg);
+                    }
+                    sg.dispose();
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> f : workers.invokeAll(jobs)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            System.err.println("A stripe failed to draw\n" + e.getCause().toString());
+        }
+
+        screen.setTransform(new AffineTransform());
+        screen.drawImage(image, device.x, device.y, device.x + device.width, device.y + device.height,
+                         0, 0, device.width, device.height, null);
+        screen.setTransform(transform);
+        if (event.shouldCommit()) {
+            event.renderer = getClass().getSimpleName();
+            event.threads = numStripes;
+            event.drawables = drawList.size();
+            event.drawn = drawn;
+            event.width = area.width;
+            event.height = area.height;
+            event.commit();
+        }
+    }
+
+    /**
+     * Make sure our image is at least the given size.
+     *
+     * @param width Minimum width.
+     * @param height Minimum height.
+     */
+    private void ensureImage(int width, int height) {
+        if (image == null || image.getWidth() < width || image.getHeight() < height) {
+            int w = Math.max(width, image == null ? 0 : image.getWidth());
+            int h = Math.max(height, image == null ? 0 : image.getHeight());
+            image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        }
+    }
+}
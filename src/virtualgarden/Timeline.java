@@ -0,0 +1,272 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+/**
+ * Things that will happen at a known time. Instead of checking every cycle
+ * whether it's time yet, parts schedule an Event here and get called back
+ * once the garden's clock reaches it.
+ *
+ * Events fire at the end of whatever cycle passes their time, which is
+ * fine for most. Times that matter more, like a flower spreading its seeds,
+ * can also be added as deadlines, which Garden.step doesn't step past.
+ *
+ * Both are kept in heaps of CopyOnWriteRefs, so a forked garden's Timeline
+ * shares them until one side schedules or fires something. Entries never
+ * change once they're in a heap, and neither should events, since both
+ * gardens fire them.
+ *
+ * @author Michael Hawthorne
+ */
+public class Timeline {
+    private final Garden garden;    // Whose events these are
+    private final Heap events;
+    private final Heap deadlines;   // Entries without events
+    private long scheduled;         // Breaks ties so same-time events keep order
+
+    /**
+     * Timeline ctor.
+     *
+     * @param garden The garden to fire events in.
+     */
+    public Timeline(Garden garden) {
+        this.garden = garden;
+        events = new Heap();
+        deadlines = new Heap();
+    }
+
+    /**
+     * Copy ctor, sharing both heaps with the original.
+     *
+     * @param from What to copy.
+     * @param garden The copy's garden.
+     */
+    private Timeline(Timeline from, Garden garden) {
+        this.garden = garden;
+        events = from.events.fork();
+        deadlines = from.deadlines.fork();
+        scheduled = from.scheduled;
+    }
+
+    /**
+     * Fork the Timeline, for a forked garden. Everything that's waiting
+     * fires in both, in the same order.
+     *
+     * @param garden The forked garden.
+     * @return The fork.
+     */
+    Timeline fork(Garden garden) {
+        return new Timeline(this, garden);
+    }
+
+    /**
+     * Schedule an event. An event should only be scheduled once at a time;
+     * it can schedule itself again when it fires.
+     *
+     * @param e The event.
+     * @param time When it should fire, on the garden's clock.
+     */
+    public void schedule(Event e, double time) {
+        events.push(new Entry(time, scheduled++, e));
+    }
+
+    /**
+     * Fire every event due by now, in time order. Events scheduled while
+     * this runs fire too if they're due.
+     *
+     * @param now The garden's clock.
+     */
+    public void runUntil(double now) {
+        while (events.size > 0 && events.peek().time <= now) {
+            events.pop().event.fire(garden, now);
+        }
+    }
+
+    /**
+     * When the next event fires.
+     *
+     * @return Time of the next event, or positive infinity if there is none.
+     */
+    public double nextTime() {
+        return events.size == 0 ? Double.POSITIVE_INFINITY : events.peek().time;
+    }
+
+    /**
+     * Add a time the garden shouldn't step past. Deadlines don't go away
+     * when whatever they were for does, they just pass.
+     *
+     * @param time The time, on the garden's clock.
+     */
+    public void addDeadline(double time) {
+        deadlines.push(new Entry(time, 0, null));
+    }
+
+    /**
+     * The next deadline that hasn't passed yet. Forgets the ones that have.
+     *
+     * @param now The garden's clock.
+     * @return Time of the next deadline after now, or positive infinity if
+     *         there is none.
+     */
+    public double nextDeadline(double now) {
+        while (deadlines.size > 0 && deadlines.peek().time <= now) {
+            deadlines.pop();
+        }
+        return deadlines.size > 0 ? deadlines.peek().time : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return Number of events waiting to fire.
+     */
+    public int size() {
+        return events.size;
+    }
+
+    /**
+     * Something that happens at a set time.
+     */
+    public static abstract class Event {
+        /**
+         * Do whatever it is we do.
+         *
+         * @param garden The garden whose Timeline we're on.
+         * @param now The garden's clock. At or past our scheduled time.
+         */
+        protected abstract void fire(Garden garden, double now);
+    }
+
+    /**
+     * An event or deadline, and when it's for.
+     */
+    private static class Entry {
+        final double time;
+        final long order;
+        final Event event;
+
+        /**
+         * Entry ctor.
+         *
+         * @param time When it's for.
+         * @param order When it was scheduled, to break ties.
+         * @param event What fires. Null for a deadline.
+         */
+        Entry(double time, long order, Event event) {
+            this.time = time;
+            this.order = order;
+            this.event = event;
+        }
+
+        /**
+         * @param other Another entry.
+         * @return Whether we come before it.
+         */
+        boolean before(Entry other) {
+            if (time != other.time) {
+                return time < other.time;
+            }
+            return order < other.order;
+        }
+    }
+
+    /**
+     * A binary min-heap of entries that can be forked cheaply.
+     */
+    private static class Heap {
+        private final CopyOnWriteRefs<Entry> entries;
+        private int size;
+
+        /**
+         * Heap ctor.
+         */
+        Heap() {
+            entries = new CopyOnWriteRefs<Entry>(0);
+        }
+
+        /**
+         * Copy ctor, sharing every entry.
+         *
+         * @param from What to copy.
+         */
+        private Heap(Heap from) {
+            entries = from.entries.fork();
+            size = from.size;
+        }
+
+        /**
+         * @return A fork of the heap.
+         */
+        Heap fork() {
+            return new Heap(this);
+        }
+
+        /**
+         * @return The first entry. The heap mustn't be empty.
+         */
+        Entry peek() {
+            return entries.get(0);
+        }
+
+        /**
+         * @param e Entry to add.
+         */
+        void push(Entry e) {
+            if (size == entries.length()) {
+                entries.grow(Math.max(16, size * 2));
+            }
+            int i = size++;
+            while (i > 0 && e.before(entries.get((i - 1) / 2))) {
+                entries.set(i, entries.get((i - 1) / 2));
+                i = (i - 1) / 2;
+            }
+            entries.set(i, e);
+        }
+
+        /**
+         * Take the first entry out. The heap mustn't be empty.
+         *
+         * @return The entry.
+         */
+        Entry pop() {
+            Entry first = entries.get(0);
+            Entry last = entries.get(--size);
+            entries.set(size, null);
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && entries.get(child + 1).before(entries.get(child))) {
+                    child++;
+                }
+                if (!entries.get(child).before(last)) {
+                    break;
+                }
+                entries.set(i, entries.get(child));
+                i = child;
+            }
+            if (size > 0) {
+                entries.set(i, last);
+            }
+            return first;
+        }
+    }
+}
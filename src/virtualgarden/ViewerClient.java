@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+
+/**
+ * Watches a garden running somewhere else, through a ViewerServer. Rebuilds
+ * just enough of each plant to draw it the same way the garden does.
+ *
+ * Usage: ViewerClient HOST PORT [--headless]
+ *
+ * With --headless nothing is drawn; it prints a line per second about what
+ * it's receiving instead.
+ *
+ * @author Michael Hawthorne
+ */
+public class ViewerClient {
+    private final HashMap<Integer, Shown> scene;    // What we're showing, by id
+    private long tick;
+    private long messages, bytes;
+
+    /**
+     * One plant as we draw it.
+     */
+    private static class Shown implements Drawer.Drawable {
+        final int x, y;
+        final PlantPartRoots roots;
+        final PlantPartFlower flower;
+
+        /**
+         * Shown ctor.
+         *
+         * @param x X position.
+         * @param y Y position.
+         * @param rootsChromosome Roots chromosome, for the colour.
+         * @param flowerChromosome Flower chromosome, for colour and petals.
+         */
+        Shown(int x, int y, long rootsChromosome, long flowerChromosome) {
+            this.x = x;
+            this.y = y;
+            roots = new PlantPartRoots(x, y, rootsChromosome);
+            flower = new PlantPartFlower(x, y, flowerChromosome);
+        }
+
+        /**
+         * Draw the stem. Roots and flower are drawn on their own.
+         *
+         * @param g Graphics object
+         */
+        @Override
+        public void draw(Graphics g) {
+            Plant.drawStem(g, x, y);
+        }
+
+        /**
+         * @return Bounding box of the stem.
+         */
+        @Override
+        public Rectangle getBounds() {
+            return new Rectangle(x - 3, y - 3, 7, 7);
+        }
+    }
+
+    /**
+     * ViewerClient ctor.
+     */
+    public ViewerClient() {
+        scene = new HashMap<Integer, Shown>();
+    }
+
+    /**
+     * Read one message and apply it to the scene.
+     *
+     * @param message Message body, without its length.
+     * @throws IOException If the message doesn't make sense.
+     */
+    void apply(byte[] message) throws IOException {
+        InputStream in = new ByteArrayInputStream(message);
+        int kind = ViewerProtocol.readByte(in);
+        long messageTick = ViewerProtocol.readVarint(in);
+        long count = ViewerProtocol.readVarint(in);
+        synchronized (scene) {
+            if (kind == ViewerProtocol.STATE) {
+                scene.clear();
+            } else if (kind != ViewerProtocol.DELTA) {
+                throw new IOException("Unknown message kind " + kind);
+            }
+            int id = 0;
+            for (long i = 0; i < count; i++) {
+                id += (int)ViewerProtocol.readVarint(in);
+                int tag = ViewerProtocol.readByte(in);
+                Shown s;
+                switch (tag) {
+                    case ViewerProtocol.BORN:
+                        int x = (int)ViewerProtocol.readSignedVarint(in);
+                        int y = (int)ViewerProtocol.readSignedVarint(in);
+                        long rootsChromosome = ViewerProtocol.readLong(in);
+                        long flowerChromosome = ViewerProtocol.readLong(in);
+                        s = new Shown(x, y, rootsChromosome, flowerChromosome);
+                        setRadius(s, ViewerProtocol.readVarint(in));
+                        s.flower.setPetalSize((int)ViewerProtocol.readSignedVarint(in));
+                        scene.put(id, s);
+                        break;
+                    case ViewerProtocol.DIED:
+                        scene.remove(id);
+                        break;
+                    case ViewerProtocol.RADIUS:
+                        s = scene.get(id);
+                        long radius = ViewerProtocol.readVarint(in);
+                        if (s != null) {
+                            setRadius(s, radius);
+                        }
+                        break;
+                    case ViewerProtocol.PETAL:
+                        s = scene.get(id);
+                        int petal = (int)ViewerProtocol.readSignedVarint(in);
+                        if (s != null) {
+                            s.flower.setPetalSize(petal);
+                        }
+                        break;
+                    case ViewerProtocol.RESIZED:
+                        s = scene.get(id);
+                        long r = ViewerProtocol.readVarint(in);
+                        int p = (int)ViewerProtocol.readSignedVarint(in);
+                        if (s != null) {
+                            setRadius(s, r);
+                            s.flower.setPetalSize(p);
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown entry tag " + tag);
+                }
+            }
+            tick = messageTick;
+            messages++;
+            bytes += message.length;
+        }
+    }
+
+    /**
+     * Set a plant's root radius from the wire.
+     *
+     * @param s The plant.
+     * @param radius Radius in quarter pixels.
+     */
+    private static void setRadius(Shown s, long radius) {
+        s.roots.setRadius(radius / ViewerProtocol.RADIUS_SCALE);
+    }
+
+    /**
+     * Draws the scene.
+     *
+     * @param g Graphics object
+     * @param d Drawer to collect the plants in.
+     */
+    void draw(Graphics g, Drawer d) {
+        synchronized (scene) {
+            for (Shown s : scene.values()) {
+                d.addToDrawList(s.roots, 0);
+                d.addToDrawList(s, 1);
+                d.addToDrawList(s.flower, 2);
+            }
+        }
+        d.draw(g);
+    }
+
+    /**
+     * Main function.
+     *
+     * @param args HOST PORT [--headless]
+     * @throws IOException If the connection fails or the server sends
+     *                     something we don't understand.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ViewerClient HOST PORT [--headless]");
+            System.exit(1);
+        }
+        boolean headless = GraphicsEnvironment.isHeadless()
+                           || (args.length > 2 && args[2].equals("--headless"));
+
+        Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        byte[] magic = new byte[ViewerProtocol.MAGIC.length];
+        for (int i = 0; i < magic.length; i++) {
+            magic[i] = (byte)ViewerProtocol.readByte(in);
+        }
+        if (!Arrays.equals(magic, ViewerProtocol.MAGIC)) {
+            throw new IOException("Not a garden");
+        }
+        int version = ViewerProtocol.readByte(in);
+        if (version != ViewerProtocol.VERSION) {
+            throw new IOException("Unsupported protocol version " + version);
+        }
+        int width = (int)ViewerProtocol.readVarint(in);
+        int height = (int)ViewerProtocol.readVarint(in);
+
+        final ViewerClient client = new ViewerClient();
+        JPanel panel = null;
+        if (!headless) {
+            panel = new JPanel() {
+                private final Drawer drawer = new Drawer();
+
+                @Override
+                public void paintComponent(Graphics g) {
+                    super.paintComponent(g);
+                    client.draw(g, drawer);
+                }
+            };
+            panel.setBackground(VirtualGarden.BACKGROUND);
+            JFrame application = new JFrame(args[0] + ":" + args[1]);
+            application.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            application.add(panel);
+            application.setSize(width, height);
+            application.setVisible(true);
+        }
+
+        long lastReport = System.currentTimeMillis();
+        while (true) {
+            byte[] message = new byte[(int)ViewerProtocol.readVarint(in)];
+            for (int read = 0; read < message.length; ) {
+                int n = in.read(message, read, message.length - read);
+                if (n < 0) {
+                    throw new IOException("Connection closed mid-message");
+                }
+                read += n;
+            }
+            client.apply(message);
+            if (panel != null) {
+                panel.repaint();
+            } else if (System.currentTimeMillis() - lastReport >= 1000) {
+                lastReport = System.currentTimeMillis();
+                synchronized (client.scene) {
+                    System.out.println("tick " + client.tick + ", " + client.scene.size()
+                                       + " plants, " + client.messages + " messages, "
+                                       + client.bytes + " bytes");
+                }
+            }
+        }
+    }
+}
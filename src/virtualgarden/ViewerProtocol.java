@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The bytes a ViewerServer sends to a ViewerClient.
+ *
+ * A connection starts with "VGRD", a version byte, and the garden's width and
+ * height as varints. After that it's a series of messages, each a varint
+ * length followed by that many bytes:
+ *
+ *   kind        byte, STATE or DELTA
+ *   tick        varint, the garden's cycle count
+ *   count       varint, number of entries
+ *   entries     sorted by plant id
+ *
+ * Every entry starts with the difference between its plant id and the
+ * previous entry's (the first is relative to 0), then a tag byte:
+ *
+ *   BORN        x, y (zigzag varints), roots and flower chromosomes (8 bytes
+ *               each, big-endian), radius, petal size
+ *   DIED        nothing
+ *   RADIUS      radius
+ *   PETAL       petal size
+ *   RESIZED     radius, petal size
+ *
+ * Radii are quarter pixels, as varints. Petal sizes are zigzag varints. A
+ * STATE message replaces the whole scene and only holds BORN entries; a DELTA
+ * only holds what changed since the last message.
+ *
+ * @author Michael Hawthorne
+ */
+public final class ViewerProtocol {
+    public static final byte[] MAGIC = { 'V', 'G', 'R', 'D' };
+    public static final int VERSION = 1;
+
+    // Message kinds
+    public static final int STATE = 0;
+    public static final int DELTA = 1;
+
+    // Entry tags
+    public static final int BORN = 1;
+    public static final int DIED = 2;
+    public static final int RADIUS = 3;
+    public static final int PETAL = 4;
+    public static final int RESIZED = 5;
+
+    public static final float RADIUS_SCALE = 4f;    // Quarter pixels
+
+    /**
+     * Nothing to make.
+     */
+    private ViewerProtocol() {
+    }
+
+    /**
+     * Quantize a root radius for the wire. Picks the nearest quarter pixel
+     * that still draws the same oval as the real radius, so the viewer
+     * never ends up a pixel off.
+     *
+     * @param x Plant X position.
+     * @param y Plant Y position.
+     * @param radius Radius in pixels.
+     * @return Radius in quarter pixels.
+     */
+    public static int quantizeRadius(int x, int y, float radius) {
+        int nearest = Math.max(0, Math.round(radius * RADIUS_SCALE));
+        for (int d = 0; d <= RADIUS_SCALE; d++) {
+            if (nearest - d >= 0
+                && PlantPartRoots.drawsSame(x, y, radius, (nearest - d) / RADIUS_SCALE)) {
+                return nearest - d;
+            }
+            if (PlantPartRoots.drawsSame(x, y, radius, (nearest + d) / RADIUS_SCALE)) {
+                return nearest + d;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Write an unsigned varint: seven bits a byte, high bit set if more follow.
+     *
+     * @param out Where to write.
+     * @param value Value, treated as unsigned.
+     */
+    public static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int)value);
+    }
+
+    /**
+     * Write a signed varint, zigzag encoded so small negatives stay small.
+     *
+     * @param out Where to write.
+     * @param value Value.
+     */
+    public static void writeSignedVarint(ByteArrayOutputStream out, long value) {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Write a long as 8 big-endian bytes.
+     *
+     * @param out Where to write.
+     * @param value Value.
+     */
+    public static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int)(value >>> shift));
+        }
+    }
+
+    /**
+     * Read an unsigned varint.
+     *
+     * @param in Where to read from.
+     * @return The value.
+     * @throws IOException If the stream ends or breaks.
+     */
+    public static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    /**
+     * Read a zigzag encoded signed varint.
+     *
+     * @param in Where to read from.
+     * @return The value.
+     * @throws IOException If the stream ends or breaks.
+     */
+    public static long readSignedVarint(InputStream in) throws IOException {
+        long raw = readVarint(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    /**
+     * Read 8 big-endian bytes.
+     *
+     * @param in Where to read from.
+     * @return The value.
+     * @throws IOException If the stream ends or breaks.
+     */
+    public static long readLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | readByte(in);
+        }
+        return value;
+    }
+
+    /**
+     * Read one byte, complaining if there isn't one.
+     *
+     * @param in Where to read from.
+     * @return The byte, 0-255.
+     * @throws IOException If the stream ends or breaks.
+     */
+    public static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+}
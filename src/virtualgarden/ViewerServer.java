@@ -0,0 +1,550 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Lets ViewerClients watch a garden over the network. A new client gets the
+ * whole garden once, and after that only what changed each frame, in the
+ * format described in ViewerProtocol.
+ *
+ * The server never touches the plants directly. It follows the garden's
+ * DeltaStream and keeps its own copy of what each plant looks like. Only when
+ * it starts, or falls behind the stream, does it ask the garden for a fresh
+ * copy through Garden.post.
+ *
+ * @author Michael Hawthorne
+ */
+public class ViewerServer {
+    private static final int CLIENT_QUEUE = 64;     // Messages a client can lag by
+
+    private final Garden garden;
+    private final ServerSocket socket;
+    private final long frameMillis;
+
+    private final HashMap<Integer, PlantState> plants;      // Our copy of the garden
+    private final TreeMap<Integer, PlantState> changes;     // Since the last frame
+    private final ArrayList<Integer> diedIds;               // Died since the last frame
+    private long tick;
+    private boolean overrun;
+
+    private final ConcurrentLinkedQueue<Client> newClients;
+    private final CopyOnWriteArrayList<Client> clients;
+
+    /**
+     * What a plant looks like, as far as a viewer cares.
+     */
+    static class PlantState {
+        int id, x, y;
+        long rootsChromosome, flowerChromosome;
+        int radius;             // Quarter pixels
+        int petalSize;
+        boolean born;           // Born since the last frame
+        boolean radiusChanged, petalChanged;
+    }
+
+    /**
+     * ViewerServer ctor. Call start to get going.
+     *
+     * @param garden Garden to serve.
+     * @param port Port to listen on.
+     * @param fps Frames to send a second.
+     * @throws IOException If we can't listen on the port.
+     */
+    public ViewerServer(Garden garden, int port, int fps) throws IOException {
+        this.garden = garden;
+        socket = new ServerSocket(port);
+        frameMillis = 1000 / Math.max(1, fps);
+        plants = new HashMap<Integer, PlantState>();
+        changes = new TreeMap<Integer, PlantState>();
+        diedIds = new ArrayList<Integer>();
+        newClients = new ConcurrentLinkedQueue<Client>();
+        clients = new CopyOnWriteArrayList<Client>();
+    }
+
+    /**
+     * Start accepting clients and sending frames, on our own threads.
+     */
+    public void start() {
+        Thread accept = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptClients();
+            }
+        }, "ViewerServer accept");
+        accept.setDaemon(true);
+        accept.start();
+
+        Thread frames = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sendFrames();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "ViewerServer frames");
+        frames.setDaemon(true);
+        frames.start();
+    }
+
+    /**
+     * Accept clients until the socket closes.
+     */
+    private void acceptClients() {
+        while (!socket.isClosed()) {
+            try {
+                Socket s = socket.accept();
+                s.setTcpNoDelay(true);
+                Client c = new Client(s);
+                c.start();
+                newClients.add(c);
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    System.err.println("ViewerServer couldn't accept a client\n"
+                                       + e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Follow the garden and send a frame to everybody every frameMillis.
+     *
+     * @throws InterruptedException If interrupted.
+     */
+    private void sendFrames() throws InterruptedException {
+        DeltaStream.Reader reader = resync();
+        DeltaStream.Handler handler = new DeltaStream.Handler() {
+            @Override
+            public void onRecord(DeltaStream.Record r) {
+                apply(r);
+            }
+
+            @Override
+            public void onOverrun(long lost) {
+                overrun = true;
+            }
+        };
+
+        while (!socket.isClosed()) {
+            long start = System.currentTimeMillis();
+            while (!overrun && reader.poll(handler, 4096) > 0) {
+            }
+
+            if (overrun) {
+                // Our copy is missing things. Start over and send everybody
+                // the whole garden.
+                reader = resync();
+                byte[] state = encodeState();
+                for (Client c : clients) {
+                    c.send(state, null);
+                }
+            } else {
+                byte[] delta = null;
+                if (!changes.isEmpty() || !diedIds.isEmpty()) {
+                    delta = encodeDelta();
+                }
+                byte[] state = null;
+                for (Client c : clients) {
+                    if (c.needsState) {
+                        if (state == null) {
+                            state = encodeState();
+                        }
+                        c.send(state, null);
+                    } else if (delta != null) {
+                        c.send(delta, state);
+                    }
+                }
+            }
+            clearChanges();
+
+            Client joined;
+            while ((joined = newClients.poll()) != null) {
+                clients.add(joined);
+                joined.send(encodeState(), null);
+            }
+            for (Client c : clients) {
+                if (c.closed) {
+                    clients.remove(c);
+                }
+            }
+
+            long elapsed = System.currentTimeMillis() - start;
+            if (elapsed < frameMillis) {
+                Thread.sleep(frameMillis - elapsed);
+            }
+        }
+    }
+
+    /**
+     * Get a fresh copy of the garden from the garden's thread, and a reader
+     * that picks up right where the copy leaves off.
+     *
+     * @return Reader positioned just after the copy.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private DeltaStream.Reader resync() throws InterruptedException {
+        // Room for the one result, so the garden's thread never waits on us,
+        // even if we've stopped waiting for it
+        final ArrayBlockingQueue<Object[]> handoff = new ArrayBlockingQueue<Object[]>(1);
+        garden.post(new Runnable() {
+            @Override
+            public void run() {
+                ArrayList<PlantState> copy = new ArrayList<PlantState>();
+                for (Plant p : garden.plants) {
+                    PlantState s = new PlantState();
+                    s.id = p.id;
+                    s.x = p.x;
+                    s.y = p.y;
+                    s.rootsChromosome = p.getChromosome(Plant.Chromosomes.ROOTS);
+                    s.flowerChromosome = p.getChromosome(Plant.Chromosomes.FLOWER);
+                    s.radius = ViewerProtocol.quantizeRadius(p.x, p.y, p.roots.getRadius());
+                    s.petalSize = p.getPetalSize();
+                    copy.add(s);
+                }
+                long cursor = garden.deltas.getCursor();
+                handoff.offer(new Object[] { copy, cursor });
+            }
+        });
+        Object[] result = handoff.take();
+
+        @SuppressWarnings("unchecked")
+        ArrayList<PlantState> copy = (ArrayList<PlantState>)result[0];
+        plants.clear();
+        clearChanges();
+        for (PlantState s : copy) {
+            plants.put(s.id, s);
+        }
+        overrun = false;
+        return garden.deltas.reader((Long)result[1]);
+    }
+
+    /**
+     * Update our copy from one record.
+     *
+     * @param r The record.
+     */
+    private void apply(DeltaStream.Record r) {
+        PlantState s;
+        switch (r.type) {
+            case DeltaStream.BORN:
+                s = new PlantState();
+                s.id = r.id;
+                s.x = r.x;
+                s.y = r.y;
+                s.rootsChromosome = r.a;
+                s.flowerChromosome = r.b;
+                s.born = true;
+                plants.put(s.id, s);
+                changes.put(s.id, s);
+                break;
+            case DeltaStream.DIED:
+                s = plants.remove(r.id);
+                if (s != null && changes.remove(r.id) != null && s.born) {
+                    // Came and went between frames. Nobody needs to know.
+                    break;
+                }
+                diedIds.add(r.id);
+                break;
+            case DeltaStream.CHANGED:
+                s = plants.get(r.id);
+                if (s == null) {
+                    break;
+                }
+                int radius = ViewerProtocol.quantizeRadius(
+                        s.x, s.y, Float.intBitsToFloat((int)r.a));
+                int petalSize = (int)r.b;
+                if (radius != s.radius) {
+                    s.radius = radius;
+                    s.radiusChanged = true;
+                }
+                if (petalSize != s.petalSize) {
+                    s.petalSize = petalSize;
+                    s.petalChanged = true;
+                }
+                if (s.radiusChanged || s.petalChanged) {
+                    changes.put(s.id, s);
+                }
+                break;
+            case DeltaStream.TICK:
+                tick = r.b;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Forget what changed since the last frame.
+     */
+    private void clearChanges() {
+        for (PlantState s : changes.values()) {
+            s.born = false;
+            s.radiusChanged = false;
+            s.petalChanged = false;
+        }
+        changes.clear();
+        diedIds.clear();
+    }
+
+    /**
+     * Encode the whole garden as a STATE message.
+     *
+     * @return The message, length prefix included.
+     */
+    private byte[] encodeState() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(ViewerProtocol.STATE);
+        ViewerProtocol.writeVarint(body, tick);
+        ViewerProtocol.writeVarint(body, plants.size());
+        int lastId = 0;
+        for (PlantState s : new TreeMap<Integer, PlantState>(plants).values()) {
+            ViewerProtocol.writeVarint(body, s.id - lastId);
+            lastId = s.id;
+            writeBorn(body, s);
+        }
+        return withLength(body);
+    }
+
+    /**
+     * Encode what changed since the last frame as a DELTA message.
+     *
+     * @return The message, length prefix included.
+     */
+    private byte[] encodeDelta() {
+        // Deaths and changes both need to be sorted by id
+        TreeMap<Integer, PlantState> entries = new TreeMap<Integer, PlantState>(changes);
+        for (Integer id : diedIds) {
+            if (!entries.containsKey(id)) {
+                entries.put(id, null);
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(ViewerProtocol.DELTA);
+        ViewerProtocol.writeVarint(body, tick);
+        ViewerProtocol.writeVarint(body, entries.size() + countReborn(entries));
+        int lastId = 0;
+        for (Map.Entry<Integer, PlantState> e : entries.entrySet()) {
+            int id = e.getKey();
+            PlantState s = e.getValue();
+            if (s == null || (s.born && diedIds.contains(id))) {
+                // An id can die and be reused in the same frame. Send the
+                // death first; the births below are relative to it.
+                ViewerProtocol.writeVarint(body, id - lastId);
+                lastId = id;
+                body.write(ViewerProtocol.DIED);
+                if (s == null) {
+                    continue;
+                }
+            }
+            ViewerProtocol.writeVarint(body, id - lastId);
+            lastId = id;
+            if (s.born) {
+                writeBorn(body, s);
+            } else if (s.radiusChanged && s.petalChanged) {
+                body.write(ViewerProtocol.RESIZED);
+                ViewerProtocol.writeVarint(body, s.radius);
+                ViewerProtocol.writeSignedVarint(body, s.petalSize);
+            } else if (s.radiusChanged) {
+                body.write(ViewerProtocol.RADIUS);
+                ViewerProtocol.writeVarint(body, s.radius);
+            } else {
+                body.write(ViewerProtocol.PETAL);
+                ViewerProtocol.writeSignedVarint(body, s.petalSize);
+            }
+        }
+        return withLength(body);
+    }
+
+    /**
+     * Count ids that died and were reborn in the same frame. They take two
+     * entries each.
+     *
+     * @param entries Entries about to be sent.
+     * @return Number of reborn ids.
+     */
+    private int countReborn(TreeMap<Integer, PlantState> entries) {
+        int count = 0;
+        for (Map.Entry<Integer, PlantState> e : entries.entrySet()) {
+            if (e.getValue() != null && e.getValue().born && diedIds.contains(e.getKey())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write the BORN tag and everything after it.
+     *
+     * @param body Where to write.
+     * @param s The plant.
+     */
+    private static void writeBorn(ByteArrayOutputStream body, PlantState s) {
+        body.write(ViewerProtocol.BORN);
+        ViewerProtocol.writeSignedVarint(body, s.x);
+        ViewerProtocol.writeSignedVarint(body, s.y);
+        ViewerProtocol.writeLong(body, s.rootsChromosome);
+        ViewerProtocol.writeLong(body, s.flowerChromosome);
+        ViewerProtocol.writeVarint(body, s.radius);
+        ViewerProtocol.writeSignedVarint(body, s.petalSize);
+    }
+
+    /**
+     * Put a length in front of a message.
+     *
+     * @param body The message.
+     * @return Length and message.
+     */
+    private static byte[] withLength(ByteArrayOutputStream body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 5);
+        ViewerProtocol.writeVarint(out, body.size());
+        byte[] bytes = body.toByteArray();
+        out.write(bytes, 0, bytes.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Stop listening. Connected clients are dropped.
+     *
+     * @throws IOException If the socket won't close.
+     */
+    public void close() throws IOException {
+        socket.close();
+        for (Client c : clients) {
+            c.close();
+        }
+    }
+
+    /**
+     * A connected viewer. Has its own thread for writing, so one slow
+     * viewer can't hold up the others.
+     */
+    private class Client implements Runnable {
+        private final Socket s;
+        private final ArrayBlockingQueue<byte[]> queue;
+        volatile boolean needsState;    // Fell behind; needs the whole garden
+        volatile boolean closed;
+        private volatile Thread writer; // Null until started
+
+        /**
+         * Client ctor.
+         *
+         * @param s Socket to the viewer.
+         */
+        Client(Socket s) {
+            this.s = s;
+            queue = new ArrayBlockingQueue<byte[]>(CLIENT_QUEUE);
+        }
+
+        /**
+         * Start writing on our own thread.
+         */
+        void start() {
+            Thread t = new Thread(this, "ViewerServer client " + s.getRemoteSocketAddress());
+            t.setDaemon(true);
+            writer = t;
+            t.start();
+        }
+
+        /**
+         * Queue a message. If the viewer is too far behind we throw away
+         * what's queued and send the whole garden instead.
+         *
+         * @param message Message to send.
+         * @param state The whole garden, if it's already encoded, or null.
+         */
+        void send(byte[] message, byte[] state) {
+            if (queue.offer(message)) {
+                needsState = false;
+                return;
+            }
+            queue.clear();
+            if (state != null) {
+                queue.offer(state);
+                needsState = false;
+            } else {
+                needsState = true;
+            }
+        }
+
+        /**
+         * Write the header, then messages as they're queued.
+         */
+        @Override
+        public void run() {
+            try {
+                OutputStream out = s.getOutputStream();
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                header.write(ViewerProtocol.MAGIC, 0, ViewerProtocol.MAGIC.length);
+                header.write(ViewerProtocol.VERSION);
+                ViewerProtocol.writeVarint(header, garden.width);
+                ViewerProtocol.writeVarint(header, garden.height);
+                header.writeTo(out);
+                while (!closed) {
+                    out.write(queue.take());
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // Viewer went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Hang up. Wakes our thread if it's waiting for something to write.
+         */
+        void close() {
+            closed = true;
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+            Thread t = writer;
+            if (t != null && t != Thread.currentThread()) {
+                t.interrupt();
+            }
+        }
+    }
+}
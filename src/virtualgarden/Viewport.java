@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Michael Hawthorne.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package virtualgarden;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+/**
+ * The part of the garden on screen, and how big it's drawn. Pans and zooms
+ * for the window, and tells Garden.draw what's visible.
+ * 
+ * Once the garden is drawn smaller than OVERVIEW_SCALE, single plants
+ * are a pixel or two across and not worth drawing one at a time, so the
+ * garden draws how crowded each area is instead.
+ * 
+ * The window changes it on the EDT while the garden's thread asks where
+ * things end up on screen, so everything is synchronized.
+ * 
+ * @author Michael Hawthorne
+ */
+public class Viewport {
+    public static final double OVERVIEW_SCALE = 0.25;   // Smaller than this draws density
+    private static final double MAX_SCALE = 8;
+    
+    private final int worldWidth, worldHeight;
+    private int screenWidth, screenHeight;
+    private double x, y;                    // Garden position at the top left corner
+    private double scale;                   // Screen pixels per garden pixel
+    
+    /**
+     * Viewport ctor. Starts at the top left of the garden, at full size.
+     * 
+     * @param worldWidth Width of the garden.
+     * @param worldHeight Height of the garden.
+     * @param screenWidth Width of what we draw into.
+     * @param screenHeight Height of what we draw into.
+     */
+    public Viewport(int worldWidth, int worldHeight, int screenWidth, int screenHeight) {
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        this.screenWidth = Math.max(1, screenWidth);
+        this.screenHeight = Math.max(1, screenHeight);
+        scale = 1;
+    }
+    
+    /**
+     * Make a Viewport showing the whole garden, as big as it fits.
+     * 
+     * @param worldWidth Width of the garden.
+     * @param worldHeight Height of the garden.
+     * @param screenWidth Width of what we draw into.
+     * @param screenHeight Height of what we draw into.
+     * @return The Viewport.
+     */
+    public static Viewport fit(int worldWidth, int worldHeight, int screenWidth, int screenHeight) {
+        Viewport v = new Viewport(worldWidth, worldHeight, screenWidth, screenHeight);
+        v.scale = Math.min(MAX_SCALE, Math.min((double)v.screenWidth / Math.max(1, worldWidth),
+                                               (double)v.screenHeight / Math.max(1, worldHeight)));
+        v.clamp();
+        return v;
+    }
+    
+    /**
+     * The screen changed size. Keeps the top left corner where it is.
+     * 
+     * @param width New width.
+     * @param height New height.
+     */
+    public synchronized void setScreenSize(int width, int height) {
+        screenWidth = Math.max(1, width);
+        screenHeight = Math.max(1, height);
+        clamp();
+    }
+    
+    /**
+     * Move the view, like dragging the garden.
+     * 
+     * @param dx Screen pixels to drag right.
+     * @param dy Screen pixels to drag down.
+     */
+    public synchronized void pan(int dx, int dy) {
+        x -= dx / scale;
+        y -= dy / scale;
+        clamp();
+    }
+    
+    /**
+     * Move the view so a spot of the garden is in the middle of the screen.
+     * 
+     * @param worldX Garden X of the spot.
+     * @param worldY Garden Y of the spot.
+     */
+    public synchronized void centerOn(double worldX, double worldY) {
+        x = worldX - screenWidth / scale / 2;
+        y = worldY - screenHeight / scale / 2;
+        clamp();
+    }
+    
+    /**
+     * Zoom in or out, keeping one point of the screen over the same spot
+     * of the garden.
+     * 
+     * @param factor How much bigger to draw things. Under 1 zooms out.
+     * @param screenX Screen X of the point that stays put.
+     * @param screenY Screen Y of the point that stays put.
+     */
+    public synchronized void zoom(double factor, int screenX, int screenY) {
+        double worldX = x + screenX / scale, worldY = y + screenY / scale;
+        scale = Math.max(minScale(), Math.min(MAX_SCALE, scale * factor));
+        x = worldX - screenX / scale;
+        y = worldY - screenY / scale;
+        clamp();
+    }
+    
+    /**
+     * @return Screen pixels per garden pixel.
+     */
+    public synchronized double getScale() {
+        return scale;
+    }
+    
+    /**
+     * @return Whether we're zoomed out far enough to draw density instead
+     *         of plants.
+     */
+    public synchronized boolean isOverview() {
+        return scale < OVERVIEW_SCALE;
+    }
+    
+    /**
+     * @return The part of the garden on screen, in garden coordinates.
+     */
+    public synchronized Rectangle getVisible() {
+        int x0 = (int)Math.floor(x), y0 = (int)Math.floor(y);
+        int x1 = (int)Math.ceil(x + screenWidth / scale);
+        int y1 = (int)Math.ceil(y + screenHeight / scale);
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+    
+    /**
+     * Where part of the garden ends up on screen.
+     * 
+     * @param r An area of the garden.
+     * @return The screen area it covers, rounded out to whole pixels.
+     */
+    public synchronized Rectangle toScreen(Rectangle r) {
+        int x0 = (int)Math.floor((r.x - x) * scale);
+        int y0 = (int)Math.floor((r.y - y) * scale);
+        int x1 = (int)Math.ceil((r.x + r.width - x) * scale);
+        int y1 = (int)Math.ceil((r.y + r.height - y) * scale);
+        return new Rectangle(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+    }
+    
+    /**
+     * Set up a Graphics drawing to the screen to take garden coordinates.
+     * 
+     * @param g The Graphics.
+     */
+    public synchronized void apply(Graphics2D g) {
+        g.scale(scale, scale);
+        g.translate(-x, -y);
+    }
+    
+    /**
+     * @return Smallest scale, where the whole garden fits on screen.
+     */
+    private double minScale() {
+        return Math.min(1, Math.min((double)screenWidth / Math.max(1, worldWidth),
+                                    (double)screenHeight / Math.max(1, worldHeight)));
+    }
+    
+    /**
+     * Keep the view over the garden, or centred on it when it's smaller
+     * than the screen.
+     */
+    private void clamp() {
+        double w = screenWidth / scale, h = screenHeight / scale;
+        x = w >= worldWidth ? (worldWidth - w) / 2 : Math.max(0, Math.min(worldWidth - w, x));
+        y = h >= worldHeight ? (worldHeight - h) / 2 : Math.max(0, Math.min(worldHeight - h, y));
+    }
+}
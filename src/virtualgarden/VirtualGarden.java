@@ -25,6 +25,14 @@ package virtualgarden;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 
@@ -37,30 +45,166 @@ import javax.swing.JPanel;
 public class VirtualGarden {
     private static final int WIDTH = 1900;
     private static final int HEIGHT = 900;
+    static final Color BACKGROUND = new Color(54, 19, 8);   // Dirt
     static Garden garden;
     
     /**
-     * Main function
+     * Main function.
+     * 
+     * Options:
+     *   --headless             Don't open a window.
+     *   --export DIR           Write a PNG sequence of the garden into DIR.
+     *   --interval N           Capture a frame every N ticks. Default 100.
+     *   --encoders N           Number of background PNG encoders.
+     *   --render-threads N     Draw the window on N threads. Default is one
+     *                          per core.
+     *   --serve PORT           Let ViewerClients watch on PORT.
+     *   --fps N                Frames a second sent to viewers. Default 30.
+     *   --genomes FILE         Keep chromosomes in FILE, where other programs
+     *                          can map it to read along. See GenomeStore.
+     *   --stats FILE           Record population, energy, traits and tick
+     *                          times every tick into FILE. See StatsRecorder.
+     *   --world WxH            Garden size, if it should be bigger than the
+     *                          window. Seeds are planted at the window's
+     *                          density. Drag to pan and scroll to zoom.
+     * 
      * @param args the command line arguments
+     * @throws IOException If the export directory can't be created, the
+     *                     viewer port can't be listened on, or the genome
+     *                     or stats file can't be made.
      */
-    public static void main(String[] args) {
-        final DrawPanel panel = new DrawPanel();
-        JFrame application = new JFrame();
-        application.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        application.add(panel);
-        application.setSize(WIDTH, HEIGHT);
-        application.setVisible(true);
+    public static void main(String[] args) throws IOException {
+        boolean headless = GraphicsEnvironment.isHeadless();
+        File exportDir = null;
+        int interval = 100;
+        int encoders = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        int renderThreads = Runtime.getRuntime().availableProcessors();
+        int servePort = -1;
+        int fps = 30;
+        File genomeFile = null;
+        File statsFile = null;
+        int worldWidth = WIDTH, worldHeight = HEIGHT;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--headless")) {
+                headless = true;
+            } else if (args[i].equals("--export")) {
+                exportDir = new File(args[++i]);
+            } else if (args[i].equals("--interval")) {
+                interval = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--encoders")) {
+                encoders = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--render-threads")) {
+                renderThreads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--serve")) {
+                servePort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--fps")) {
+                fps = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--genomes")) {
+                genomeFile = new File(args[++i]);
+            } else if (args[i].equals("--stats")) {
+                statsFile = new File(args[++i]);
+            } else if (args[i].equals("--world")) {
+                String[] size = args[++i].split("x");
+                worldWidth = Integer.parseInt(size[0]);
+                worldHeight = Integer.parseInt(size[1]);
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(1);
+            }
+        }
+        
+        DrawPanel panel = null;
+        if (!headless) {
+            panel = new DrawPanel(renderThreads > 1 ? new StripeRenderer(renderThreads)
+                                                    : Drawer.getInstance(),
+                                  new Viewport(worldWidth, worldHeight, WIDTH, HEIGHT));
+            JFrame application = new JFrame();
+            application.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            application.add(panel);
+            application.setSize(WIDTH, HEIGHT);
+            application.setVisible(true);
+        }
         
-        Garden.Init(WIDTH, HEIGHT, 65);
-        garden = Garden.getInstance();
+        GenomeStore genomes = genomeFile == null ? null 
+                              : GenomeStore.create(genomeFile.toPath(), 1024);
+        int seeds = (int)Math.round(65.0 * worldWidth * worldHeight / (WIDTH * HEIGHT));
+        garden = new Garden(worldWidth, worldHeight, seeds, new Random(), genomes);
+        if (servePort >= 0) {
+            new ViewerServer(garden, servePort, fps).start();
+        }
+        
+        FrameExporter exporter = null;
+        if (exportDir != null) {
+            exporter = new FrameExporter(exportDir, WIDTH, HEIGHT, interval,
+                                         encoders, 2 * encoders);
+            final FrameExporter e = exporter;
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        e.close();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    System.err.println("Wrote " + e.getFramesWritten() 
+                                       + " frames, dropped " + e.getFramesDropped());
+                }
+            });
+        }
         
+        StatsRecorder recorder = null;
+        if (statsFile != null) {
+            recorder = new StatsRecorder(statsFile, StatsRecorder.DEFAULT_CHUNK_ROWS);
+            final StatsRecorder r = recorder;
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    // The garden may be halfway through a tick, so wait for
+                    // the end of it to write the last rows.
+                    final Object done = new Object();
+                    synchronized (done) {
+                        garden.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    r.close();
+                                } catch (IOException ex) {
+                                    System.err.println(ex.toString());
+                                }
+                                synchronized (done) {
+                                    done.notify();
+                                }
+                            }
+                        });
+                        try {
+                            done.wait(5000);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            });
+        }
         
+        final DrawPanel p = panel;
+        final FrameExporter e = exporter;
+        final StatsRecorder r = recorder;
         new Thread(new Runnable() {
                     @Override
                     public void run() {
                         while (true) {
-                            garden.grow(0.001f);
-                            panel.repaint();
+                            long start = System.nanoTime();
+                            garden.step(Garden.MIN_STEP, Garden.MAX_STEP,
+                                        Double.POSITIVE_INFINITY);
+                            if (r != null) {
+                                r.tick(garden, System.nanoTime() - start);
+                            }
+                            if (e != null) {
+                                e.tick(garden);
+                            }
+                            if (p != null) {
+                                p.repaintGarden(garden.takeDirtyRegions());
+                            }
                         }
                     }
                 }).start();
@@ -71,13 +215,70 @@ public class VirtualGarden {
      * I don't really want to think too hard about Swing.
      */
     private static class DrawPanel extends JPanel {
+        private final Drawer drawer;
+        private final Viewport viewport;
         
         /**
          * ctor
+         * @param drawer What to draw the garden with.
+         * @param viewport What part of the garden to show.
          */
-        public DrawPanel() {
+        public DrawPanel(Drawer drawer, Viewport viewport) {
             super();
-            setBackground(new Color(54, 19, 8));
+            this.drawer = drawer;
+            this.viewport = viewport;
+            setBackground(BACKGROUND);
+            
+            // Drag to pan, scroll to zoom
+            MouseAdapter mouse = new MouseAdapter() {
+                private int lastX, lastY;
+                
+                @Override
+                public void mousePressed(MouseEvent e) {
+                    lastX = e.getX();
+                    lastY = e.getY();
+                }
+                
+                @Override
+                public void mouseDragged(MouseEvent e) {
+                    DrawPanel.this.viewport.pan(e.getX() - lastX, e.getY() - lastY);
+                    lastX = e.getX();
+                    lastY = e.getY();
+                    repaint();
+                }
+                
+                @Override
+                public void mouseWheelMoved(MouseWheelEvent e) {
+                    DrawPanel.this.viewport.zoom(Math.pow(1.1, -e.getPreciseWheelRotation()),
+                                                 e.getX(), e.getY());
+                    repaint();
+                }
+            };
+            addMouseListener(mouse);
+            addMouseMotionListener(mouse);
+            addMouseWheelListener(mouse);
+        }
+        
+        /**
+         * Repaint parts of the garden that changed, wherever they are on
+         * screen. Zoomed out, a change anywhere on screen can recolour a
+         * whole density square, so the whole panel is repainted.
+         * 
+         * @param regions Changed areas, in garden coordinates.
+         */
+        void repaintGarden(Iterable<Rectangle> regions) {
+            Rectangle visible = viewport.getVisible();
+            boolean overview = viewport.isOverview();
+            for (Rectangle r : regions) {
+                if (!r.intersects(visible)) {
+                    continue;
+                }
+                if (overview) {
+                    repaint();
+                    return;
+                }
+                repaint(viewport.toScreen(r));
+            }
         }
         
         /**
@@ -88,7 +289,8 @@ public class VirtualGarden {
         public void paintComponent(Graphics g) {
             super.paintComponent(g);
             if (garden != null) {
-                garden.draw(g);
+                viewport.setScreenSize(getWidth(), getHeight());
+                garden.draw(g, drawer, viewport);
             }
         }
     }